@@ -0,0 +1,499 @@
+package pt.isel.cd.common.codec;
+
+import pt.isel.cd.common.model.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Compact binary wire format.
+ *
+ * Frame layout:
+ * <pre>
+ *   magic (1 byte) | schema version (1 byte) | kind (1 byte) | body length (varint) | body
+ * </pre>
+ * Payloads are type-tagged and length-prefixed, so they decode straight into the
+ * concrete payload class and fields appended by newer schema versions are skipped
+ * by older readers.
+ */
+public class BinaryCodec implements MessageCodec {
+    public static final String CONTENT_TYPE = "application/x-tpa2-binary";
+
+    static final int MAGIC = 0xCD;
+    static final int SCHEMA_VERSION = 1;
+
+    private static final int KIND_REQUEST = 1;
+    private static final int KIND_RESPONSE = 2;
+    private static final int KIND_SPREAD = 3;
+
+    private static final int TAG_NULL = 0;
+    private static final Map<Class<?>, PayloadType<?>> TYPES_BY_CLASS = new HashMap<>();
+    private static final Map<Integer, PayloadType<?>> TYPES_BY_TAG = new HashMap<>();
+
+    static {
+        // Tags are part of the wire format: never reuse or renumber them
+        register(1, String.class, (v, w) -> w.writeString(v), WireReader::readString);
+        register(2, Long.class, (v, w) -> w.writeLong(v), WireReader::readLong);
+        register(3, Double.class, (v, w) -> w.writeDouble(v), WireReader::readDouble);
+        register(4, Integer.class, (v, w) -> w.writeInt(v), WireReader::readInt);
+
+        register(10, SearchPayload.class,
+            (v, w) -> w.writeStringList(v.getSubstrings()),
+            r -> new SearchPayload(r.readStringList()));
+        register(11, FilePayload.class,
+            (v, w) -> w.writeString(v.getFilename()),
+            r -> new FilePayload(r.readString()));
+        register(12, SearchResultPayload.class,
+            (v, w) -> w.writeStringMap(v.getResults()),
+            r -> new SearchResultPayload(r.readStringMap()));
+        register(13, FileContentPayload.class,
+            (v, w) -> {
+                w.writeString(v.getFilename());
+                w.writeString(v.getContent());
+            },
+            r -> new FileContentPayload(r.readString(), r.readString()));
+        register(14, StatisticsPayload.class,
+            (v, w) -> {
+                w.writeLong(v.getTotalRequests());
+                w.writeLong(v.getSuccessfulRequests());
+                w.writeLong(v.getFailedRequests());
+                w.writeInt(v.getWorkerCount());
+                w.writeLong(v.getStalenessMillis());
+                writeHistograms(w, v.getLatencies());
+                writePayload(w, v.getQueueWait());
+                w.writeLong(v.getFilesScanned());
+                w.writeLong(v.getBytesScanned());
+                w.writeLong(v.getCacheHits());
+                w.writeLong(v.getCacheMisses());
+                writeWindows(w, v.getWindows());
+            },
+            r -> {
+                StatisticsPayload p = new StatisticsPayload(r.readLong(), r.readLong(), r.readLong(), r.readInt());
+                if (r.hasRemaining()) {
+                    p.setStalenessMillis(r.readLong());
+                }
+                if (r.hasRemaining()) {
+                    p.setLatencies(readHistograms(r));
+                    p.setQueueWait(readHistogram(r));
+                    p.setFilesScanned(r.readLong());
+                    p.setBytesScanned(r.readLong());
+                    p.setCacheHits(r.readLong());
+                    p.setCacheMisses(r.readLong());
+                }
+                if (r.hasRemaining()) {
+                    p.setWindows(readWindows(r));
+                }
+                return p;
+            });
+
+        register(20, PartialStatsPayload.class,
+            (v, w) -> {
+                w.writeString(v.getWorkerId());
+                w.writeLong(v.getTotalRequests());
+                w.writeLong(v.getSuccessfulRequests());
+                w.writeLong(v.getFailedRequests());
+                w.writeLong(v.getTimestamp());
+                w.writeLong(v.getIncarnation());
+                writeHistograms(w, v.getLatencies());
+                writePayload(w, v.getQueueWait());
+                w.writeLong(v.getFilesScanned());
+                w.writeLong(v.getBytesScanned());
+                w.writeLong(v.getCacheHits());
+                w.writeLong(v.getCacheMisses());
+                writeWindows(w, v.getWindows());
+                w.writeLong(v.getRetiredThrough());
+            },
+            r -> {
+                PartialStatsPayload p = new PartialStatsPayload();
+                p.setWorkerId(r.readString());
+                p.setTotalRequests(r.readLong());
+                p.setSuccessfulRequests(r.readLong());
+                p.setFailedRequests(r.readLong());
+                p.setTimestamp(r.readLong());
+                if (r.hasRemaining()) {
+                    p.setIncarnation(r.readLong());
+                }
+                if (r.hasRemaining()) {
+                    p.setLatencies(readHistograms(r));
+                    p.setQueueWait(readHistogram(r));
+                    p.setFilesScanned(r.readLong());
+                    p.setBytesScanned(r.readLong());
+                    p.setCacheHits(r.readLong());
+                    p.setCacheMisses(r.readLong());
+                }
+                if (r.hasRemaining()) {
+                    p.setWindows(readWindows(r));
+                }
+                if (r.hasRemaining()) {
+                    p.setRetiredThrough(r.readLong());
+                }
+                return p;
+            });
+        register(21, ElectionPayload.class,
+            (v, w) -> {
+                w.writeString(v.getCandidateId());
+                w.writeLong(v.getElectionEpoch());
+                w.writeLong(v.getUptime());
+                w.writeString(v.getRequestId());
+                w.writeString(v.getClientQueue());
+                w.writeString(v.getReplyContentType());
+            },
+            r -> {
+                ElectionPayload p = new ElectionPayload(r.readString(), r.readLong(), r.readLong(),
+                                                        r.readString(), r.readString());
+                p.setReplyContentType(r.readString());
+                return p;
+            });
+        register(22, VotePayload.class,
+            (v, w) -> {
+                w.writeString(v.getVoterId());
+                w.writeString(v.getVotedFor());
+                w.writeLong(v.getElectionEpoch());
+                w.writeBoolean(v.isAccept());
+            },
+            r -> new VotePayload(r.readString(), r.readString(), r.readLong(), r.readBoolean()));
+        register(23, CoordinatorAnnouncePayload.class,
+            (v, w) -> {
+                w.writeLong(v.getElectionEpoch());
+                w.writeString(v.getCoordinatorId());
+                w.writeString(v.getRequestId());
+                w.writeString(v.getClientQueue());
+                w.writeString(v.getReplyContentType());
+            },
+            r -> {
+                CoordinatorAnnouncePayload p = new CoordinatorAnnouncePayload(
+                    r.readLong(), r.readString(), r.readString(), r.readString());
+                p.setReplyContentType(r.readString());
+                return p;
+            });
+        register(24, WorkerPresencePayload.class,
+            (v, w) -> {
+                w.writeString(v.getWorkerId());
+                w.writeLong(v.getUptime());
+                w.writeLong(v.getLocalSequence());
+                w.writeString(v.getVersion());
+            },
+            r -> {
+                WorkerPresencePayload p = new WorkerPresencePayload();
+                p.setWorkerId(r.readString());
+                p.setUptime(r.readLong());
+                p.setLocalSequence(r.readLong());
+                p.setVersion(r.readString());
+                return p;
+            });
+        register(25, StatsGossipPayload.class,
+            (v, w) -> {
+                w.writeString(v.getSenderId());
+                w.writeVarLong(v.getEntries().size());
+                for (PartialStatsPayload entry : v.getEntries()) {
+                    writePayload(w, entry);
+                }
+            },
+            r -> {
+                StatsGossipPayload p = new StatsGossipPayload();
+                p.setSenderId(r.readString());
+                int size = r.readCount();
+                for (int i = 0; i < size; i++) {
+                    Object entry = readPayload(r);
+                    if (entry instanceof PartialStatsPayload) {
+                        p.getEntries().add((PartialStatsPayload) entry);
+                    }
+                }
+                return p;
+            });
+        register(26, LatencyHistogram.class,
+            (v, w) -> {
+                long[] counts = v.getCounts();
+                w.writeVarLong(counts.length);
+                for (long count : counts) {
+                    w.writeVarLong(count);
+                }
+            },
+            r -> {
+                int size = r.readCount();
+                long[] counts = new long[Math.min(size, LatencyHistogram.BUCKET_COUNT)];
+                for (int i = 0; i < size; i++) {
+                    long count = r.readVarLong();
+                    if (i < counts.length) {
+                        counts[i] = count;
+                    }
+                }
+                return new LatencyHistogram(counts);
+            });
+        register(27, WindowStats.class,
+            (v, w) -> {
+                w.writeInt(v.getWindowSeconds());
+                w.writeLong(v.getSpanMillis());
+                writeCounts(w, v.getRequests());
+                writeCounts(w, v.getErrors());
+                writeHistograms(w, v.getLatencies());
+            },
+            r -> {
+                WindowStats p = new WindowStats(r.readInt(), r.readLong());
+                p.setRequests(readCounts(r));
+                p.setErrors(readCounts(r));
+                p.setLatencies(readHistograms(r));
+                return p;
+            });
+        register(28, TraceContext.class,
+            (v, w) -> {
+                w.writeString(v.getTraceId());
+                w.writeString(v.getParentSpanId());
+                w.writeBoolean(v.isDetailed());
+            },
+            r -> new TraceContext(r.readString(), r.readString(), r.readBoolean()));
+        register(29, SpreadBatchPayload.class,
+            (v, w) -> {
+                w.writeVarLong(v.getMessages().size());
+                for (SpreadMessage message : v.getMessages()) {
+                    WireWriter block = new WireWriter();
+                    writeSpreadBody(block, message);
+                    w.writeBlock(block);
+                }
+            },
+            r -> {
+                SpreadBatchPayload p = new SpreadBatchPayload();
+                int size = r.readCount();
+                for (int i = 0; i < size; i++) {
+                    p.getMessages().add(readSpreadBody(r.readBlock()));
+                }
+                return p;
+            });
+    }
+
+    @Override
+    public String getContentType() {
+        return CONTENT_TYPE;
+    }
+
+    @Override
+    public byte[] encodeRequest(RequestMessage message) {
+        WireWriter body = new WireWriter();
+        body.writeString(message.getRequestId());
+        body.writeEnum(message.getType());
+        body.writeString(message.getClientQueue());
+        writePayload(body, message.getPayload());
+        return frame(KIND_REQUEST, body);
+    }
+
+    @Override
+    public RequestMessage decodeRequest(byte[] bytes) {
+        WireReader body = unframe(bytes, KIND_REQUEST);
+        RequestMessage message = new RequestMessage();
+        message.setRequestId(body.readString());
+        message.setType(body.readEnum(RequestType.values()));
+        message.setClientQueue(body.readString());
+        message.setPayload(readPayload(body));
+        return message;
+    }
+
+    @Override
+    public byte[] encodeResponse(ResponseMessage message) {
+        WireWriter body = new WireWriter();
+        body.writeString(message.getRequestId());
+        body.writeEnum(message.getStatus());
+        body.writeEnum(message.getType());
+        writePayload(body, message.getPayload());
+        return frame(KIND_RESPONSE, body);
+    }
+
+    @Override
+    public ResponseMessage decodeResponse(byte[] bytes) {
+        WireReader body = unframe(bytes, KIND_RESPONSE);
+        ResponseMessage message = new ResponseMessage();
+        message.setRequestId(body.readString());
+        message.setStatus(body.readEnum(ResponseStatus.values()));
+        message.setType(body.readEnum(ResponseType.values()));
+        message.setPayload(readPayload(body));
+        return message;
+    }
+
+    @Override
+    public byte[] encodeSpreadMessage(SpreadMessage message) {
+        WireWriter body = new WireWriter(128);
+        writeSpreadBody(body, message);
+        return frame(KIND_SPREAD, body);
+    }
+
+    @Override
+    public SpreadMessage decodeSpreadMessage(byte[] bytes) {
+        return readSpreadBody(unframe(bytes, KIND_SPREAD));
+    }
+
+    private static void writeSpreadBody(WireWriter body, SpreadMessage message) {
+        body.writeEnum(message.getType());
+        body.writeString(message.getSenderId());
+        body.writeLong(message.getTimestamp());
+        writePayload(body, message.getPayload());
+        writePayload(body, message.getTrace());
+    }
+
+    private static SpreadMessage readSpreadBody(WireReader body) {
+        SpreadMessage message = new SpreadMessage();
+        message.setType(body.readEnum(SpreadMessageType.values()));
+        message.setSenderId(body.readString());
+        message.setTimestamp(body.readLong());
+        message.setPayload(readPayload(body));
+        if (body.hasRemaining()) {
+            Object trace = readPayload(body);
+            message.setTrace(trace instanceof TraceContext ? (TraceContext) trace : null);
+        }
+        return message;
+    }
+
+    /**
+     * True if the bytes start like a frame of this format (used to tell binary from JSON).
+     */
+    public static boolean isBinaryFrame(byte[] bytes) {
+        return bytes != null && bytes.length > 2 && (bytes[0] & 0xFF) == MAGIC;
+    }
+
+    private static byte[] frame(int kind, WireWriter body) {
+        WireWriter frame = new WireWriter(body.size() + 8);
+        frame.writeByte(MAGIC);
+        frame.writeByte(SCHEMA_VERSION);
+        frame.writeByte(kind);
+        frame.writeBlock(body);
+        return frame.toByteArray();
+    }
+
+    private static WireReader unframe(byte[] bytes, int expectedKind) {
+        WireReader frame = new WireReader(bytes);
+        if (frame.readByte() != MAGIC) {
+            throw new CodecException("Not a binary frame");
+        }
+        int version = frame.readByte();
+        if (version > SCHEMA_VERSION) {
+            throw new CodecException("Unsupported schema version " + version);
+        }
+        int kind = frame.readByte();
+        if (kind != expectedKind) {
+            throw new CodecException("Unexpected frame kind " + kind + " (expected " + expectedKind + ")");
+        }
+        return frame.readBlock();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void writePayload(WireWriter writer, Object payload) {
+        if (payload == null) {
+            writer.writeVarLong(TAG_NULL);
+            return;
+        }
+        PayloadType<Object> type = (PayloadType<Object>) TYPES_BY_CLASS.get(payload.getClass());
+        if (type == null) {
+            throw new CodecException("Unsupported payload type: " + payload.getClass().getName());
+        }
+        WireWriter block = new WireWriter();
+        type.writer.accept(payload, block);
+        writer.writeVarLong(type.tag);
+        writer.writeBlock(block);
+    }
+
+    private static Object readPayload(WireReader reader) {
+        int tag = (int) reader.readVarLong();
+        if (tag == TAG_NULL) {
+            return null;
+        }
+        WireReader block = reader.readBlock();
+        PayloadType<?> type = TYPES_BY_TAG.get(tag);
+        // Payload types added by newer versions are skipped
+        return type != null ? type.reader.apply(block) : null;
+    }
+
+    private static void writeHistograms(WireWriter writer, Map<String, LatencyHistogram> histograms) {
+        if (histograms == null) {
+            writer.writeVarLong(0);
+            return;
+        }
+        writer.writeVarLong(histograms.size());
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            writer.writeString(entry.getKey());
+            writePayload(writer, entry.getValue());
+        }
+    }
+
+    private static Map<String, LatencyHistogram> readHistograms(WireReader reader) {
+        int size = reader.readCount();
+        Map<String, LatencyHistogram> histograms = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            String key = reader.readString();
+            histograms.put(key, readHistogram(reader));
+        }
+        return histograms;
+    }
+
+    private static LatencyHistogram readHistogram(WireReader reader) {
+        Object histogram = readPayload(reader);
+        return histogram instanceof LatencyHistogram ? (LatencyHistogram) histogram : new LatencyHistogram();
+    }
+
+    private static void writeWindows(WireWriter writer, List<WindowStats> windows) {
+        if (windows == null) {
+            writer.writeVarLong(0);
+            return;
+        }
+        writer.writeVarLong(windows.size());
+        for (WindowStats window : windows) {
+            writePayload(writer, window);
+        }
+    }
+
+    private static List<WindowStats> readWindows(WireReader reader) {
+        int size = reader.readCount();
+        List<WindowStats> windows = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Object window = readPayload(reader);
+            if (window instanceof WindowStats) {
+                windows.add((WindowStats) window);
+            }
+        }
+        return windows;
+    }
+
+    private static void writeCounts(WireWriter writer, Map<String, Long> counts) {
+        if (counts == null) {
+            writer.writeVarLong(0);
+            return;
+        }
+        writer.writeVarLong(counts.size());
+        for (Map.Entry<String, Long> entry : counts.entrySet()) {
+            writer.writeString(entry.getKey());
+            writer.writeVarLong(entry.getValue());
+        }
+    }
+
+    private static Map<String, Long> readCounts(WireReader reader) {
+        int size = reader.readCount();
+        Map<String, Long> counts = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            String key = reader.readString();
+            counts.put(key, reader.readVarLong());
+        }
+        return counts;
+    }
+
+    private static <T> void register(int tag, Class<T> type, BiConsumer<T, WireWriter> writer,
+                                     Function<WireReader, T> reader) {
+        PayloadType<T> payloadType = new PayloadType<>(tag, writer, reader);
+        if (TYPES_BY_TAG.put(tag, payloadType) != null) {
+            throw new IllegalStateException("Duplicate payload tag " + tag);
+        }
+        TYPES_BY_CLASS.put(type, payloadType);
+    }
+
+    private static class PayloadType<T> {
+        final int tag;
+        final BiConsumer<T, WireWriter> writer;
+        final Function<WireReader, T> reader;
+
+        PayloadType(int tag, BiConsumer<T, WireWriter> writer, Function<WireReader, T> reader) {
+            this.tag = tag;
+            this.writer = writer;
+            this.reader = reader;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package pt.isel.cd.common.codec;
+
+/**
+ * Thrown when a message cannot be encoded or decoded.
+ */
+public class CodecException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public CodecException(String message) {
+        super(message);
+    }
+
+    public CodecException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,46 @@
+package pt.isel.cd.common.codec;
+
+/**
+ * Lookup of codecs by AMQP content-type.
+ */
+public class Codecs {
+    public static final MessageCodec JSON = new JsonCodec();
+    public static final MessageCodec BINARY = new BinaryCodec();
+
+    /**
+     * Codec for a received message. Messages without a content-type, or with an
+     * unknown one, come from older clients and are treated as JSON.
+     */
+    public static MessageCodec forContentType(String contentType) {
+        if (contentType != null && contentType.startsWith(BinaryCodec.CONTENT_TYPE)) {
+            return BINARY;
+        }
+        return JSON;
+    }
+
+    /**
+     * Codec for a message received without a content-type (e.g. over Spread): binary
+     * frames are recognised by their leading magic byte, anything else is JSON.
+     */
+    public static MessageCodec forFrame(byte[] bytes) {
+        return BinaryCodec.isBinaryFrame(bytes) ? BINARY : JSON;
+    }
+
+    /**
+     * Codec by configuration name ("json" or "binary").
+     */
+    public static MessageCodec byName(String name) {
+        switch (name.trim().toLowerCase()) {
+            case "json":
+                return JSON;
+            case "binary":
+                return BINARY;
+            default:
+                throw new IllegalArgumentException("Unknown wire format: " + name);
+        }
+    }
+
+    private Codecs() {
+        // Utility class
+    }
+}
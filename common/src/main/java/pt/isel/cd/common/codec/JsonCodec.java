@@ -0,0 +1,48 @@
+package pt.isel.cd.common.codec;
+
+import pt.isel.cd.common.model.RequestMessage;
+import pt.isel.cd.common.model.ResponseMessage;
+import pt.isel.cd.common.model.SpreadMessage;
+import pt.isel.cd.common.util.JsonUtil;
+
+/**
+ * The original JSON format. Also used for messages without a content-type (older clients).
+ */
+public class JsonCodec implements MessageCodec {
+    public static final String CONTENT_TYPE = "application/json";
+
+    @Override
+    public String getContentType() {
+        return CONTENT_TYPE;
+    }
+
+    @Override
+    public byte[] encodeRequest(RequestMessage message) {
+        return JsonUtil.toJsonBytes(message);
+    }
+
+    @Override
+    public RequestMessage decodeRequest(byte[] bytes) {
+        return JsonUtil.parseRequest(bytes);
+    }
+
+    @Override
+    public byte[] encodeResponse(ResponseMessage message) {
+        return JsonUtil.toJsonBytes(message);
+    }
+
+    @Override
+    public ResponseMessage decodeResponse(byte[] bytes) {
+        return JsonUtil.parseResponse(bytes);
+    }
+
+    @Override
+    public byte[] encodeSpreadMessage(SpreadMessage message) {
+        return JsonUtil.toJsonBytes(message);
+    }
+
+    @Override
+    public SpreadMessage decodeSpreadMessage(byte[] bytes) {
+        return JsonUtil.parseSpreadMessage(bytes);
+    }
+}
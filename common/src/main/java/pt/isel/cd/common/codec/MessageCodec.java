@@ -0,0 +1,29 @@
+package pt.isel.cd.common.codec;
+
+import pt.isel.cd.common.model.RequestMessage;
+import pt.isel.cd.common.model.ResponseMessage;
+import pt.isel.cd.common.model.SpreadMessage;
+
+/**
+ * Wire format for the messages exchanged through RabbitMQ and Spread.
+ * The format of a RabbitMQ message is identified by its AMQP content-type property.
+ */
+public interface MessageCodec {
+
+    /**
+     * AMQP content-type announced for messages in this format.
+     */
+    String getContentType();
+
+    byte[] encodeRequest(RequestMessage message);
+
+    RequestMessage decodeRequest(byte[] bytes);
+
+    byte[] encodeResponse(ResponseMessage message);
+
+    ResponseMessage decodeResponse(byte[] bytes);
+
+    byte[] encodeSpreadMessage(SpreadMessage message);
+
+    SpreadMessage decodeSpreadMessage(byte[] bytes);
+}
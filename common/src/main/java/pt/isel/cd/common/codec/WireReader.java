@@ -0,0 +1,161 @@
+package pt.isel.cd.common.codec;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reader for the format produced by {@link WireWriter}.
+ */
+public final class WireReader {
+    private final byte[] buffer;
+    private int position;
+    private final int limit;
+
+    public WireReader(byte[] buffer) {
+        this(buffer, 0, buffer.length);
+    }
+
+    public WireReader(byte[] buffer, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > buffer.length) {
+            throw new CodecException("Invalid buffer range");
+        }
+        this.buffer = buffer;
+        this.position = offset;
+        this.limit = offset + length;
+    }
+
+    public int readByte() {
+        require(1);
+        return buffer[position++] & 0xFF;
+    }
+
+    public boolean readBoolean() {
+        return readByte() != 0;
+    }
+
+    public long readVarLong() {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new CodecException("Malformed variable-length integer");
+    }
+
+    public long readLong() {
+        long raw = readVarLong();
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+
+    public int readInt() {
+        return (int) readLong();
+    }
+
+    public double readDouble() {
+        require(8);
+        long bits = 0;
+        for (int i = 0; i < 8; i++) {
+            bits = (bits << 8) | (buffer[position++] & 0xFF);
+        }
+        return Double.longBitsToDouble(bits);
+    }
+
+    public String readString() {
+        int length = readLength();
+        if (length < 0) {
+            return null;
+        }
+        require(length);
+        String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return value;
+    }
+
+    /**
+     * Nullable enum; values unknown to this version decode as null.
+     */
+    public <E extends Enum<E>> E readEnum(E[] values) {
+        long ordinal = readVarLong() - 1;
+        if (ordinal < 0 || ordinal >= values.length) {
+            return null;
+        }
+        return values[(int) ordinal];
+    }
+
+    public List<String> readStringList() {
+        int size = readLength();
+        if (size < 0) {
+            return null;
+        }
+        List<String> values = new ArrayList<>(Math.min(size, remaining()));
+        for (int i = 0; i < size; i++) {
+            values.add(readString());
+        }
+        return values;
+    }
+
+    public Map<String, String> readStringMap() {
+        int size = readLength();
+        if (size < 0) {
+            return null;
+        }
+        Map<String, String> values = new HashMap<>(Math.min(size, remaining()) * 2);
+        for (int i = 0; i < size; i++) {
+            values.put(readString(), readString());
+        }
+        return values;
+    }
+
+    /**
+     * Read a length-prefixed block and return a reader bounded to it.
+     * The caller reads the fields it knows; anything after them is skipped.
+     */
+    public WireReader readBlock() {
+        int length = readCount();
+        require(length);
+        WireReader block = new WireReader(buffer, position, length);
+        position += length;
+        return block;
+    }
+
+    /**
+     * Element count of a collection that follows. Every element takes at least one byte,
+     * so a count larger than what is left of the message is rejected before anything
+     * is allocated for it.
+     */
+    public int readCount() {
+        long count = readVarLong();
+        if (count < 0 || count > remaining()) {
+            throw new CodecException("Count out of range: " + count);
+        }
+        return (int) count;
+    }
+
+    public boolean hasRemaining() {
+        return position < limit;
+    }
+
+    public int remaining() {
+        return limit - position;
+    }
+
+    private int readLength() {
+        long raw = readVarLong();
+        if (raw > Integer.MAX_VALUE) {
+            throw new CodecException("Length out of range: " + raw);
+        }
+        return (int) raw - 1;
+    }
+
+    private void require(int bytes) {
+        if (bytes < 0 || position + bytes > limit) {
+            throw new CodecException("Truncated message");
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package pt.isel.cd.common.codec;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Growable buffer for the binary wire format.
+ * Integers are written as variable-length (zig-zag for signed values), strings and
+ * collections are length-prefixed with a null marker.
+ */
+public final class WireWriter {
+    private byte[] buffer;
+    private int position;
+
+    public WireWriter() {
+        this(256);
+    }
+
+    public WireWriter(int initialCapacity) {
+        buffer = new byte[Math.max(16, initialCapacity)];
+    }
+
+    public void writeByte(int value) {
+        ensureCapacity(1);
+        buffer[position++] = (byte) value;
+    }
+
+    public void writeBoolean(boolean value) {
+        writeByte(value ? 1 : 0);
+    }
+
+    /**
+     * Unsigned variable-length integer (7 bits per byte).
+     */
+    public void writeVarLong(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    /**
+     * Signed variable-length integer (zig-zag encoded).
+     */
+    public void writeLong(long value) {
+        writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    public void writeInt(int value) {
+        writeLong(value);
+    }
+
+    public void writeDouble(double value) {
+        long bits = Double.doubleToLongBits(value);
+        ensureCapacity(8);
+        for (int i = 7; i >= 0; i--) {
+            buffer[position++] = (byte) (bits >>> (i * 8));
+        }
+    }
+
+    /**
+     * Nullable string: length + 1 (0 = null), then UTF-8 bytes.
+     */
+    public void writeString(String value) {
+        if (value == null) {
+            writeVarLong(0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(bytes.length + 1L);
+        writeRaw(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Nullable enum: ordinal + 1 (0 = null).
+     */
+    public void writeEnum(Enum<?> value) {
+        writeVarLong(value == null ? 0 : value.ordinal() + 1L);
+    }
+
+    public void writeStringList(List<String> values) {
+        if (values == null) {
+            writeVarLong(0);
+            return;
+        }
+        writeVarLong(values.size() + 1L);
+        for (String value : values) {
+            writeString(value);
+        }
+    }
+
+    public void writeStringMap(Map<String, String> values) {
+        if (values == null) {
+            writeVarLong(0);
+            return;
+        }
+        writeVarLong(values.size() + 1L);
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            writeString(entry.getKey());
+            writeString(entry.getValue());
+        }
+    }
+
+    /**
+     * Length-prefixed block, so readers of an older schema can skip fields appended later.
+     */
+    public void writeBlock(WireWriter block) {
+        writeVarLong(block.position);
+        writeRaw(block.buffer, 0, block.position);
+    }
+
+    public void writeRaw(byte[] bytes, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, buffer, position, length);
+        position += length;
+    }
+
+    public int size() {
+        return position;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, position);
+    }
+
+    private void ensureCapacity(int extra) {
+        if (position + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + extra));
+        }
+    }
+}
@@ -7,9 +7,15 @@ public class QueueConfig {
     
     /**
      * Main queue for work distribution to workers.
+     * Carries the expensive requests (SEARCH) and anything sent by older clients.
      */
     public static final String REQUESTS_QUEUE = "requests";
     
+    /**
+     * Queue for cheap, latency-sensitive requests (GET_FILE, GET_STATS).
+     */
+    public static final String INTERACTIVE_REQUESTS_QUEUE = "requests.interactive";
+    
     /**
      * Prefix for client-specific response queues.
      */
@@ -20,6 +26,63 @@ public class QueueConfig {
      */
     public static final int CLIENT_QUEUE_TTL = 300000;
     
+    /**
+     * RabbitMQ direct reply-to pseudo-queue.
+     * Clients that consume from it send requests with a replyTo/correlationId property
+     * instead of a clientQueue, and workers reply to the replyTo address.
+     */
+    public static final String DIRECT_REPLY_TO = "amq.rabbitmq.reply-to";
+    
+    /**
+     * Header counting how many times a request has been attempted and failed.
+     * Requests without it are on their first attempt.
+     */
+    public static final String RETRY_COUNT_HEADER = "x-retry-count";
+    
+    /**
+     * Header with the last failure of a request, set on retried and dead-lettered copies.
+     */
+    public static final String FAILURE_REASON_HEADER = "x-failure-reason";
+    
+    /**
+     * Header with the time (epoch milliseconds) a client published a request.
+     * Workers use it to measure queue wait for admission control.
+     */
+    public static final String ENQUEUED_AT_HEADER = "x-enqueued-at";
+    
+    /**
+     * Header marking a request that was already moved behind fresher ones once.
+     */
+    public static final String DEPRIORITIZED_HEADER = "x-deprioritized";
+    
+    /**
+     * Header on requests the client may hedge: false on the original, true on the duplicate
+     * (same request id). Workers skip a duplicate if the original already completed, never
+     * count it as a new request, and announce completions only of requests that carry it
+     * (or were redelivered), since only those can have a twin.
+     */
+    public static final String HEDGE_HEADER = "x-hedge";
+    
+    /**
+     * Header with the trace id of a request, echoed on its response.
+     */
+    public static final String TRACE_ID_HEADER = "x-trace-id";
+    
+    /**
+     * Header with the id of the sender's span the receiver's spans belong to.
+     */
+    public static final String PARENT_SPAN_HEADER = "x-parent-span-id";
+    
+    /**
+     * Header set by clients run with --trace: the response carries the phase timings.
+     */
+    public static final String TRACE_DETAIL_HEADER = "x-trace-detail";
+    
+    /**
+     * Response header with the worker's phase timings (see Tracing.formatPhases).
+     */
+    public static final String TRACE_PHASES_HEADER = "x-trace-phases";
+    
     /**
      * Default RabbitMQ host.
      */
@@ -0,0 +1,69 @@
+package pt.isel.cd.common.config;
+
+import pt.isel.cd.common.model.RequestType;
+
+/**
+ * Priority lanes for requests. Each lane has its own queue and dedicated
+ * consumer capacity in the workers, so cheap requests never wait behind searches.
+ */
+public enum RequestLane {
+    /**
+     * Millisecond-scale requests: file fetches and statistics.
+     */
+    INTERACTIVE(QueueConfig.INTERACTIVE_REQUESTS_QUEUE),
+    
+    /**
+     * Full scans of the shared directory.
+     */
+    BULK(QueueConfig.REQUESTS_QUEUE);
+    
+    private final String queueName;
+    
+    RequestLane(String queueName) {
+        this.queueName = queueName;
+    }
+    
+    public String getQueueName() {
+        return queueName;
+    }
+    
+    /**
+     * Delay queue holding failed requests of this lane before they are retried.
+     * The delay is part of the name because queue arguments (the TTL) cannot change once declared.
+     */
+    public String getRetryQueueName(long delayMillis) {
+        return queueName + ".retry." + delayMillis + "ms";
+    }
+    
+    /**
+     * Queue for requests of this lane that exhausted their retries (or could not be decoded).
+     */
+    public String getDeadLetterQueueName() {
+        return queueName + ".dead";
+    }
+    
+    /**
+     * Consistent-hash exchange spreading this lane over its shard queues (sharded topology).
+     */
+    public String getShardExchangeName() {
+        return queueName + ".sharded";
+    }
+    
+    public String getShardQueueName(int shard) {
+        return queueName + ".shard." + shard;
+    }
+    
+    /**
+     * Lane a request type is published to.
+     */
+    public static RequestLane of(RequestType type) {
+        switch (type) {
+            case GET_FILE:
+            case GET_STATS:
+                return INTERACTIVE;
+            case SEARCH:
+            default:
+                return BULK;
+        }
+    }
+}
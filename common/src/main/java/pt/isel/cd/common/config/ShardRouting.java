@@ -0,0 +1,67 @@
+package pt.isel.cd.common.config;
+
+import pt.isel.cd.common.model.FilePayload;
+import pt.isel.cd.common.model.RequestMessage;
+import pt.isel.cd.common.model.SearchPayload;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeSet;
+
+/**
+ * Optional sharded request topology.
+ *
+ * Each lane gets a consistent-hash exchange (RabbitMQ plugin rabbitmq_consistent_hash_exchange)
+ * bound to N shard queues. Requests are routed by a normalized key: the same search or file
+ * always lands on the same shard, so the workers consuming that shard keep it in cache,
+ * and the load is spread over N queue processes instead of one.
+ * The plain lane queues stay in use for unsharded clients, retries and hedges.
+ * Clients and workers both declare the exchanges and shard queues (declaration is idempotent).
+ */
+public class ShardRouting {
+    
+    /**
+     * Exchange type provided by the consistent-hash exchange plugin.
+     */
+    public static final String CONSISTENT_HASH_EXCHANGE_TYPE = "x-consistent-hash";
+    
+    /**
+     * Binding key of every shard queue: its weight on the hash ring (equal shares).
+     */
+    public static final String SHARD_WEIGHT = "1";
+    
+    private ShardRouting() {
+        // Utility class
+    }
+    
+    /**
+     * Routing key of a request: the normalized query for SEARCH, the file name for GET_FILE
+     * and the request id (no affinity) for anything else.
+     */
+    public static String routingKey(RequestMessage request) {
+        if (request.getPayload() instanceof SearchPayload) {
+            return normalizeQuery(((SearchPayload) request.getPayload()).getSubstrings());
+        }
+        if (request.getPayload() instanceof FilePayload) {
+            String filename = ((FilePayload) request.getPayload()).getFilename();
+            return filename != null ? filename.trim() : "";
+        }
+        return request.getRequestId() != null ? request.getRequestId() : "";
+    }
+    
+    /**
+     * Canonical form of a search: matching is case-insensitive and order-independent,
+     * so "Gmail Porto" and "porto gmail" are the same query.
+     */
+    public static String normalizeQuery(List<String> substrings) {
+        TreeSet<String> terms = new TreeSet<>();
+        if (substrings != null) {
+            for (String substring : substrings) {
+                if (substring != null) {
+                    terms.add(substring.toLowerCase(Locale.ROOT));
+                }
+            }
+        }
+        return String.join("\u0000", terms);
+    }
+}
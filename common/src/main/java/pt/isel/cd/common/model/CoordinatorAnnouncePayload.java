@@ -8,6 +8,7 @@ public class CoordinatorAnnouncePayload {
     private String coordinatorId;
     private String requestId;
     private String clientQueue;
+    private String replyContentType;
 
     public CoordinatorAnnouncePayload() {
     }
@@ -51,6 +52,14 @@ public class CoordinatorAnnouncePayload {
         this.clientQueue = clientQueue;
     }
 
+    public String getReplyContentType() {
+        return replyContentType;
+    }
+
+    public void setReplyContentType(String replyContentType) {
+        this.replyContentType = replyContentType;
+    }
+
     @Override
     public String toString() {
         return "CoordinatorAnnouncePayload{" +
@@ -12,6 +12,7 @@ public class ElectionPayload {
     private long uptime;          // Candidate's uptime
     private String requestId;     // Original stats request ID
     private String clientQueue;   // Client queue to send final response
+    private String replyContentType;  // Wire format the client expects the response in
     
     public ElectionPayload() {
     }
@@ -65,6 +66,14 @@ public class ElectionPayload {
         this.clientQueue = clientQueue;
     }
     
+    public String getReplyContentType() {
+        return replyContentType;
+    }
+    
+    public void setReplyContentType(String replyContentType) {
+        this.replyContentType = replyContentType;
+    }
+    
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
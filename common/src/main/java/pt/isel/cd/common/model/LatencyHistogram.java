@@ -0,0 +1,154 @@
+package pt.isel.cd.common.model;
+
+import java.util.Arrays;
+
+/**
+ * Mergeable latency histogram with logarithmic buckets (HdrHistogram style).
+ *
+ * Values below 16 have a bucket each; above that every power of two is split into 8
+ * linear sub-buckets, so any recorded value is reported within 12.5%. The bucket layout is
+ * fixed, which makes histograms from different workers mergeable by adding counts.
+ * Values are in microseconds. Only the counts up to the highest used bucket are kept.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+
+    /**
+     * Number of buckets needed to cover every non-negative long.
+     */
+    public static final int BUCKET_COUNT = bucketIndex(Long.MAX_VALUE) + 1;
+
+    private long[] counts = new long[0];
+
+    public LatencyHistogram() {
+    }
+
+    public LatencyHistogram(long[] counts) {
+        setCounts(counts);
+    }
+
+    /**
+     * Bucket holding a value (negative values count as 0).
+     */
+    public static int bucketIndex(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) Math.max(0, value);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_LIMIT + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Highest value that falls in a bucket.
+     */
+    public static long bucketUpperBound(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int exponent = (index - LINEAR_LIMIT) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+        int subBucket = (index - LINEAR_LIMIT) % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        long lower = (1L << exponent) + subBucket * width;
+        return lower + (width - 1);
+    }
+
+    public void record(long value) {
+        int index = bucketIndex(value);
+        ensureCapacity(index + 1);
+        counts[index]++;
+    }
+
+    /**
+     * Add another histogram's counts (histograms of different workers).
+     */
+    public void add(LatencyHistogram other) {
+        ensureCapacity(other.counts.length);
+        for (int i = 0; i < other.counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+    }
+
+    /**
+     * Per-bucket maximum: merges two replicas of the same grow-only histogram.
+     */
+    public void join(LatencyHistogram other) {
+        ensureCapacity(other.counts.length);
+        for (int i = 0; i < other.counts.length; i++) {
+            counts[i] = Math.max(counts[i], other.counts[i]);
+        }
+    }
+
+    public long getTotalCount() {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Upper bound of the bucket holding the given percentile (0-100), or 0 if empty.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = getTotalCount();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return bucketUpperBound(i);
+            }
+        }
+        return bucketUpperBound(counts.length - 1);
+    }
+
+    public long[] getCounts() {
+        return counts.clone();
+    }
+
+    public void setCounts(long[] counts) {
+        int length = counts != null ? counts.length : 0;
+        while (length > 0 && counts[length - 1] == 0) {
+            length--;
+        }
+        this.counts = length > 0 ? Arrays.copyOf(counts, Math.min(length, BUCKET_COUNT)) : new long[0];
+    }
+
+    public LatencyHistogram copy() {
+        return new LatencyHistogram(counts);
+    }
+
+    private void ensureCapacity(int length) {
+        if (counts.length < length) {
+            counts = Arrays.copyOf(counts, Math.min(length, BUCKET_COUNT));
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        LatencyHistogram that = (LatencyHistogram) o;
+        return Arrays.equals(counts, that.counts);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(counts);
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyHistogram{" +
+                "count=" + getTotalCount() +
+                ", p50=" + getValueAtPercentile(50) +
+                ", p99=" + getValueAtPercentile(99) +
+                '}';
+    }
+}
@@ -1,5 +1,9 @@
 package pt.isel.cd.common.model;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 /**
@@ -11,6 +15,17 @@ public class PartialStatsPayload {
     private long successfulRequests;
     private long failedRequests;
     private long timestamp;
+    private long incarnation;     // Start time of the worker process (counters restart at 0)
+    private long retiredThrough;  // > 0: sum of the worker's incarnations up to this one (compacted)
+    
+    // Performance telemetry (latencies in microseconds, per request type)
+    private Map<String, LatencyHistogram> latencies = new HashMap<>();
+    private LatencyHistogram queueWait = new LatencyHistogram();
+    private long filesScanned;
+    private long bytesScanned;
+    private long cacheHits;
+    private long cacheMisses;
+    private List<WindowStats> windows = new ArrayList<>();  // Recent 1/5/15 minute windows
     
     public PartialStatsPayload() {
     }
@@ -64,6 +79,78 @@ public class PartialStatsPayload {
         this.timestamp = timestamp;
     }
     
+    public long getIncarnation() {
+        return incarnation;
+    }
+    
+    public void setIncarnation(long incarnation) {
+        this.incarnation = incarnation;
+    }
+    
+    public long getRetiredThrough() {
+        return retiredThrough;
+    }
+    
+    public void setRetiredThrough(long retiredThrough) {
+        this.retiredThrough = retiredThrough;
+    }
+    
+    public Map<String, LatencyHistogram> getLatencies() {
+        return latencies;
+    }
+    
+    public void setLatencies(Map<String, LatencyHistogram> latencies) {
+        this.latencies = latencies;
+    }
+    
+    public LatencyHistogram getQueueWait() {
+        return queueWait;
+    }
+    
+    public void setQueueWait(LatencyHistogram queueWait) {
+        this.queueWait = queueWait;
+    }
+    
+    public long getFilesScanned() {
+        return filesScanned;
+    }
+    
+    public void setFilesScanned(long filesScanned) {
+        this.filesScanned = filesScanned;
+    }
+    
+    public long getBytesScanned() {
+        return bytesScanned;
+    }
+    
+    public void setBytesScanned(long bytesScanned) {
+        this.bytesScanned = bytesScanned;
+    }
+    
+    public long getCacheHits() {
+        return cacheHits;
+    }
+    
+    public void setCacheHits(long cacheHits) {
+        this.cacheHits = cacheHits;
+    }
+    
+    public long getCacheMisses() {
+        return cacheMisses;
+    }
+    
+    public void setCacheMisses(long cacheMisses) {
+        this.cacheMisses = cacheMisses;
+    }
+    
+    public List<WindowStats> getWindows() {
+        return windows;
+    }
+    
+    public void setWindows(List<WindowStats> windows) {
+        this.windows = windows;
+    }
+    
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -85,6 +172,15 @@ public class PartialStatsPayload {
                 ", successfulRequests=" + successfulRequests +
                 ", failedRequests=" + failedRequests +
                 ", timestamp=" + timestamp +
+                ", incarnation=" + incarnation +
+                ", retiredThrough=" + retiredThrough +
+                ", latencies=" + latencies +
+                ", queueWait=" + queueWait +
+                ", filesScanned=" + filesScanned +
+                ", bytesScanned=" + bytesScanned +
+                ", cacheHits=" + cacheHits +
+                ", cacheMisses=" + cacheMisses +
+                ", windows=" + windows +
                 '}';
     }
 }
@@ -6,5 +6,7 @@ package pt.isel.cd.common.model;
 public enum ResponseStatus {
     OK,
     NOT_FOUND,
-    ERROR
+    ERROR,
+    /** Rejected without processing: the request waited in the queue too long (load shedding). */
+    BUSY
 }
@@ -0,0 +1,33 @@
+package pt.isel.cd.common.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Payload for BATCH messages: messages of one sender to one destination, in send order.
+ */
+public class SpreadBatchPayload {
+    private List<SpreadMessage> messages = new ArrayList<>();
+
+    public SpreadBatchPayload() {
+    }
+
+    public SpreadBatchPayload(List<SpreadMessage> messages) {
+        this.messages = messages;
+    }
+
+    public List<SpreadMessage> getMessages() {
+        return messages;
+    }
+
+    public void setMessages(List<SpreadMessage> messages) {
+        this.messages = messages;
+    }
+
+    @Override
+    public String toString() {
+        return "SpreadBatchPayload{" +
+                "messages=" + messages +
+                '}';
+    }
+}
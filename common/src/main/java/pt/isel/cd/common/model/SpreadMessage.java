@@ -10,6 +10,7 @@ public class SpreadMessage {
     private String senderId;      // Worker ID that sent the message
     private long timestamp;       // Message timestamp
     private Object payload;       // Type-specific payload
+    private TraceContext trace;   // Trace of the request that caused it (null = untraced)
     
     public SpreadMessage() {
     }
@@ -53,6 +54,14 @@ public class SpreadMessage {
         this.payload = payload;
     }
     
+    public TraceContext getTrace() {
+        return trace;
+    }
+    
+    public void setTrace(TraceContext trace) {
+        this.trace = trace;
+    }
+    
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -75,6 +84,7 @@ public class SpreadMessage {
                 ", senderId='" + senderId + '\'' +
                 ", timestamp=" + timestamp +
                 ", payload=" + payload +
+                ", trace=" + trace +
                 '}';
     }
 }
@@ -34,5 +34,25 @@ public enum SpreadMessageType {
     /**
      * Response with partial statistics from a worker.
      */
-    STATS_RESPONSE
+    STATS_RESPONSE,
+    
+    /**
+     * A worker finished a request (payload: request id), so duplicates can be skipped.
+     */
+    REQUEST_COMPLETED,
+    
+    /**
+     * GET_STATS handed to the coordinator of the current view.
+     */
+    STATS_FORWARD,
+    
+    /**
+     * Periodic multicast of a worker's replicated statistics (grow-only counters).
+     */
+    STATS_GOSSIP,
+    
+    /**
+     * Several messages of one sender to the same destination, coalesced into one transport message.
+     */
+    BATCH
 }
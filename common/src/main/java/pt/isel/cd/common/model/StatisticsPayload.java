@@ -1,5 +1,10 @@
 package pt.isel.cd.common.model;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 /**
@@ -10,6 +15,16 @@ public class StatisticsPayload {
     private long successfulRequests;
     private long failedRequests;
     private int workerCount;  // Number of workers that contributed to these stats
+    private long stalenessMillis;  // Upper bound on the age of the counters (0 = collected now)
+
+    // Performance telemetry (latencies in microseconds, per request type)
+    private Map<String, LatencyHistogram> latencies = new HashMap<>();
+    private LatencyHistogram queueWait = new LatencyHistogram();
+    private long filesScanned;
+    private long bytesScanned;
+    private long cacheHits;
+    private long cacheMisses;
+    private List<WindowStats> windows = new ArrayList<>();  // Recent 1/5/15 minute windows
 
     public StatisticsPayload() {
     }
@@ -57,6 +72,115 @@ public class StatisticsPayload {
         this.workerCount = workerCount;
     }
 
+    public long getStalenessMillis() {
+        return stalenessMillis;
+    }
+
+    public void setStalenessMillis(long stalenessMillis) {
+        this.stalenessMillis = stalenessMillis;
+    }
+
+    public Map<String, LatencyHistogram> getLatencies() {
+        return latencies;
+    }
+
+    public void setLatencies(Map<String, LatencyHistogram> latencies) {
+        this.latencies = latencies;
+    }
+
+    public LatencyHistogram getQueueWait() {
+        return queueWait;
+    }
+
+    public void setQueueWait(LatencyHistogram queueWait) {
+        this.queueWait = queueWait;
+    }
+
+    public long getFilesScanned() {
+        return filesScanned;
+    }
+
+    public void setFilesScanned(long filesScanned) {
+        this.filesScanned = filesScanned;
+    }
+
+    public long getBytesScanned() {
+        return bytesScanned;
+    }
+
+    public void setBytesScanned(long bytesScanned) {
+        this.bytesScanned = bytesScanned;
+    }
+
+    public long getCacheHits() {
+        return cacheHits;
+    }
+
+    public void setCacheHits(long cacheHits) {
+        this.cacheHits = cacheHits;
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses;
+    }
+
+    public void setCacheMisses(long cacheMisses) {
+        this.cacheMisses = cacheMisses;
+    }
+
+    public List<WindowStats> getWindows() {
+        return windows;
+    }
+
+    public void setWindows(List<WindowStats> windows) {
+        this.windows = windows;
+    }
+
+    /**
+     * Add a worker's telemetry: histograms and counters of different workers are summed.
+     */
+    public void addTelemetry(PartialStatsPayload partial) {
+        if (partial.getLatencies() != null) {
+            for (Map.Entry<String, LatencyHistogram> entry : partial.getLatencies().entrySet()) {
+                latencies.computeIfAbsent(entry.getKey(), type -> new LatencyHistogram()).add(entry.getValue());
+            }
+        }
+        if (partial.getQueueWait() != null) {
+            queueWait.add(partial.getQueueWait());
+        }
+        filesScanned += partial.getFilesScanned();
+        bytesScanned += partial.getBytesScanned();
+        cacheHits += partial.getCacheHits();
+        cacheMisses += partial.getCacheMisses();
+        if (partial.getWindows() != null) {
+            for (WindowStats window : partial.getWindows()) {
+                addWindow(window);
+            }
+        }
+    }
+
+    /**
+     * Add a worker's window to the window of the same length.
+     */
+    public void addWindow(WindowStats window) {
+        for (WindowStats existing : windows) {
+            if (existing.getWindowSeconds() == window.getWindowSeconds()) {
+                existing.add(window);
+                return;
+            }
+        }
+        windows.add(window.copy());
+        windows.sort(Comparator.comparingInt(WindowStats::getWindowSeconds));
+    }
+
+    /**
+     * Share of file reads served from the workers' caches (0 when nothing was read).
+     */
+    public double getCacheHitRatio() {
+        long lookups = cacheHits + cacheMisses;
+        return lookups == 0 ? 0 : (double) cacheHits / lookups;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -65,12 +189,13 @@ public class StatisticsPayload {
         return totalRequests == that.totalRequests && 
                successfulRequests == that.successfulRequests && 
                failedRequests == that.failedRequests &&
-               workerCount == that.workerCount;
+               workerCount == that.workerCount &&
+               stalenessMillis == that.stalenessMillis;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(totalRequests, successfulRequests, failedRequests, workerCount);
+        return Objects.hash(totalRequests, successfulRequests, failedRequests, workerCount, stalenessMillis);
     }
 
     @Override
@@ -80,6 +205,14 @@ public class StatisticsPayload {
                 ", successfulRequests=" + successfulRequests +
                 ", failedRequests=" + failedRequests +
                 ", workerCount=" + workerCount +
+                ", stalenessMillis=" + stalenessMillis +
+                ", latencies=" + latencies +
+                ", queueWait=" + queueWait +
+                ", filesScanned=" + filesScanned +
+                ", bytesScanned=" + bytesScanned +
+                ", cacheHits=" + cacheHits +
+                ", cacheMisses=" + cacheMisses +
+                ", windows=" + windows +
                 '}';
     }
 }
@@ -0,0 +1,45 @@
+package pt.isel.cd.common.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Payload for STATS_GOSSIP messages: the sender's replica of the group counters,
+ * one entry per worker incarnation.
+ */
+public class StatsGossipPayload {
+    private String senderId;
+    private List<PartialStatsPayload> entries = new ArrayList<>();
+
+    public StatsGossipPayload() {
+    }
+
+    public StatsGossipPayload(String senderId, List<PartialStatsPayload> entries) {
+        this.senderId = senderId;
+        this.entries = entries;
+    }
+
+    public String getSenderId() {
+        return senderId;
+    }
+
+    public void setSenderId(String senderId) {
+        this.senderId = senderId;
+    }
+
+    public List<PartialStatsPayload> getEntries() {
+        return entries;
+    }
+
+    public void setEntries(List<PartialStatsPayload> entries) {
+        this.entries = entries;
+    }
+
+    @Override
+    public String toString() {
+        return "StatsGossipPayload{" +
+                "senderId='" + senderId + '\'' +
+                ", entries=" + entries +
+                '}';
+    }
+}
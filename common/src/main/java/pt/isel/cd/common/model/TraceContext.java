@@ -0,0 +1,77 @@
+package pt.isel.cd.common.model;
+
+import java.util.Objects;
+
+/**
+ * Trace context propagated with a request: through AMQP headers from the client to the
+ * worker, and on Spread messages between workers.
+ */
+public class TraceContext {
+    private String traceId;
+    private String parentSpanId;  // Span of the sender the receiver's spans hang from
+    private boolean detailed;     // The client wants the phase timings back with the response
+
+    public TraceContext() {
+    }
+
+    public TraceContext(String traceId, String parentSpanId, boolean detailed) {
+        this.traceId = traceId;
+        this.parentSpanId = parentSpanId;
+        this.detailed = detailed;
+    }
+
+    public String getTraceId() {
+        return traceId;
+    }
+
+    public void setTraceId(String traceId) {
+        this.traceId = traceId;
+    }
+
+    public String getParentSpanId() {
+        return parentSpanId;
+    }
+
+    public void setParentSpanId(String parentSpanId) {
+        this.parentSpanId = parentSpanId;
+    }
+
+    public boolean isDetailed() {
+        return detailed;
+    }
+
+    public void setDetailed(boolean detailed) {
+        this.detailed = detailed;
+    }
+
+    /**
+     * Same trace, with the given span as the parent of the receiver's spans.
+     */
+    public TraceContext child(String spanId) {
+        return new TraceContext(traceId, spanId, detailed);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        TraceContext that = (TraceContext) o;
+        return detailed == that.detailed &&
+               Objects.equals(traceId, that.traceId) &&
+               Objects.equals(parentSpanId, that.parentSpanId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(traceId, parentSpanId, detailed);
+    }
+
+    @Override
+    public String toString() {
+        return "TraceContext{" +
+                "traceId='" + traceId + '\'' +
+                ", parentSpanId='" + parentSpanId + '\'' +
+                ", detailed=" + detailed +
+                '}';
+    }
+}
@@ -0,0 +1,124 @@
+package pt.isel.cd.common.model;
+
+import java.util.Objects;
+
+/**
+ * One timed phase of a request (times in microseconds, start since the epoch).
+ * Exported as one JSON object per line.
+ */
+public class TraceSpan {
+    private String traceId;
+    private String spanId;
+    private String parentSpanId;
+    private String name;
+    private String service;       // Who recorded it: "userapp" or the worker id
+    private String requestId;
+    private long startMicros;
+    private long durationMicros;
+
+    public TraceSpan() {
+    }
+
+    public TraceSpan(String traceId, String spanId, String parentSpanId, String name, String service,
+                     String requestId, long startMicros, long durationMicros) {
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.parentSpanId = parentSpanId;
+        this.name = name;
+        this.service = service;
+        this.requestId = requestId;
+        this.startMicros = startMicros;
+        this.durationMicros = durationMicros;
+    }
+
+    public String getTraceId() {
+        return traceId;
+    }
+
+    public void setTraceId(String traceId) {
+        this.traceId = traceId;
+    }
+
+    public String getSpanId() {
+        return spanId;
+    }
+
+    public void setSpanId(String spanId) {
+        this.spanId = spanId;
+    }
+
+    public String getParentSpanId() {
+        return parentSpanId;
+    }
+
+    public void setParentSpanId(String parentSpanId) {
+        this.parentSpanId = parentSpanId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getService() {
+        return service;
+    }
+
+    public void setService(String service) {
+        this.service = service;
+    }
+
+    public String getRequestId() {
+        return requestId;
+    }
+
+    public void setRequestId(String requestId) {
+        this.requestId = requestId;
+    }
+
+    public long getStartMicros() {
+        return startMicros;
+    }
+
+    public void setStartMicros(long startMicros) {
+        this.startMicros = startMicros;
+    }
+
+    public long getDurationMicros() {
+        return durationMicros;
+    }
+
+    public void setDurationMicros(long durationMicros) {
+        this.durationMicros = durationMicros;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        TraceSpan that = (TraceSpan) o;
+        return Objects.equals(traceId, that.traceId) && Objects.equals(spanId, that.spanId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(traceId, spanId);
+    }
+
+    @Override
+    public String toString() {
+        return "TraceSpan{" +
+                "traceId='" + traceId + '\'' +
+                ", spanId='" + spanId + '\'' +
+                ", parentSpanId='" + parentSpanId + '\'' +
+                ", name='" + name + '\'' +
+                ", service='" + service + '\'' +
+                ", requestId='" + requestId + '\'' +
+                ", startMicros=" + startMicros +
+                ", durationMicros=" + durationMicros +
+                '}';
+    }
+}
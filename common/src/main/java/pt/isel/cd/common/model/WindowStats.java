@@ -0,0 +1,141 @@
+package pt.isel.cd.common.model;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Requests, errors and latencies (microseconds) per request type over a recent time window,
+ * e.g. the last minute. Unlike the cumulative counters these go down again once a spike has
+ * passed. Windows of the same length from different workers are merged by adding them.
+ */
+public class WindowStats {
+    private int windowSeconds;
+    private long spanMillis;     // Time actually covered (shorter than the window right after start)
+    private Map<String, Long> requests = new HashMap<>();
+    private Map<String, Long> errors = new HashMap<>();
+    private Map<String, LatencyHistogram> latencies = new HashMap<>();
+
+    public WindowStats() {
+    }
+
+    public WindowStats(int windowSeconds, long spanMillis) {
+        this.windowSeconds = windowSeconds;
+        this.spanMillis = spanMillis;
+    }
+
+    public int getWindowSeconds() {
+        return windowSeconds;
+    }
+
+    public void setWindowSeconds(int windowSeconds) {
+        this.windowSeconds = windowSeconds;
+    }
+
+    public long getSpanMillis() {
+        return spanMillis;
+    }
+
+    public void setSpanMillis(long spanMillis) {
+        this.spanMillis = spanMillis;
+    }
+
+    public Map<String, Long> getRequests() {
+        return requests;
+    }
+
+    public void setRequests(Map<String, Long> requests) {
+        this.requests = requests;
+    }
+
+    public Map<String, Long> getErrors() {
+        return errors;
+    }
+
+    public void setErrors(Map<String, Long> errors) {
+        this.errors = errors;
+    }
+
+    public Map<String, LatencyHistogram> getLatencies() {
+        return latencies;
+    }
+
+    public void setLatencies(Map<String, LatencyHistogram> latencies) {
+        this.latencies = latencies;
+    }
+
+    public long getTotalRequests() {
+        return requests.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    public long getTotalErrors() {
+        return errors.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    /**
+     * Requests per second over the covered span.
+     */
+    public double getRequestRate() {
+        return spanMillis <= 0 ? 0 : getTotalRequests() * 1000.0 / spanMillis;
+    }
+
+    /**
+     * Share of the requests in the window that did not complete OK (0 when there were none).
+     */
+    public double getErrorRatio() {
+        long total = getTotalRequests();
+        return total == 0 ? 0 : (double) getTotalErrors() / total;
+    }
+
+    /**
+     * Add another worker's window of the same length.
+     */
+    public void add(WindowStats other) {
+        spanMillis = Math.max(spanMillis, other.spanMillis);
+        if (other.requests != null) {
+            other.requests.forEach((type, count) -> requests.merge(type, count, Long::sum));
+        }
+        if (other.errors != null) {
+            other.errors.forEach((type, count) -> errors.merge(type, count, Long::sum));
+        }
+        if (other.latencies != null) {
+            for (Map.Entry<String, LatencyHistogram> entry : other.latencies.entrySet()) {
+                latencies.computeIfAbsent(entry.getKey(), type -> new LatencyHistogram()).add(entry.getValue());
+            }
+        }
+    }
+
+    public WindowStats copy() {
+        WindowStats copy = new WindowStats(windowSeconds, 0);
+        copy.add(this);
+        return copy;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        WindowStats that = (WindowStats) o;
+        return windowSeconds == that.windowSeconds &&
+               spanMillis == that.spanMillis &&
+               Objects.equals(requests, that.requests) &&
+               Objects.equals(errors, that.errors) &&
+               Objects.equals(latencies, that.latencies);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(windowSeconds, spanMillis, requests, errors, latencies);
+    }
+
+    @Override
+    public String toString() {
+        return "WindowStats{" +
+                "windowSeconds=" + windowSeconds +
+                ", spanMillis=" + spanMillis +
+                ", requests=" + requests +
+                ", errors=" + errors +
+                ", latencies=" + latencies +
+                '}';
+    }
+}
@@ -4,14 +4,18 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import pt.isel.cd.common.model.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.nio.charset.StandardCharsets;
 
 /**
  * Utility class for JSON serialization/deserialization using Gson.
+ * Output is compact: everything produced here goes on the wire.
  */
 public class JsonUtil {
     private static final Gson gson = new GsonBuilder()
-            .setPrettyPrinting()
+            .registerTypeAdapterFactory(new MessageAdapterFactory())
             .create();
 
     /**
@@ -36,62 +40,42 @@ public class JsonUtil {
     }
 
     /**
-     * Deserialize JSON byte array to object.
+     * Deserialize JSON byte array to object, streaming straight from the bytes.
      */
     public static <T> T fromJsonBytes(byte[] bytes, Class<T> clazz) {
-        String json = new String(bytes, StandardCharsets.UTF_8);
-        return fromJson(json, clazz);
+        Reader reader = new InputStreamReader(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8);
+        return gson.fromJson(reader, clazz);
     }
 
     /**
-     * Deserialize RequestMessage and cast payload to appropriate type.
+     * Convert an untyped value (e.g. a map decoded from JSON) into the given class.
+     */
+    public static <T> T convert(Object value, Class<T> clazz) {
+        return gson.fromJson(gson.toJsonTree(value), clazz);
+    }
+
+    /**
+     * Deserialize RequestMessage; the payload is decoded directly into the class
+     * matching the request type.
      */
     public static RequestMessage parseRequest(byte[] bytes) {
-        RequestMessage msg = fromJsonBytes(bytes, RequestMessage.class);
-        
-        // Convert payload to proper type based on request type
-        if (msg.getPayload() != null) {
-            String payloadJson = toJson(msg.getPayload());
-            switch (msg.getType()) {
-                case SEARCH:
-                    msg.setPayload(fromJson(payloadJson, SearchPayload.class));
-                    break;
-                case GET_FILE:
-                    msg.setPayload(fromJson(payloadJson, FilePayload.class));
-                    break;
-                case GET_STATS:
-                    // No payload for GET_STATS
-                    msg.setPayload(null);
-                    break;
-            }
-        }
-        
-        return msg;
+        return fromJsonBytes(bytes, RequestMessage.class);
     }
 
     /**
-     * Deserialize ResponseMessage and cast payload to appropriate type.
+     * Deserialize ResponseMessage; the payload is decoded directly into the class
+     * matching the response type.
      */
     public static ResponseMessage parseResponse(byte[] bytes) {
-        ResponseMessage msg = fromJsonBytes(bytes, ResponseMessage.class);
-        
-        // Convert payload to proper type based on response type
-        if (msg.getPayload() != null) {
-            String payloadJson = toJson(msg.getPayload());
-            switch (msg.getType()) {
-                case SEARCH_RESULT:
-                    msg.setPayload(fromJson(payloadJson, SearchResultPayload.class));
-                    break;
-                case FILE_CONTENT:
-                    msg.setPayload(fromJson(payloadJson, FileContentPayload.class));
-                    break;
-                case STATISTICS:
-                    msg.setPayload(fromJson(payloadJson, StatisticsPayload.class));
-                    break;
-            }
-        }
-        
-        return msg;
+        return fromJsonBytes(bytes, ResponseMessage.class);
+    }
+
+    /**
+     * Deserialize SpreadMessage; the payload is decoded directly into the class
+     * matching the message type.
+     */
+    public static SpreadMessage parseSpreadMessage(byte[] bytes) {
+        return fromJsonBytes(bytes, SpreadMessage.class);
     }
 
     private JsonUtil() {
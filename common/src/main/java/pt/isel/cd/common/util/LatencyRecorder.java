@@ -0,0 +1,36 @@
+package pt.isel.cd.common.util;
+
+import pt.isel.cd.common.model.LatencyHistogram;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent recorder for a {@link LatencyHistogram}.
+ * Recording takes no locks (one atomic bucket increment plus a striped sum), so it is
+ * cheap enough for request paths; snapshots are taken when statistics are reported.
+ */
+public class LatencyRecorder {
+    private final AtomicLongArray counts = new AtomicLongArray(LatencyHistogram.BUCKET_COUNT);
+    private final LongAdder sum = new LongAdder();
+
+    public void record(long value) {
+        counts.incrementAndGet(LatencyHistogram.bucketIndex(value));
+        sum.add(Math.max(0, value));
+    }
+
+    public LatencyHistogram snapshot() {
+        long[] snapshot = new long[counts.length()];
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts.get(i);
+        }
+        return new LatencyHistogram(snapshot);
+    }
+
+    /**
+     * Sum of all recorded values.
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+}
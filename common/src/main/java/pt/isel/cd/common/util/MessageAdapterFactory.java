@@ -0,0 +1,343 @@
+package pt.isel.cd.common.util;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import pt.isel.cd.common.model.*;
+
+import java.io.IOException;
+
+/**
+ * Gson adapters that decode message envelopes in a single streaming pass.
+ * The message type field selects the concrete payload class, so the payload is read
+ * directly into {@link SearchPayload}, {@link ElectionPayload}, etc. instead of into a
+ * generic map that has to be converted afterwards.
+ * Writing is left to Gson's reflective adapters (output format is unchanged).
+ */
+class MessageAdapterFactory implements TypeAdapterFactory {
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> typeToken) {
+        Class<? super T> rawType = typeToken.getRawType();
+        if (rawType == RequestMessage.class) {
+            return (TypeAdapter<T>) new RequestAdapter(gson, gson.getDelegateAdapter(this, TypeToken.get(RequestMessage.class)));
+        }
+        if (rawType == ResponseMessage.class) {
+            return (TypeAdapter<T>) new ResponseAdapter(gson, gson.getDelegateAdapter(this, TypeToken.get(ResponseMessage.class)));
+        }
+        if (rawType == SpreadMessage.class) {
+            return (TypeAdapter<T>) new SpreadAdapter(gson, gson.getDelegateAdapter(this, TypeToken.get(SpreadMessage.class)));
+        }
+        return null;
+    }
+
+    /**
+     * Payload class carried by each request type (null = no payload).
+     */
+    static Class<?> payloadClass(RequestType type) {
+        switch (type) {
+            case SEARCH:
+                return SearchPayload.class;
+            case GET_FILE:
+                return FilePayload.class;
+            default:
+                return null;
+        }
+    }
+
+    static Class<?> payloadClass(ResponseType type) {
+        switch (type) {
+            case SEARCH_RESULT:
+                return SearchResultPayload.class;
+            case FILE_CONTENT:
+                return FileContentPayload.class;
+            case STATISTICS:
+                return StatisticsPayload.class;
+            default:
+                return null;
+        }
+    }
+
+    static Class<?> payloadClass(SpreadMessageType type) {
+        switch (type) {
+            case WORKER_PRESENCE:
+                return WorkerPresencePayload.class;
+            case STATS_ELECTION:
+                return ElectionPayload.class;
+            case ELECTION_VOTE:
+                return VotePayload.class;
+            case COORDINATOR_ANNOUNCE:
+            case STATS_FORWARD:
+                return CoordinatorAnnouncePayload.class;
+            case STATS_REQUEST:
+                return Long.class;  // election epoch
+            case STATS_RESPONSE:
+                return PartialStatsPayload.class;
+            case REQUEST_COMPLETED:
+                return String.class;  // request id
+            case STATS_GOSSIP:
+                return StatsGossipPayload.class;
+            case BATCH:
+                return SpreadBatchPayload.class;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Shared logic: the payload may precede the type field in hand-written JSON,
+     * in which case it is buffered as a tree and converted once the type is known.
+     */
+    private abstract static class EnvelopeAdapter<T> extends TypeAdapter<T> {
+        final Gson gson;
+        final TypeAdapter<T> delegate;
+        final TypeAdapter<JsonElement> elementAdapter;
+
+        EnvelopeAdapter(Gson gson, TypeAdapter<T> delegate) {
+            this.gson = gson;
+            this.delegate = delegate;
+            this.elementAdapter = gson.getAdapter(JsonElement.class);
+        }
+
+        @Override
+        public void write(JsonWriter out, T value) throws IOException {
+            delegate.write(out, value);
+        }
+
+        String readString(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            return in.nextString();
+        }
+
+        /**
+         * Read a payload value. Strings (error messages) and numbers are kept as such;
+         * objects are decoded into the expected class.
+         */
+        Object readPayload(JsonReader in, Class<?> expected) throws IOException {
+            switch (in.peek()) {
+                case NULL:
+                    in.nextNull();
+                    return null;
+                case STRING:
+                    return in.nextString();
+                case NUMBER:
+                    return readNumber(in.nextString(), expected);
+                case BEGIN_OBJECT:
+                    if (expected != null && expected != Long.class) {
+                        return gson.getAdapter(expected).read(in);
+                    }
+                    return gson.getAdapter(Object.class).read(in);
+                default:
+                    return gson.getAdapter(Object.class).read(in);
+            }
+        }
+
+        /**
+         * Same as {@link #readPayload} for a payload that had to be buffered.
+         */
+        Object fromTree(JsonElement element, Class<?> expected) {
+            if (element == null || element.isJsonNull()) {
+                return null;
+            }
+            if (element.isJsonPrimitive()) {
+                JsonPrimitive primitive = element.getAsJsonPrimitive();
+                if (primitive.isNumber()) {
+                    return readNumber(primitive.getAsString(), expected);
+                }
+                return primitive.getAsString();
+            }
+            if (element.isJsonObject() && expected != null && expected != Long.class) {
+                return gson.fromJson(element, expected);
+            }
+            return gson.fromJson(element, Object.class);
+        }
+
+        private static Object readNumber(String number, Class<?> expected) {
+            boolean integral = number.indexOf('.') < 0 && number.indexOf('e') < 0 && number.indexOf('E') < 0;
+            if (expected == Long.class || integral) {
+                try {
+                    return Long.parseLong(number);
+                } catch (NumberFormatException e) {
+                    // Fall through to double (e.g. "1.7E15" from older senders)
+                }
+            }
+            double value = Double.parseDouble(number);
+            if (expected == Long.class) {
+                return (long) value;
+            }
+            return value;
+        }
+    }
+
+    private static class RequestAdapter extends EnvelopeAdapter<RequestMessage> {
+        private final TypeAdapter<RequestType> typeAdapter;
+
+        RequestAdapter(Gson gson, TypeAdapter<RequestMessage> delegate) {
+            super(gson, delegate);
+            this.typeAdapter = gson.getAdapter(RequestType.class);
+        }
+
+        @Override
+        public RequestMessage read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            RequestMessage message = new RequestMessage();
+            JsonElement deferredPayload = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "requestId":
+                        message.setRequestId(readString(in));
+                        break;
+                    case "type":
+                        message.setType(typeAdapter.read(in));
+                        break;
+                    case "clientQueue":
+                        message.setClientQueue(readString(in));
+                        break;
+                    case "payload":
+                        if (message.getType() != null) {
+                            message.setPayload(readRequestPayload(in, message.getType()));
+                        } else {
+                            deferredPayload = elementAdapter.read(in);
+                        }
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            if (deferredPayload != null && message.getType() != null && message.getType() != RequestType.GET_STATS) {
+                message.setPayload(fromTree(deferredPayload, payloadClass(message.getType())));
+            }
+            return message;
+        }
+
+        private Object readRequestPayload(JsonReader in, RequestType type) throws IOException {
+            if (type == RequestType.GET_STATS) {
+                // No payload for GET_STATS
+                in.skipValue();
+                return null;
+            }
+            return readPayload(in, payloadClass(type));
+        }
+    }
+
+    private static class ResponseAdapter extends EnvelopeAdapter<ResponseMessage> {
+        private final TypeAdapter<ResponseStatus> statusAdapter;
+        private final TypeAdapter<ResponseType> typeAdapter;
+
+        ResponseAdapter(Gson gson, TypeAdapter<ResponseMessage> delegate) {
+            super(gson, delegate);
+            this.statusAdapter = gson.getAdapter(ResponseStatus.class);
+            this.typeAdapter = gson.getAdapter(ResponseType.class);
+        }
+
+        @Override
+        public ResponseMessage read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            ResponseMessage message = new ResponseMessage();
+            JsonElement deferredPayload = null;
+            boolean typeSeen = false;
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "requestId":
+                        message.setRequestId(readString(in));
+                        break;
+                    case "status":
+                        message.setStatus(statusAdapter.read(in));
+                        break;
+                    case "type":
+                        message.setType(typeAdapter.read(in));
+                        typeSeen = true;
+                        break;
+                    case "payload":
+                        if (typeSeen) {
+                            message.setPayload(readPayload(in, payloadClass(message)));
+                        } else {
+                            deferredPayload = elementAdapter.read(in);
+                        }
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            if (deferredPayload != null) {
+                message.setPayload(fromTree(deferredPayload, payloadClass(message)));
+            }
+            return message;
+        }
+
+        private static Class<?> payloadClass(ResponseMessage message) {
+            return message.getType() != null ? MessageAdapterFactory.payloadClass(message.getType()) : null;
+        }
+    }
+
+    private static class SpreadAdapter extends EnvelopeAdapter<SpreadMessage> {
+        private final TypeAdapter<SpreadMessageType> typeAdapter;
+
+        SpreadAdapter(Gson gson, TypeAdapter<SpreadMessage> delegate) {
+            super(gson, delegate);
+            this.typeAdapter = gson.getAdapter(SpreadMessageType.class);
+        }
+
+        @Override
+        public SpreadMessage read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            SpreadMessage message = new SpreadMessage();
+            JsonElement deferredPayload = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "type":
+                        message.setType(typeAdapter.read(in));
+                        break;
+                    case "senderId":
+                        message.setSenderId(readString(in));
+                        break;
+                    case "timestamp":
+                        message.setTimestamp(in.nextLong());
+                        break;
+                    case "trace":
+                        message.setTrace(gson.getAdapter(TraceContext.class).read(in));
+                        break;
+                    case "payload":
+                        if (message.getType() != null) {
+                            message.setPayload(readPayload(in, payloadClass(message.getType())));
+                        } else {
+                            deferredPayload = elementAdapter.read(in);
+                        }
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            if (deferredPayload != null) {
+                Class<?> expected = message.getType() != null ? payloadClass(message.getType()) : null;
+                message.setPayload(fromTree(deferredPayload, expected));
+            }
+            return message;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package pt.isel.cd.common.util;
+
+import pt.isel.cd.common.model.TraceContext;
+import pt.isel.cd.common.model.TraceSpan;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Phase timings of one request at one hop (client, worker or stats coordinator).
+ * Phases are timed with nanoTime and placed on the wall clock relative to the start of
+ * the hop, so spans of different hops line up up to clock skew. Each hop has a span of
+ * its own, the parent of its phases and of the work it causes at the next hop.
+ */
+public class RequestTrace {
+    private final TraceContext received;
+    private final String spanId = Tracing.newSpanId();
+    private final String service;
+    private final String name;
+    private final long startMicros = Tracing.nowMicros();
+    private final long startNanos;
+    private final List<TraceSpan> phases = new ArrayList<>();
+    private volatile String requestId;
+
+    /**
+     * @param service  who records the spans ("userapp" or the worker id)
+     * @param name     name of the hop's own span
+     * @param received context from the previous hop, or null to start a new trace
+     */
+    public RequestTrace(String service, String name, TraceContext received, long startNanos) {
+        this.received = received != null ? received : new TraceContext(Tracing.newTraceId(), null, false);
+        this.service = service;
+        this.name = name;
+        this.startNanos = startNanos;
+    }
+
+    public void setRequestId(String requestId) {
+        this.requestId = requestId;
+    }
+
+    public String getTraceId() {
+        return received.getTraceId();
+    }
+
+    /**
+     * The client asked for the phase timings with the response.
+     */
+    public boolean isDetailed() {
+        return received.isDetailed();
+    }
+
+    /**
+     * Context to send to the next hop, under this hop's span.
+     */
+    public TraceContext childContext() {
+        return received.child(spanId);
+    }
+
+    public long getStartMicros() {
+        return startMicros;
+    }
+
+    public void phase(String phase, long fromNanos, long toNanos) {
+        phaseMicros(phase, startMicros + (fromNanos - startNanos) / 1_000, (toNanos - fromNanos) / 1_000);
+    }
+
+    public synchronized void phaseMicros(String phase, long fromMicros, long durationMicros) {
+        phases.add(new TraceSpan(received.getTraceId(), Tracing.newSpanId(), spanId, phase, service, requestId,
+                                 fromMicros, Math.max(0, durationMicros)));
+    }
+
+    /**
+     * Spans recorded at the next hop and returned with the response.
+     */
+    public synchronized void addRemote(List<TraceSpan> spans) {
+        phases.addAll(spans);
+    }
+
+    /**
+     * Phases recorded so far, for the response header.
+     */
+    public synchronized String formatPhases() {
+        return Tracing.formatPhases(phases);
+    }
+
+    /**
+     * This hop's span, ending now, followed by its phases.
+     */
+    public synchronized List<TraceSpan> finish(long endNanos) {
+        List<TraceSpan> spans = new ArrayList<>(phases.size() + 1);
+        spans.add(new TraceSpan(received.getTraceId(), spanId, received.getParentSpanId(), name, service,
+                                requestId, startMicros, (endNanos - startNanos) / 1_000));
+        for (TraceSpan phase : phases) {
+            if (phase.getRequestId() == null) {
+                phase.setRequestId(requestId);
+            }
+            spans.add(phase);
+        }
+        return spans;
+    }
+}
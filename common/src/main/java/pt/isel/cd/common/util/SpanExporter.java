@@ -0,0 +1,83 @@
+package pt.isel.cd.common.util;
+
+import pt.isel.cd.common.model.TraceSpan;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends spans to a local file as JSON lines (one {@link TraceSpan} object per line),
+ * ready for jq or for loading into a trace viewer. Output is buffered and flushed by a
+ * background thread once a second (and on close), so exporting stays off the request's
+ * critical path and the last spans reach the file even when traffic stops. Write errors
+ * are logged once and otherwise ignored: tracing never fails a request.
+ */
+public class SpanExporter implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(SpanExporter.class);
+    private static final long FLUSH_INTERVAL_MILLIS = 1000;
+
+    private final Path file;
+    private final BufferedWriter writer;
+    private final ScheduledExecutorService flusher;
+    private boolean failed;
+    private boolean unflushed;
+
+    public SpanExporter(Path file) throws IOException {
+        this.file = file;
+        this.writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                                              StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "span-exporter-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS,
+                                       TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void export(List<TraceSpan> spans) {
+        if (failed) return;
+        try {
+            for (TraceSpan span : spans) {
+                writer.write(JsonUtil.toJson(span));
+                writer.newLine();
+            }
+            unflushed = true;
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private synchronized void flush() {
+        if (failed || !unflushed) return;
+        try {
+            writer.flush();
+            unflushed = false;
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void fail(IOException e) {
+        failed = true;
+        logger.warn("Cannot write spans to {}, span export disabled: {}", file, e.getMessage());
+    }
+
+    @Override
+    public void close() throws IOException {
+        flusher.shutdownNow();
+        synchronized (this) {
+            writer.close();
+        }
+    }
+}
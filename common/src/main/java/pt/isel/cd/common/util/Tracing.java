@@ -0,0 +1,109 @@
+package pt.isel.cd.common.util;
+
+import pt.isel.cd.common.config.QueueConfig;
+import pt.isel.cd.common.model.TraceContext;
+import pt.isel.cd.common.model.TraceSpan;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Trace ids, clocks and the AMQP header encoding of trace contexts and phase timings.
+ * Header maps are plain maps here, so this works on both sides without the AMQP client.
+ */
+public class Tracing {
+
+    private Tracing() {
+        // Utility class
+    }
+
+    /**
+     * Random 128-bit trace id (32 hex digits).
+     */
+    public static String newTraceId() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return String.format("%016x%016x", random.nextLong(), random.nextLong());
+    }
+
+    /**
+     * Random 64-bit span id (16 hex digits).
+     */
+    public static String newSpanId() {
+        return String.format("%016x", ThreadLocalRandom.current().nextLong());
+    }
+
+    /**
+     * Wall-clock time in microseconds since the epoch.
+     */
+    public static long nowMicros() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000L + now.getNano() / 1_000;
+    }
+
+    public static void writeContext(TraceContext context, Map<String, Object> headers) {
+        headers.put(QueueConfig.TRACE_ID_HEADER, context.getTraceId());
+        if (context.getParentSpanId() != null) {
+            headers.put(QueueConfig.PARENT_SPAN_HEADER, context.getParentSpanId());
+        }
+        if (context.isDetailed()) {
+            headers.put(QueueConfig.TRACE_DETAIL_HEADER, true);
+        }
+    }
+
+    /**
+     * Trace context of a message, or null if the sender did not trace it.
+     * Header strings may arrive as the AMQP client's own string type, hence String.valueOf.
+     */
+    public static TraceContext readContext(Map<String, Object> headers) {
+        Object traceId = headers != null ? headers.get(QueueConfig.TRACE_ID_HEADER) : null;
+        if (traceId == null) {
+            return null;
+        }
+        Object parentSpanId = headers.get(QueueConfig.PARENT_SPAN_HEADER);
+        return new TraceContext(String.valueOf(traceId), parentSpanId != null ? String.valueOf(parentSpanId) : null,
+                                Boolean.TRUE.equals(headers.get(QueueConfig.TRACE_DETAIL_HEADER)));
+    }
+
+    /**
+     * Phase timings for the {@link QueueConfig#TRACE_PHASES_HEADER} of a response:
+     * "service name startMicros durationMicros" entries separated by ';'.
+     */
+    public static String formatPhases(List<TraceSpan> spans) {
+        StringBuilder phases = new StringBuilder();
+        for (TraceSpan span : spans) {
+            if (phases.length() > 0) {
+                phases.append(';');
+            }
+            phases.append(span.getService()).append(' ').append(span.getName()).append(' ')
+                  .append(span.getStartMicros()).append(' ').append(span.getDurationMicros());
+        }
+        return phases.toString();
+    }
+
+    /**
+     * Spans from a phases header, as children of the given context's parent span.
+     * Malformed entries are skipped.
+     */
+    public static List<TraceSpan> parsePhases(Object header, TraceContext context, String requestId) {
+        List<TraceSpan> spans = new ArrayList<>();
+        if (header == null) {
+            return spans;
+        }
+        for (String entry : String.valueOf(header).split(";")) {
+            String[] fields = entry.trim().split(" ");
+            if (fields.length != 4) {
+                continue;
+            }
+            try {
+                spans.add(new TraceSpan(context.getTraceId(), newSpanId(), context.getParentSpanId(), fields[1],
+                                        fields[0], requestId, Long.parseLong(fields[2]), Long.parseLong(fields[3])));
+            } catch (NumberFormatException e) {
+                // Skip the entry
+            }
+        }
+        return spans;
+    }
+}
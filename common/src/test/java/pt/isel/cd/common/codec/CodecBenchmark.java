@@ -0,0 +1,91 @@
+package pt.isel.cd.common.codec;
+
+import pt.isel.cd.common.model.*;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Compares encoded size and encode/decode cost of the JSON and binary codecs
+ * on representative messages.
+ *
+ * Lives in the test sources so it is not shipped. Usage, after mvn test-compile:
+ *   java -cp target/classes:target/test-classes:gson.jar pt.isel.cd.common.codec.CodecBenchmark [iterations]
+ */
+public class CodecBenchmark {
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+
+        Map<String, String> emails = new HashMap<>();
+        for (int i = 0; i < 20; i++) {
+            emails.put("email" + String.format("%03d", i) + ".txt", sampleEmail(i));
+        }
+
+        RequestMessage search = new RequestMessage(UUID.randomUUID().toString(), RequestType.SEARCH,
+            "client-" + UUID.randomUUID(), new SearchPayload(Arrays.asList("gmail", "distributed", "project")));
+        RequestMessage getFile = new RequestMessage(UUID.randomUUID().toString(), RequestType.GET_FILE,
+            "client-" + UUID.randomUUID(), new FilePayload("email017.txt"));
+        ResponseMessage searchResult = new ResponseMessage(UUID.randomUUID().toString(), ResponseStatus.OK,
+            ResponseType.SEARCH_RESULT, new SearchResultPayload(emails));
+        ResponseMessage stats = new ResponseMessage(UUID.randomUUID().toString(), ResponseStatus.OK,
+            ResponseType.STATISTICS, new StatisticsPayload(123456, 120000, 3456, 3));
+        SpreadMessage vote = new SpreadMessage(SpreadMessageType.ELECTION_VOTE, "worker-1",
+            new VotePayload("worker-1", "worker-3", System.currentTimeMillis() * 1000, false));
+
+        System.out.printf("%-22s %-7s %9s %12s %12s%n", "message", "codec", "bytes", "encode ns", "decode ns");
+        for (MessageCodec codec : List.of(Codecs.JSON, Codecs.BINARY)) {
+            run("SEARCH request", codec, search, codec::encodeRequest, codec::decodeRequest, iterations);
+            run("GET_FILE request", codec, getFile, codec::encodeRequest, codec::decodeRequest, iterations);
+            run("SEARCH_RESULT (20)", codec, searchResult, codec::encodeResponse, codec::decodeResponse,
+                Math.max(1, iterations / 20));
+            run("STATISTICS response", codec, stats, codec::encodeResponse, codec::decodeResponse, iterations);
+            run("ELECTION_VOTE spread", codec, vote, codec::encodeSpreadMessage, codec::decodeSpreadMessage,
+                iterations);
+        }
+    }
+
+    private static <T> void run(String name, MessageCodec codec, T message, Function<T, byte[]> encoder,
+                                Function<byte[], T> decoder, int iterations) {
+        byte[] encoded = encoder.apply(message);
+        // Both formats must reproduce the typed message
+        if (!String.valueOf(decoder.apply(encoded)).equals(String.valueOf(message))) {
+            throw new IllegalStateException(name + " does not round-trip with " + codec.getContentType());
+        }
+
+        // Warm up both paths before measuring
+        long sink = 0;
+        for (int i = 0; i < iterations; i++) {
+            sink += encoder.apply(message).length;
+            sink += decoder.apply(encoded).hashCode() & 1;
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += encoder.apply(message).length;
+        }
+        long encodeNanos = (System.nanoTime() - start) / iterations;
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += decoder.apply(encoded).hashCode() & 1;
+        }
+        long decodeNanos = (System.nanoTime() - start) / iterations;
+
+        String format = codec == Codecs.JSON ? "json" : "binary";
+        System.out.printf("%-22s %-7s %9d %12d %12d%s%n", name, format, encoded.length, encodeNanos, decodeNanos,
+                          sink == 42 ? " " : "");
+    }
+
+    private static String sampleEmail(int i) {
+        StringBuilder body = new StringBuilder();
+        body.append("From: user").append(i).append("@gmail.com\n")
+            .append("To: team@isel.pt\n")
+            .append("Subject: Distributed systems project update ").append(i).append("\n\n");
+        for (int line = 0; line < 25; line++) {
+            body.append("Line ").append(line)
+                .append(": the workers share files through GlusterFS and talk over \"Spread\".\n");
+        }
+        return body.toString();
+    }
+}
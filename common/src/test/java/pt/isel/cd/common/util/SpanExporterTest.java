@@ -0,0 +1,33 @@
+package pt.isel.cd.common.util;
+
+import org.junit.jupiter.api.Test;
+import pt.isel.cd.common.model.TraceSpan;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpanExporterTest {
+
+    @Test
+    void spansReachTheFileWithoutFurtherExports() throws Exception {
+        Path file = Files.createTempFile("spans", ".jsonl");
+        try (SpanExporter exporter = new SpanExporter(file)) {
+            exporter.export(List.of(new TraceSpan("trace-1", "span-1", null, "worker.request", "worker-1",
+                                                  "request-1", 0, 10)));
+
+            // No export follows: the background flush has to write it out
+            long deadline = System.currentTimeMillis() + 5000;
+            while (Files.size(file) == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            List<String> lines = Files.readAllLines(file);
+            assertEquals(1, lines.size());
+            assertTrue(lines.get(0).contains("\"span-1\""), lines.get(0));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
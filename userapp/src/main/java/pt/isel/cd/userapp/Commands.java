@@ -0,0 +1,226 @@
+package pt.isel.cd.userapp;
+
+import pt.isel.cd.common.model.FileContentPayload;
+import pt.isel.cd.common.model.LatencyHistogram;
+import pt.isel.cd.common.model.SearchResultPayload;
+import pt.isel.cd.common.model.StatisticsPayload;
+import pt.isel.cd.common.model.TraceSpan;
+import pt.isel.cd.common.model.WindowStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Runs UserApp commands against an open UserApp, writing their results to one stream and
+ * usage and error messages to another. Shared by the one-shot CLI, the interactive shell
+ * and the session daemon, so all three print exactly the same thing.
+ */
+class Commands {
+    private static final Logger logger = LoggerFactory.getLogger(Commands.class);
+
+    private Commands() {
+    }
+
+    /**
+     * Run one command (args[0] is the command name). With a leading "--trace" the spans of
+     * the request are printed after its output.
+     *
+     * @return process exit code: 0 on success, 1 on usage or request errors
+     */
+    static int run(UserApp app, List<String> args, PrintStream out, PrintStream err) {
+        List<List<TraceSpan>> traces = null;
+        if (!args.isEmpty() && args.get(0).equals("--trace")) {
+            traces = new ArrayList<>();
+            args = args.subList(1, args.size());
+        }
+        if (args.isEmpty()) {
+            UserApp.printUsage(out);
+            return 1;
+        }
+        Consumer<List<TraceSpan>> traceListener = traces != null ? traces::add : null;
+        int code = run(app, args, traceListener, out, err);
+        if (traces != null) {
+            for (List<TraceSpan> spans : traces) {
+                printTrace(spans, out);
+            }
+        }
+        return code;
+    }
+
+    private static int run(UserApp app, List<String> args, Consumer<List<TraceSpan>> traceListener, 
+                           PrintStream out, PrintStream err) {
+        String command = args.get(0).toLowerCase();
+        try {
+            switch (command) {
+                case "search":
+                    if (args.size() < 2) {
+                        err.println("Usage: search <substring1> [substring2 ...]");
+                        return 1;
+                    }
+                    SearchResultPayload searchResult = app.search(args.subList(1, args.size()), traceListener);
+                    Map<String, String> results = searchResult.getResults();
+                    out.println("Found " + results.size() + " email(s) containing all substrings\n");
+                    for (String filename : results.keySet()) {
+                        out.println("##:" + filename);  // Anexo 2 format
+                        out.println(results.get(filename));
+                        out.println();
+                    }
+                    return 0;
+
+                case "get-file":
+                    if (args.size() != 2) {
+                        err.println("Usage: get-file <filename>");
+                        return 1;
+                    }
+                    FileContentPayload fileContent = app.getFile(args.get(1), traceListener);
+                    out.println("File: " + fileContent.getFilename());
+                    out.println("Content:");
+                    out.println(fileContent.getContent());
+                    return 0;
+
+                case "get-stats":
+                    StatisticsPayload stats = app.getStats(traceListener);
+                    out.println("Statistics:");
+                    out.println("  Total Requests: " + stats.getTotalRequests());
+                    out.println("  Successful: " + stats.getSuccessfulRequests());
+                    out.println("  Failed: " + stats.getFailedRequests());
+                    out.println("  Workers: " + stats.getWorkerCount());
+                    if (stats.getStalenessMillis() > 0) {
+                        out.println("  Staleness: <= " + stats.getStalenessMillis() + " ms");
+                    }
+                    printPerformance(stats, out);
+                    return 0;
+
+                default:
+                    err.println("Unknown command: " + command);
+                    UserApp.printUsage(out);
+                    return 1;
+            }
+        } catch (Exception e) {
+            logger.error("Error executing command", e);
+            err.println("Error: " + e.getMessage());
+            return 1;
+        }
+    }
+
+    /**
+     * Cluster-wide latency percentiles and scan/cache counters, when the workers report them.
+     */
+    private static void printPerformance(StatisticsPayload stats, PrintStream out) {
+        if (stats.getLatencies() != null && !stats.getLatencies().isEmpty()) {
+            out.println("Latency (ms)            count      p50      p95      p99");
+            for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(stats.getLatencies()).entrySet()) {
+                printHistogram(entry.getKey(), entry.getValue(), out);
+            }
+            if (stats.getQueueWait() != null && stats.getQueueWait().getTotalCount() > 0) {
+                printHistogram("queue wait", stats.getQueueWait(), out);
+            }
+        }
+        if (stats.getFilesScanned() > 0 || stats.getCacheHits() + stats.getCacheMisses() > 0) {
+            out.println("  Files scanned: " + stats.getFilesScanned() 
+                        + " (" + stats.getBytesScanned() / 1024 + " KiB)");
+            out.println(String.format("  Cache hit ratio: %.1f%%", stats.getCacheHitRatio() * 100));
+        }
+        if (stats.getWindows() != null && !stats.getWindows().isEmpty()) {
+            out.println("Recent          req/s   errors      p50      p95      p99");
+            for (WindowStats window : stats.getWindows()) {
+                LatencyHistogram latency = new LatencyHistogram();
+                window.getLatencies().values().forEach(latency::add);
+                out.println(String.format("  last %2d min %8.2f %7.1f%% %8.1f %8.1f %8.1f",
+                                          window.getWindowSeconds() / 60, window.getRequestRate(),
+                                          window.getErrorRatio() * 100,
+                                          latency.getValueAtPercentile(50) / 1000.0,
+                                          latency.getValueAtPercentile(95) / 1000.0,
+                                          latency.getValueAtPercentile(99) / 1000.0));
+            }
+        }
+    }
+
+    /**
+     * Spans in start order, with their offset from the first one (hosts' clocks may differ).
+     */
+    private static void printTrace(List<TraceSpan> spans, PrintStream out) {
+        if (spans.isEmpty()) {
+            return;
+        }
+        List<TraceSpan> sorted = new ArrayList<>(spans);
+        sorted.sort(Comparator.comparingLong(TraceSpan::getStartMicros));
+        long origin = sorted.get(0).getStartMicros();
+        out.println("Trace " + spans.get(0).getTraceId() + "            start (ms)  duration (ms)");
+        for (TraceSpan span : sorted) {
+            out.println(String.format("  %-12s %-18s %10.2f %14.2f", span.getService(), span.getName(),
+                                      (span.getStartMicros() - origin) / 1000.0, span.getDurationMicros() / 1000.0));
+        }
+    }
+
+    private static void printHistogram(String name, LatencyHistogram histogram, PrintStream out) {
+        out.println(String.format("  %-18s %9d %8.1f %8.1f %8.1f", name, histogram.getTotalCount(),
+                                  histogram.getValueAtPercentile(50) / 1000.0,
+                                  histogram.getValueAtPercentile(95) / 1000.0,
+                                  histogram.getValueAtPercentile(99) / 1000.0));
+    }
+
+    /**
+     * Interactive shell: one command per line until "exit"/"quit" or end of input.
+     */
+    static void shell(UserApp app, BufferedReader in, PrintStream out, PrintStream err) throws IOException {
+        out.println("Session open. Commands: search, get-file, get-stats, exit");
+        while (true) {
+            out.print("> ");
+            out.flush();
+            String line = in.readLine();
+            if (line == null) {
+                break;
+            }
+            List<String> args = split(line);
+            if (args.isEmpty()) {
+                continue;
+            }
+            String command = args.get(0).toLowerCase();
+            if (command.equals("exit") || command.equals("quit")) {
+                break;
+            }
+            long start = System.nanoTime();
+            run(app, args, out, err);
+            out.printf("(%d ms)%n", (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+
+    /**
+     * Split a command line on whitespace; double quotes group words ("gmail com").
+     */
+    static List<String> split(String line) {
+        List<String> args = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+        boolean hasToken = false;
+        for (char c : line.toCharArray()) {
+            if (c == '"') {
+                quoted = !quoted;
+                hasToken = true;
+            } else if (Character.isWhitespace(c) && !quoted) {
+                if (hasToken) {
+                    args.add(current.toString());
+                    current.setLength(0);
+                    hasToken = false;
+                }
+            } else {
+                current.append(c);
+                hasToken = true;
+            }
+        }
+        if (hasToken) {
+            args.add(current.toString());
+        }
+        return args;
+    }
+}
@@ -0,0 +1,40 @@
+package pt.isel.cd.userapp;
+
+import java.util.Arrays;
+
+/**
+ * Sliding window of the most recent response latencies of one request type.
+ * Used to decide when a request is slow enough to be hedged.
+ */
+class LatencyTracker {
+    private final long[] samples;
+    private int next = 0;
+    private int count = 0;
+
+    LatencyTracker(int windowSize) {
+        this.samples = new long[windowSize];
+    }
+
+    synchronized void record(long latencyMillis) {
+        samples[next] = latencyMillis;
+        next = (next + 1) % samples.length;
+        count = Math.min(count + 1, samples.length);
+    }
+
+    synchronized int getCount() {
+        return count;
+    }
+
+    /**
+     * Latency at the given percentile (0-100) of the window, or -1 with fewer than minSamples.
+     */
+    synchronized long percentile(double percentile, int minSamples) {
+        if (count < Math.max(1, minSamples)) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100.0 * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, index))];
+    }
+}
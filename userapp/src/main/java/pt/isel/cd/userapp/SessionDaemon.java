@@ -0,0 +1,299 @@
+package pt.isel.cd.userapp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Local session daemon: keeps one UserApp (connection, channel, reply queue) open and
+ * runs commands received over a Unix domain socket, so CLI invocations only pay for a
+ * local socket round trip plus the broker round trip of the request itself.
+ *
+ * Protocol (one command per connection): the client sends its settings (see
+ * {@link #settings()}) on the first line, then the command arguments, one per line,
+ * followed by an empty line. A daemon with other settings answers "settings" and the
+ * client runs the command itself. Otherwise the daemon answers with the exit code and
+ * the length of the standard output on the first line, then the standard output and the
+ * error output, and closes the connection.
+ *
+ * The socket is only trusted if it belongs to the current user: it lives in
+ * $XDG_RUNTIME_DIR or in a private (0700) directory under the temp directory, clients
+ * check its owner before sending anything, and the daemon only replaces a stale socket
+ * of the same user.
+ */
+class SessionDaemon implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(SessionDaemon.class);
+    private static final String SETTINGS_MISMATCH = "settings";
+
+    private final UserApp app;
+    private final Path socketPath;
+    private final String settings;
+    private final ServerSocketChannel server;
+    private final ExecutorService handlers = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * @param settings the daemon's own settings; commands from clients with others are refused
+     */
+    SessionDaemon(UserApp app, Path socketPath, String settings) throws IOException {
+        this.app = app;
+        this.socketPath = socketPath;
+        this.settings = settings;
+        if (socketPath.equals(defaultPrivatePath())) {
+            createPrivateDirectory(socketPath.getParent());
+        }
+        removeStaleSocket(socketPath);
+        server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(socketPath));
+        if (isPosix()) {
+            Files.setPosixFilePermissions(socketPath, PosixFilePermissions.fromString("rw-------"));
+        }
+    }
+
+    /**
+     * Default socket: $USERAPP_SOCKET, $XDG_RUNTIME_DIR/userapp.sock, or a socket in a
+     * per-user directory under the temp directory.
+     */
+    static Path socketPath() {
+        String configured = System.getenv("USERAPP_SOCKET");
+        if (configured != null && !configured.isEmpty()) {
+            return Paths.get(configured);
+        }
+        String runtimeDir = System.getenv("XDG_RUNTIME_DIR");
+        if (runtimeDir != null && !runtimeDir.isEmpty()) {
+            return Paths.get(runtimeDir, "userapp.sock");
+        }
+        return defaultPrivatePath();
+    }
+
+    private static Path defaultPrivatePath() {
+        return Paths.get(System.getProperty("java.io.tmpdir"), "userapp-" + System.getProperty("user.name"),
+                         "session.sock");
+    }
+
+    /**
+     * The environment that decides where and how commands run. A daemon only runs commands
+     * of clients with the same settings, so it never silently overrides theirs.
+     */
+    static String settings() {
+        StringBuilder settings = new StringBuilder();
+        for (String name : UserApp.SETTINGS_VARIABLES) {
+            String value = System.getenv(name);
+            settings.append(name).append('=').append(value != null ? value.replace('\n', ' ') : "").append(';');
+        }
+        return settings.toString();
+    }
+
+    /**
+     * Accept connections until the daemon is closed (each command runs on its own virtual thread).
+     */
+    void serve() throws IOException {
+        logger.info("Session daemon listening on {}", socketPath);
+        while (server.isOpen()) {
+            SocketChannel client;
+            try {
+                client = server.accept();
+            } catch (IOException e) {
+                if (!server.isOpen()) break;
+                throw e;
+            }
+            handlers.execute(() -> handle(client));
+        }
+    }
+
+    private void handle(SocketChannel client) {
+        try (client;
+             BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(client), StandardCharsets.UTF_8));
+             OutputStream out = Channels.newOutputStream(client)) {
+            String clientSettings = in.readLine();
+            List<String> args = new ArrayList<>();
+            String line;
+            while ((line = in.readLine()) != null && !line.isEmpty()) {
+                args.add(line);
+            }
+            if (!settings.equals(clientSettings)) {
+                out.write((SETTINGS_MISMATCH + "\n").getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            ByteArrayOutputStream errors = new ByteArrayOutputStream();
+            int code;
+            try (PrintStream outStream = new PrintStream(output, true, StandardCharsets.UTF_8);
+                 PrintStream errStream = new PrintStream(errors, true, StandardCharsets.UTF_8)) {
+                code = Commands.run(app, args, outStream, errStream);
+            }
+            out.write((code + " " + output.size() + "\n").getBytes(StandardCharsets.UTF_8));
+            output.writeTo(out);
+            errors.writeTo(out);
+        } catch (IOException e) {
+            logger.warn("Session daemon client failed", e);
+        }
+    }
+
+    /**
+     * Thin client: run a command through a running daemon.
+     *
+     * @return the command's exit code, or null if no daemon of this user with the same
+     *         settings is listening
+     */
+    static Integer forward(Path socketPath, String settings, String[] args, PrintStream out, PrintStream err) {
+        try {
+            if (!isOwnSocket(socketPath)) {
+                if (Files.exists(socketPath, LinkOption.NOFOLLOW_LINKS)) {
+                    logger.warn("Ignoring session socket {}: not a socket of the current user", socketPath);
+                }
+                return null;
+            }
+        } catch (IOException e) {
+            logger.debug("Cannot check session socket {}: {}", socketPath, e.getMessage());
+            return null;
+        }
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socketPath))) {
+            Writer writer = new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8);
+            writer.write(settings);
+            writer.write('\n');
+            for (String arg : args) {
+                // Arguments are line-delimited; a newline inside one cannot be forwarded
+                writer.write(arg.replace('\n', ' '));
+                writer.write('\n');
+            }
+            writer.write('\n');
+            writer.flush();
+
+            InputStream in = new BufferedInputStream(Channels.newInputStream(channel));
+            String status = readLine(in);
+            if (status == null) {
+                return null;
+            }
+            if (status.equals(SETTINGS_MISMATCH)) {
+                logger.info("Session daemon at {} runs with other settings, connecting directly", socketPath);
+                return null;
+            }
+            String[] fields = status.trim().split(" ");
+            int code = Integer.parseInt(fields[0]);
+            long outputLength = Long.parseLong(fields[1]);
+            byte[] chunk = new byte[8192];
+            int read;
+            while (outputLength > 0 && (read = in.read(chunk, 0, (int) Math.min(chunk.length, outputLength))) > 0) {
+                out.write(chunk, 0, read);
+                outputLength -= read;
+            }
+            out.flush();
+            in.transferTo(err);
+            err.flush();
+            return code;
+        } catch (IOException | RuntimeException e) {
+            // Stale socket file or daemon gone: run the command directly
+            logger.debug("No session daemon at {}: {}", socketPath, e.getMessage());
+            return null;
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) >= 0 && b != '\n') {
+            line.write(b);
+        }
+        return b < 0 && line.size() == 0 ? null : line.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A socket file (not a link) owned by the current user. Only its owner can have bound it,
+     * so nobody else can be listening behind it.
+     */
+    private static boolean isOwnSocket(Path path) throws IOException {
+        if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+            return false;
+        }
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        return attributes.isOther() && isOwnedByCurrentUser(path);
+    }
+
+    private static boolean isOwnedByCurrentUser(Path path) throws IOException {
+        UserPrincipal currentUser = FileSystems.getDefault().getUserPrincipalLookupService()
+            .lookupPrincipalByName(System.getProperty("user.name"));
+        return currentUser.equals(Files.getOwner(path, LinkOption.NOFOLLOW_LINKS));
+    }
+
+    /**
+     * Create the per-user socket directory with mode 0700, or check that an existing one is
+     * a directory of the current user that nobody else can access.
+     */
+    private static void createPrivateDirectory(Path directory) throws IOException {
+        if (!Files.exists(directory, LinkOption.NOFOLLOW_LINKS)) {
+            if (isPosix()) {
+                Files.createDirectory(directory, PosixFilePermissions.asFileAttribute(
+                    PosixFilePermissions.fromString("rwx------")));
+            } else {
+                Files.createDirectory(directory);
+            }
+        }
+        if (!Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS) || !isOwnedByCurrentUser(directory)) {
+            throw new IOException("Session directory " + directory + " is not a directory of the current user");
+        }
+        if (isPosix()) {
+            Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(directory, LinkOption.NOFOLLOW_LINKS);
+            if (!PosixFilePermissions.fromString("rwx------").containsAll(permissions)) {
+                throw new IOException("Session directory " + directory + " is accessible to other users ("
+                                      + PosixFilePermissions.toString(permissions) + ")");
+            }
+        }
+    }
+
+    /**
+     * A socket file left behind by a daemon that crashed would make bind fail. Only a socket
+     * of the current user with no daemon behind it is removed; anything else is left alone.
+     */
+    private static void removeStaleSocket(Path path) throws IOException {
+        if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        if (!isOwnSocket(path)) {
+            throw new IOException(path + " exists and is not a session socket of the current user");
+        }
+        boolean listening;
+        try (SocketChannel probe = SocketChannel.open(UnixDomainSocketAddress.of(path))) {
+            listening = true;
+        } catch (IOException e) {
+            listening = false;
+        }
+        if (listening) {
+            throw new IOException("A session daemon is already listening on " + path);
+        }
+        Files.delete(path);
+    }
+
+    private static boolean isPosix() {
+        return FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        handlers.shutdown();
+        if (isOwnSocket(socketPath)) {
+            Files.deleteIfExists(socketPath);
+        }
+    }
+}
@@ -1,33 +1,120 @@
 package pt.isel.cd.userapp;
 
 import com.rabbitmq.client.*;
+import pt.isel.cd.common.codec.Codecs;
+import pt.isel.cd.common.codec.MessageCodec;
 import pt.isel.cd.common.config.QueueConfig;
+import pt.isel.cd.common.config.RequestLane;
+import pt.isel.cd.common.config.ShardRouting;
 import pt.isel.cd.common.model.*;
-import pt.isel.cd.common.util.JsonUtil;
+import pt.isel.cd.common.util.RequestTrace;
+import pt.isel.cd.common.util.SpanExporter;
+import pt.isel.cd.common.util.Tracing;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
 /**
  * User Application - CLI client for submitting requests and receiving responses.
+ *
+ * Besides the blocking calls used by the CLI, every request has an asynchronous variant
+ * returning a {@link CompletableFuture}, so a single instance (one connection, one
+ * response queue) can keep many requests in flight. The number of outstanding requests
+ * is bounded; when the limit is reached the async calls block until a response arrives.
+ *
+ * Every request carries a trace id in its headers. Callers that pass a trace listener also
+ * get the workers' phase timings back (queue, decode, process, encode, ...), next to the
+ * client's own round trip; spans can also be appended to a JSON lines file.
  */
 public class UserApp implements AutoCloseable {
     private static final Logger logger = LoggerFactory.getLogger(UserApp.class);
     private static final int RESPONSE_TIMEOUT_SECONDS = 30;
+    public static final int DEFAULT_MAX_IN_FLIGHT = 256;
+    private static final int HEDGE_WINDOW_SIZE = 512;
+    // Environment a session daemon must share with a client to run its commands
+    static final List<String> SETTINGS_VARIABLES = List.of(
+        "RABBITMQ_HOST", "RABBITMQ_PORT", "WIRE_FORMAT", "REPLY_MODE", "HEDGE_PERCENTILE", "SHARDS", "TRACE_FILE");
+    private static final int HEDGE_MIN_SAMPLES = 20;
     
     private final Connection connection;
     private final Channel channel;
     private final String clientQueue;
+    private final MessageCodec codec;
+    private final boolean directReplyTo;
     private final Map<String, CompletableFuture<ResponseMessage>> pendingRequests = new ConcurrentHashMap<>();
+    private final Semaphore inFlight;
+    private final ScheduledThreadPoolExecutor timeouts;
+    
+    // Hedging: resend a slow SEARCH/GET_FILE once it exceeds this latency percentile (0 = off)
+    private volatile double hedgePercentile = 0;
+    private final Map<RequestType, LatencyTracker> latencies = new ConcurrentHashMap<>();
+    
+    // Sharding: publish through each lane's consistent-hash exchange (false = plain lane queues)
+    private volatile boolean sharded = false;
+    
+    // Requests whose spans are reported to a listener or exported when the response arrives
+    private final Map<String, PendingTrace> pendingTraces = new ConcurrentHashMap<>();
+    private volatile SpanExporter spanExporter;  // null = spans are not exported
 
     public UserApp(String rabbitMqHost, int rabbitMqPort) throws IOException, TimeoutException {
+        this(rabbitMqHost, rabbitMqPort, Codecs.JSON);
+    }
+
+    /**
+     * @param codec wire format for requests; workers answer in the same format
+     */
+    public UserApp(String rabbitMqHost, int rabbitMqPort, MessageCodec codec) throws IOException, TimeoutException {
+        this(rabbitMqHost, rabbitMqPort, codec, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * @param codec       wire format for requests; workers answer in the same format
+     * @param maxInFlight maximum number of requests awaiting a response
+     */
+    public UserApp(String rabbitMqHost, int rabbitMqPort, MessageCodec codec, int maxInFlight)
+            throws IOException, TimeoutException {
+        this(rabbitMqHost, rabbitMqPort, codec, maxInFlight, false);
+    }
+
+    /**
+     * @param codec         wire format for requests; workers answer in the same format
+     * @param maxInFlight   maximum number of requests awaiting a response
+     * @param directReplyTo receive responses through RabbitMQ direct reply-to instead of
+     *                      declaring a client queue (no queue declaration round trip, no
+     *                      broker-side queue left behind by short-lived processes)
+     */
+    public UserApp(String rabbitMqHost, int rabbitMqPort, MessageCodec codec, int maxInFlight,
+                   boolean directReplyTo) throws IOException, TimeoutException {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be >= 1");
+        }
+        this.codec = codec;
+        this.directReplyTo = directReplyTo;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.timeouts = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "userapp-timeouts");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timeouts.setRemoveOnCancelPolicy(true);
+        
         ConnectionFactory factory = new ConnectionFactory();
         factory.setHost(rabbitMqHost);
         factory.setPort(rabbitMqPort);
@@ -35,38 +122,57 @@ public class UserApp implements AutoCloseable {
         connection = factory.newConnection();
         channel = connection.createChannel();
         
-        // Declare requests queue (durable, for work distribution)
-        channel.queueDeclare(QueueConfig.REQUESTS_QUEUE, true, false, false, null);
-        
-        // Create client-specific response queue with TTL
-        String queuePrefix = QueueConfig.CLIENT_QUEUE_PREFIX;
-        String uniqueId = UUID.randomUUID().toString();
-        clientQueue = queuePrefix + uniqueId;
-        
-        Map<String, Object> args = new HashMap<>();
-        args.put("x-message-ttl", QueueConfig.CLIENT_QUEUE_TTL);
-        args.put("x-expires", QueueConfig.CLIENT_QUEUE_TTL);
+        // Declare one request queue per lane (durable, for work distribution)
+        for (RequestLane lane : RequestLane.values()) {
+            channel.queueDeclare(lane.getQueueName(), true, false, false, null);
+        }
         
-        channel.queueDeclare(clientQueue, false, true, true, args);
+        if (directReplyTo) {
+            // Responses are addressed through the replyTo property; the pseudo-queue
+            // needs no declaration but must be consumed (auto-ack) before publishing
+            clientQueue = QueueConfig.DIRECT_REPLY_TO;
+        } else {
+            // Create client-specific response queue with TTL
+            String queuePrefix = QueueConfig.CLIENT_QUEUE_PREFIX;
+            String uniqueId = UUID.randomUUID().toString();
+            clientQueue = queuePrefix + uniqueId;
+            
+            Map<String, Object> args = new HashMap<>();
+            args.put("x-message-ttl", QueueConfig.CLIENT_QUEUE_TTL);
+            args.put("x-expires", QueueConfig.CLIENT_QUEUE_TTL);
+            
+            channel.queueDeclare(clientQueue, false, true, true, args);
+        }
         
         // Start consuming responses
         startResponseConsumer();
         
-        logger.info("UserApp initialized. RabbitMQ: {}:{}, Client Queue: {}", 
-                    rabbitMqHost, rabbitMqPort, clientQueue);
+        logger.info("UserApp initialized. RabbitMQ: {}:{}, Client Queue: {}, Wire format: {}", 
+                    rabbitMqHost, rabbitMqPort, clientQueue, codec.getContentType());
     }
 
     private void startResponseConsumer() throws IOException {
         DeliverCallback deliverCallback = (consumerTag, delivery) -> {
             try {
-                ResponseMessage response = JsonUtil.parseResponse(delivery.getBody());
+                MessageCodec responseCodec = Codecs.forContentType(delivery.getProperties().getContentType());
+                ResponseMessage response = responseCodec.decodeResponse(delivery.getBody());
                 logger.info("Received response: {}", response.getRequestId());
                 
-                CompletableFuture<ResponseMessage> future = pendingRequests.remove(response.getRequestId());
+                String requestId = response.getRequestId() != null 
+                    ? response.getRequestId() : delivery.getProperties().getCorrelationId();
+                CompletableFuture<ResponseMessage> future = pendingRequests.remove(requestId);
                 if (future != null) {
+                    PendingTrace pending = pendingTraces.remove(requestId);
+                    if (pending != null) {
+                        // Reported before completing, so blocking callers see the trace on return
+                        finishTrace(pending, delivery.getProperties().getHeaders());
+                    }
                     future.complete(response);
+                } else if (hedgePercentile > 0) {
+                    // Expected when both copies of a hedged request are answered
+                    logger.debug("Discarding late response for request: {}", requestId);
                 } else {
-                    logger.warn("Received response for unknown request: {}", response.getRequestId());
+                    logger.warn("Received response for unknown request: {}", requestId);
                 }
             } catch (Exception e) {
                 logger.error("Error processing response", e);
@@ -80,151 +186,459 @@ public class UserApp implements AutoCloseable {
      * Search for files containing all specified substrings.
      */
     public SearchResultPayload search(List<String> substrings) throws Exception {
+        return await(searchAsync(substrings, null));
+    }
+
+    /**
+     * {@link #search} reporting the request's spans to the listener.
+     */
+    public SearchResultPayload search(List<String> substrings, Consumer<List<TraceSpan>> traceListener) 
+            throws Exception {
+        return await(searchAsync(substrings, traceListener));
+    }
+
+    /**
+     * Retrieve the content of a specific file.
+     */
+    public FileContentPayload getFile(String filename) throws Exception {
+        return await(getFileAsync(filename, null));
+    }
+
+    /**
+     * {@link #getFile} reporting the request's spans to the listener.
+     */
+    public FileContentPayload getFile(String filename, Consumer<List<TraceSpan>> traceListener) throws Exception {
+        return await(getFileAsync(filename, traceListener));
+    }
+
+    /**
+     * Request aggregated statistics from all workers.
+     */
+    public StatisticsPayload getStats() throws Exception {
+        return await(getStatsAsync(null));
+    }
+
+    /**
+     * {@link #getStats} reporting the request's spans to the listener.
+     */
+    public StatisticsPayload getStats(Consumer<List<TraceSpan>> traceListener) throws Exception {
+        return await(getStatsAsync(traceListener));
+    }
+
+    /**
+     * Asynchronous {@link #search}; the future fails if the response is not OK or times out.
+     */
+    public CompletableFuture<SearchResultPayload> searchAsync(List<String> substrings) {
+        return searchAsync(substrings, null);
+    }
+
+    /**
+     * @param traceListener receives the request's spans, including the workers' phases
+     *                      (null = no phases requested)
+     */
+    public CompletableFuture<SearchResultPayload> searchAsync(List<String> substrings, 
+                                                              Consumer<List<TraceSpan>> traceListener) {
         String requestId = UUID.randomUUID().toString();
         SearchPayload payload = new SearchPayload(substrings);
-        RequestMessage request = new RequestMessage(requestId, RequestType.SEARCH, clientQueue, payload);
+        RequestMessage request = new RequestMessage(requestId, RequestType.SEARCH, replyQueueField(), payload);
         
         logger.info("Sending SEARCH request: {}", substrings);
-        ResponseMessage response = sendRequestAndWait(request);
-        
-        if (response.getStatus() == ResponseStatus.OK) {
-            return (SearchResultPayload) response.getPayload();
-        } else {
-            throw new RuntimeException("Search failed: " + response.getStatus());
-        }
+        return sendRequest(request, traceListener).thenApply(response -> {
+            if (response.getStatus() == ResponseStatus.OK) {
+                return (SearchResultPayload) response.getPayload();
+            }
+            throw failure("Search failed", response);
+        });
     }
 
     /**
-     * Retrieve the content of a specific file.
+     * Asynchronous {@link #getFile}; the future fails if the response is not OK or times out.
      */
-    public FileContentPayload getFile(String filename) throws Exception {
+    public CompletableFuture<FileContentPayload> getFileAsync(String filename) {
+        return getFileAsync(filename, null);
+    }
+
+    /**
+     * @param traceListener receives the request's spans, including the workers' phases
+     *                      (null = no phases requested)
+     */
+    public CompletableFuture<FileContentPayload> getFileAsync(String filename, 
+                                                              Consumer<List<TraceSpan>> traceListener) {
         String requestId = UUID.randomUUID().toString();
         FilePayload payload = new FilePayload(filename);
-        RequestMessage request = new RequestMessage(requestId, RequestType.GET_FILE, clientQueue, payload);
+        RequestMessage request = new RequestMessage(requestId, RequestType.GET_FILE, replyQueueField(), payload);
         
         logger.info("Sending GET_FILE request: {}", filename);
-        ResponseMessage response = sendRequestAndWait(request);
-        
-        if (response.getStatus() == ResponseStatus.OK) {
-            return (FileContentPayload) response.getPayload();
-        } else {
-            throw new RuntimeException("Get file failed: " + response.getStatus());
-        }
+        return sendRequest(request, traceListener).thenApply(response -> {
+            if (response.getStatus() == ResponseStatus.OK) {
+                return (FileContentPayload) response.getPayload();
+            }
+            throw failure("Get file failed", response);
+        });
     }
 
     /**
-     * Request aggregated statistics from all workers.
+     * Asynchronous {@link #getStats}; the future fails if the response is not OK or times out.
      */
-    public StatisticsPayload getStats() throws Exception {
+    public CompletableFuture<StatisticsPayload> getStatsAsync() {
+        return getStatsAsync(null);
+    }
+
+    /**
+     * @param traceListener receives the request's spans, including the coordinator's phases
+     *                      (null = no phases requested)
+     */
+    public CompletableFuture<StatisticsPayload> getStatsAsync(Consumer<List<TraceSpan>> traceListener) {
         String requestId = UUID.randomUUID().toString();
-        RequestMessage request = new RequestMessage(requestId, RequestType.GET_STATS, clientQueue, null);
+        RequestMessage request = new RequestMessage(requestId, RequestType.GET_STATS, replyQueueField(), null);
         
         logger.info("Sending GET_STATS request");
-        ResponseMessage response = sendRequestAndWait(request);
-        
-        if (response.getStatus() == ResponseStatus.OK) {
-            return (StatisticsPayload) response.getPayload();
-        } else {
-            throw new RuntimeException("Get stats failed: " + response.getStatus());
+        return sendRequest(request, traceListener).thenApply(response -> {
+            if (response.getStatus() == ResponseStatus.OK) {
+                return (StatisticsPayload) response.getPayload();
+            }
+            throw failure("Get stats failed", response);
+        });
+    }
+
+    /**
+     * Error for a non-OK response, including the worker's message if it sent one.
+     */
+    private static RuntimeException failure(String what, ResponseMessage response) {
+        if (response.getPayload() instanceof String) {
+            return new RuntimeException(what + ": " + response.getStatus() + " (" + response.getPayload() + ")");
+        }
+        return new RuntimeException(what + ": " + response.getStatus());
+    }
+
+    /**
+     * Hedge idempotent requests (SEARCH, GET_FILE): when one is still unanswered after the
+     * given percentile of recent latencies of its type, a duplicate with the same request id
+     * is published. The first response wins; workers skip a twin whose sibling completed.
+     *
+     * @param percentile latency percentile (e.g. 95), or 0 to disable hedging
+     */
+    public void setHedgePercentile(double percentile) {
+        if (percentile < 0 || percentile >= 100) {
+            throw new IllegalArgumentException("hedge percentile must be in [0, 100)");
         }
+        this.hedgePercentile = percentile;
     }
 
-    private ResponseMessage sendRequestAndWait(RequestMessage request) throws Exception {
+    /**
+     * Route requests through the lanes' consistent-hash exchanges, so repeated searches for
+     * the same terms and reads of the same file land on the same shard (and the same worker's
+     * caches). Declares the exchanges and shard queues; the count must match the workers'.
+     *
+     * @param shardCount shard queues per lane, or 0 to publish to the plain lane queues
+     */
+    public void setShardCount(int shardCount) throws IOException {
+        if (shardCount < 0) {
+            throw new IllegalArgumentException("shard count must be >= 0");
+        }
+        if (shardCount > 0) {
+            synchronized (channel) {
+                for (RequestLane lane : RequestLane.values()) {
+                    channel.exchangeDeclare(lane.getShardExchangeName(), ShardRouting.CONSISTENT_HASH_EXCHANGE_TYPE, true);
+                    for (int shard = 0; shard < shardCount; shard++) {
+                        channel.queueDeclare(lane.getShardQueueName(shard), true, false, false, null);
+                        channel.queueBind(lane.getShardQueueName(shard), lane.getShardExchangeName(),
+                                          ShardRouting.SHARD_WEIGHT);
+                    }
+                }
+            }
+        }
+        this.sharded = shardCount > 0;
+    }
+
+    /**
+     * Append the spans of every request to a file as JSON lines.
+     */
+    public void setTraceFile(Path file) throws IOException {
+        SpanExporter previous = spanExporter;
+        spanExporter = new SpanExporter(file);
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    private static boolean isHedgeable(RequestType type) {
+        return type == RequestType.SEARCH || type == RequestType.GET_FILE;
+    }
+
+    /**
+     * Number of requests currently awaiting a response.
+     */
+    public int getInFlightCount() {
+        return pendingRequests.size();
+    }
+
+    /**
+     * Publish a request and return a future for its response.
+     * Blocks while the in-flight limit is reached. The pending entry is removed when the
+     * response arrives, the request times out, or the caller cancels the future.
+     */
+    private CompletableFuture<ResponseMessage> sendRequest(RequestMessage request, 
+                                                           Consumer<List<TraceSpan>> traceListener) {
         CompletableFuture<ResponseMessage> future = new CompletableFuture<>();
-        pendingRequests.put(request.getRequestId(), future);
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(e);
+            return future;
+        }
+        
+        String requestId = request.getRequestId();
+        RequestType type = request.getType();
+        boolean hedgeable = hedgePercentile > 0 && isHedgeable(type);
+        long sentAt = System.currentTimeMillis();
+        RequestTrace trace = new RequestTrace("userapp", "userapp.request", 
+                                              new TraceContext(Tracing.newTraceId(), null, traceListener != null),
+                                              System.nanoTime());
+        trace.setRequestId(requestId);
+        if (traceListener != null || spanExporter != null) {
+            pendingTraces.put(requestId, new PendingTrace(trace, traceListener));
+        }
+        pendingRequests.put(requestId, future);
+        LatencyTracker tracker = latencies.computeIfAbsent(type, t -> new LatencyTracker(HEDGE_WINDOW_SIZE));
+        // Registered first: whatever completes the future from here on frees the permit
+        future.whenComplete((response, error) -> {
+            pendingRequests.remove(requestId, future);
+            pendingTraces.remove(requestId);
+            inFlight.release();
+            if (response != null && response.getStatus() == ResponseStatus.OK) {
+                tracker.record(System.currentTimeMillis() - sentAt);
+            }
+        });
         
         try {
-            // Publish request to work queue
-            byte[] messageBytes = JsonUtil.toJsonBytes(request);
-            channel.basicPublish("", QueueConfig.REQUESTS_QUEUE, null, messageBytes);
+            // Rejected once the client is closed, which fails the request like a publish error
+            ScheduledFuture<?> timeout = timeouts.schedule(
+                () -> future.completeExceptionally(
+                    new RuntimeException("Request timed out after " + RESPONSE_TIMEOUT_SECONDS + " seconds")),
+                RESPONSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            future.whenComplete((response, error) -> timeout.cancel(false));
+
+            // Publish request to the work queue of its lane; callers may publish concurrently
+            byte[] messageBytes = codec.encodeRequest(request);
+            RequestLane lane = RequestLane.of(type);
+            String queue = lane.getQueueName();
+            if (sharded) {
+                publish(lane.getShardExchangeName(), ShardRouting.routingKey(request),
+                        requestProps(requestId, hedgeable, false, sentAt, trace), messageBytes);
+            } else {
+                publish("", queue, requestProps(requestId, hedgeable, false, sentAt, trace), messageBytes);
+            }
             
-            // Wait for response with timeout
-            return future.get(RESPONSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
-        } catch (java.util.concurrent.TimeoutException e) {
-            pendingRequests.remove(request.getRequestId());
-            throw new RuntimeException("Request timed out after " + RESPONSE_TIMEOUT_SECONDS + " seconds");
+            long hedgeDelay = hedgeable ? tracker.percentile(hedgePercentile, HEDGE_MIN_SAMPLES) : -1;
+            if (hedgeDelay >= 0) {
+                ScheduledFuture<?> hedge = timeouts.schedule(() -> {
+                    if (future.isDone()) return;
+                    logger.info("Hedging request {} after {} ms", requestId, hedgeDelay);
+                    try {
+                        // The plain lane queue is consumed by every worker, not just the shard owner
+                        publish("", queue, requestProps(requestId, true, true, sentAt, trace), messageBytes);
+                    } catch (IOException | RuntimeException e) {
+                        logger.warn("Failed to publish hedge for request {}", requestId, e);
+                    }
+                }, hedgeDelay, TimeUnit.MILLISECONDS);
+                future.whenComplete((response, error) -> hedge.cancel(false));
+            }
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private void publish(String exchange, String routingKey, AMQP.BasicProperties props, byte[] body)
+            throws IOException {
+        synchronized (channel) {
+            channel.basicPublish(exchange, routingKey, props, body);
+        }
+    }
+
+    /**
+     * The clientQueue field of requests; direct reply-to requests carry the address
+     * in the AMQP properties instead.
+     */
+    private String replyQueueField() {
+        return directReplyTo ? null : clientQueue;
+    }
+
+    /**
+     * Requests carry their publish time for the workers' admission control and their trace
+     * context, and expire in the broker once this client would no longer wait for the response.
+     */
+    private AMQP.BasicProperties requestProps(String requestId, boolean hedgeable, boolean hedge, long sentAt,
+                                              RequestTrace trace) {
+        long now = System.currentTimeMillis();
+        Map<String, Object> headers = new HashMap<>();
+        headers.put(QueueConfig.ENQUEUED_AT_HEADER, now);
+        Tracing.writeContext(trace.childContext(), headers);
+        if (hedgeable) {
+            // Tells the workers a twin may exist, so the one completing it announces that
+            headers.put(QueueConfig.HEDGE_HEADER, hedge);
+        }
+        long expiration = Math.max(1, TimeUnit.SECONDS.toMillis(RESPONSE_TIMEOUT_SECONDS) - (now - sentAt));
+        AMQP.BasicProperties.Builder builder = new AMQP.BasicProperties.Builder()
+            .contentType(codec.getContentType())
+            .headers(headers)
+            .expiration(String.valueOf(expiration));
+        if (directReplyTo) {
+            builder.replyTo(QueueConfig.DIRECT_REPLY_TO).correlationId(requestId);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Close the client's span at the response and add the phases the worker returned.
+     */
+    private void finishTrace(PendingTrace pending, Map<String, Object> responseHeaders) {
+        RequestTrace trace = pending.trace;
+        if (responseHeaders != null) {
+            trace.addRemote(Tracing.parsePhases(responseHeaders.get(QueueConfig.TRACE_PHASES_HEADER), 
+                                                trace.childContext(), null));
+        }
+        List<TraceSpan> spans = trace.finish(System.nanoTime());
+        SpanExporter exporter = spanExporter;
+        if (exporter != null) {
+            exporter.export(spans);
+        }
+        if (pending.listener != null) {
+            try {
+                pending.listener.accept(spans);
+            } catch (RuntimeException e) {
+                logger.warn("Trace listener failed", e);
+            }
+        }
+    }
+
+    private static class PendingTrace {
+        final RequestTrace trace;
+        final Consumer<List<TraceSpan>> listener;  // null = export only
+
+        PendingTrace(RequestTrace trace, Consumer<List<TraceSpan>> listener) {
+            this.trace = trace;
+            this.listener = listener;
+        }
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException | CompletionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
         }
     }
 
     public void close() throws IOException, TimeoutException {
+        timeouts.shutdownNow();
+        for (CompletableFuture<ResponseMessage> future : pendingRequests.values()) {
+            future.completeExceptionally(new IllegalStateException("UserApp closed"));
+        }
         if (channel != null && channel.isOpen()) {
             channel.close();
         }
         if (connection != null && connection.isOpen()) {
             connection.close();
         }
+        if (spanExporter != null) {
+            spanExporter.close();
+        }
         logger.info("UserApp closed");
     }
 
     public static void main(String[] args) {
         if (args.length < 1) {
-            printUsage();
+            printUsage(System.out);
             System.exit(1);
         }
 
         String command = args[0].toLowerCase();
+        Path socketPath = SessionDaemon.socketPath();
+        boolean session = command.equals("shell") || command.equals("daemon");
+        if (!session) {
+            // Reuse a running session daemon's connection when there is one
+            Integer code = SessionDaemon.forward(socketPath, SessionDaemon.settings(), args, System.out, System.err);
+            if (code != null) {
+                System.exit(code);
+            }
+        }
+        
         String rabbitMqHost = System.getenv().getOrDefault("RABBITMQ_HOST", QueueConfig.DEFAULT_RABBITMQ_HOST);
         int rabbitMqPort = Integer.parseInt(System.getenv().getOrDefault("RABBITMQ_PORT", 
                                                                           String.valueOf(QueueConfig.DEFAULT_RABBITMQ_PORT)));
+        MessageCodec codec = Codecs.byName(System.getenv().getOrDefault("WIRE_FORMAT", "json"));
+        boolean directReplyTo = "direct".equalsIgnoreCase(System.getenv().getOrDefault("REPLY_MODE", "queue"));
 
-        try (UserApp app = new UserApp(rabbitMqHost, rabbitMqPort)) {
+        int exitCode = 0;
+        try (UserApp app = new UserApp(rabbitMqHost, rabbitMqPort, codec, DEFAULT_MAX_IN_FLIGHT, directReplyTo)) {
+            if (System.getenv("HEDGE_PERCENTILE") != null) {
+                app.setHedgePercentile(Double.parseDouble(System.getenv("HEDGE_PERCENTILE")));
+            }
+            if (System.getenv("SHARDS") != null) {
+                app.setShardCount(Integer.parseInt(System.getenv("SHARDS")));
+            }
+            if (System.getenv("TRACE_FILE") != null) {
+                app.setTraceFile(Path.of(System.getenv("TRACE_FILE")));
+            }
             switch (command) {
-                case "search":
-                    if (args.length < 2) {
-                        System.err.println("Usage: search <substring1> [substring2 ...]");
-                        System.exit(1);
-                    }
-                    List<String> substrings = Arrays.asList(Arrays.copyOfRange(args, 1, args.length));
-                    SearchResultPayload searchResult = app.search(substrings);
-                    Map<String, String> results = searchResult.getResults();
-                    System.out.println("Found " + results.size() + " email(s) containing all substrings\n");
-                    for (String filename : results.keySet()) {
-                        System.out.println("##:" + filename);  // Anexo 2 format
-                        System.out.println(results.get(filename));
-                        System.out.println();
-                    }
+                case "shell":
+                    Commands.shell(app, new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)), 
+                                   System.out, System.err);
                     break;
 
-                case "get-file":
-                    if (args.length != 2) {
-                        System.err.println("Usage: get-file <filename>");
-                        System.exit(1);
+                case "daemon":
+                    try (SessionDaemon daemon = new SessionDaemon(app, socketPath, SessionDaemon.settings())) {
+                        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                            try {
+                                daemon.close();
+                            } catch (IOException e) {
+                                logger.warn("Error closing session daemon", e);
+                            }
+                        }));
+                        System.out.println("Session daemon listening on " + socketPath);
+                        daemon.serve();
                     }
-                    String filename = args[1];
-                    FileContentPayload fileContent = app.getFile(filename);
-                    System.out.println("File: " + fileContent.getFilename());
-                    System.out.println("Content:");
-                    System.out.println(fileContent.getContent());
-                    break;
-
-                case "get-stats":
-                    StatisticsPayload stats = app.getStats();
-                    System.out.println("Statistics:");
-                    System.out.println("  Total Requests: " + stats.getTotalRequests());
-                    System.out.println("  Successful: " + stats.getSuccessfulRequests());
-                    System.out.println("  Failed: " + stats.getFailedRequests());
                     break;
 
                 default:
-                    System.err.println("Unknown command: " + command);
-                    printUsage();
-                    System.exit(1);
+                    exitCode = Commands.run(app, Arrays.asList(args), System.out, System.err);
             }
         } catch (Exception e) {
             logger.error("Error executing command", e);
             System.err.println("Error: " + e.getMessage());
-            System.exit(1);
+            exitCode = 1;
+        }
+        if (exitCode != 0) {
+            System.exit(exitCode);
         }
     }
 
-    private static void printUsage() {
-        System.out.println("Usage:");
-        System.out.println("  search <substring1> [substring2 ...]  - Search for files containing all substrings");
-        System.out.println("  get-file <filename>                   - Retrieve content of a file");
-        System.out.println("  get-stats                             - Get aggregated statistics");
-        System.out.println();
-        System.out.println("Environment variables:");
-        System.out.println("  RABBITMQ_HOST - RabbitMQ host (default: localhost)");
-        System.out.println("  RABBITMQ_PORT - RabbitMQ port (default: 5672)");
+    static void printUsage(PrintStream out) {
+        out.println("Usage:");
+        out.println("  search <substring1> [substring2 ...]  - Search for files containing all substrings");
+        out.println("  get-file <filename>                   - Retrieve content of a file");
+        out.println("  get-stats                             - Get aggregated statistics");
+        out.println("  --trace <command> ...                 - Also print where the time went (client and worker phases)");
+        out.println("  shell                                 - Interactive session over one connection");
+        out.println("  daemon                                - Keep a session open for later commands");
+        out.println("                                          (commands are forwarded to it automatically)");
+        out.println();
+        out.println("Environment variables:");
+        out.println("  RABBITMQ_HOST - RabbitMQ host (default: localhost)");
+        out.println("  RABBITMQ_PORT - RabbitMQ port (default: 5672)");
+        out.println("  WIRE_FORMAT   - json | binary (default: json)");
+        out.println("  REPLY_MODE    - queue | direct (direct reply-to, no client queue; default: queue)");
+        out.println("  HEDGE_PERCENTILE - resend slow searches/file reads past this latency percentile (default: off)");
+        out.println("  SHARDS        - route through n consistent-hash shards per lane, as the workers (default: off)");
+        out.println("  TRACE_FILE    - append the spans of every request to this file as JSON lines (default: off)");
+        out.println("  USERAPP_SOCKET - session daemon socket (default: $XDG_RUNTIME_DIR/userapp.sock,");
+        out.println("                   or <tmp>/userapp-<user>/session.sock); only sockets of the current");
+        out.println("                   user whose daemon has the same settings as the client are used");
     }
 }
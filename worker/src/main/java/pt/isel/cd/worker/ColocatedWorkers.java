@@ -0,0 +1,90 @@
+package pt.isel.cd.worker;
+
+import pt.isel.cd.worker.spread.LocalSpreadGroup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Several logical workers hosted in one JVM.
+ *
+ * The workers share one broker connection and response publisher pool, one corpus cache
+ * and one request executor (see {@link WorkerResources}), and form their Spread group
+ * in memory through a {@link LocalSpreadGroup}, without a daemon. Each keeps its own lane
+ * consumers, statistics and coordinator role, so the group behaves as N separate workers
+ * at a fraction of the memory and startup cost. The in-memory group only reaches workers
+ * of the same JVM, so this is meant for a single VM or for exercising the protocols.
+ */
+class ColocatedWorkers implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(ColocatedWorkers.class);
+
+    private final WorkerResources resources;
+    private final LocalSpreadGroup group;
+    private final List<Worker> workers = new ArrayList<>();
+
+    /**
+     * @param baseId worker ids are baseId-1 .. baseId-count
+     */
+    ColocatedWorkers(String baseId, int count, String rabbitMqHost, int rabbitMqPort, String sharedFilesDir,
+                     String spreadGroup, WorkerOptions options) throws IOException, TimeoutException {
+        this(baseId, count, new WorkerResources(baseId, rabbitMqHost, rabbitMqPort, sharedFilesDir, options,
+                                                checkCount(count)),
+             spreadGroup, options);
+    }
+
+    /**
+     * Workers on resources created for count workers.
+     */
+    ColocatedWorkers(String baseId, int count, WorkerResources resources, String spreadGroup,
+                     WorkerOptions options) throws IOException, TimeoutException {
+        checkCount(count);
+        this.resources = resources;
+        group = new LocalSpreadGroup(spreadGroup != null ? spreadGroup : "email_workers");
+        for (int i = 1; i <= count; i++) {
+            String workerId = baseId + "-" + i;
+            // Each worker serves its metrics on the next port
+            int metricsPort = options.getMetricsPort() > 0 ? options.getMetricsPort() + i - 1 : 0;
+            workers.add(new Worker(workerId, group.join(workerId), resources, options, metricsPort));
+        }
+        logger.info("Hosting {} colocated workers [{}-1..{}] in one JVM", count, baseId, count);
+    }
+
+    private static int checkCount(int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("colocated worker count must be >= 1");
+        }
+        return count;
+    }
+
+    List<Worker> getWorkers() {
+        return Collections.unmodifiableList(workers);
+    }
+
+    void start() throws IOException {
+        for (Worker worker : workers) {
+            worker.start();
+        }
+    }
+
+    /**
+     * Stop every worker consuming, drain the shared executor once, then close the workers
+     * and the shared resources.
+     */
+    @Override
+    public void close() throws Exception {
+        for (Worker worker : workers) {
+            worker.stopConsuming();
+        }
+        resources.drain();
+        for (Worker worker : workers) {
+            worker.release();
+        }
+        resources.close();
+        logger.info("Colocated workers closed");
+    }
+}
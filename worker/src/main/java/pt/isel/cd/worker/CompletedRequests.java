@@ -0,0 +1,151 @@
+package pt.isel.cd.worker;
+
+import pt.isel.cd.common.model.FileContentPayload;
+import pt.isel.cd.common.model.ResponseMessage;
+import pt.isel.cd.common.model.SearchResultPayload;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded, time-expiring record of recently completed request ids (idempotency keys).
+ * Fed by local completions and by REQUEST_COMPLETED announcements from other workers,
+ * so a redelivered or hedged duplicate is not processed (or counted) a second time.
+ * Responses produced locally are kept within a byte budget so a duplicate can be
+ * answered again without redoing the work.
+ */
+class CompletedRequests {
+    private final int capacity;
+    private final long maxResponseBytes;
+    private final long ttlMillis;
+    private long responseBytes = 0;
+    // Insertion order = completion order, so the eldest entries expire first
+    private final LinkedHashMap<String, Long> completedAt = new LinkedHashMap<>();
+    private final LinkedHashMap<String, CachedResponse> responses = new LinkedHashMap<>();
+
+    CompletedRequests(int capacity, long maxResponseBytes, long ttlMillis) {
+        this.capacity = capacity;
+        this.maxResponseBytes = maxResponseBytes;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Record a completion announced by another worker.
+     * Returns false if the request was already known as completed.
+     */
+    synchronized boolean markCompleted(String requestId) {
+        long now = System.currentTimeMillis();
+        expire(now);
+        if (completedAt.containsKey(requestId)) {
+            return false;
+        }
+        completedAt.put(requestId, now);
+        if (completedAt.size() > capacity) {
+            Iterator<String> eldest = completedAt.keySet().iterator();
+            removeResponse(eldest.next());
+            eldest.remove();
+        }
+        return true;
+    }
+
+    /**
+     * Record a local completion along with its response (null = nothing to replay).
+     * A response larger than the whole budget is not kept.
+     */
+    synchronized boolean markCompleted(String requestId, ResponseMessage response) {
+        boolean first = markCompleted(requestId);
+        long bytes = response != null ? estimateBytes(response) : 0;
+        if (response != null && bytes <= maxResponseBytes) {
+            removeResponse(requestId);
+            responses.put(requestId, new CachedResponse(response, bytes));
+            responseBytes += bytes;
+            Iterator<CachedResponse> eldest = responses.values().iterator();
+            while (responseBytes > maxResponseBytes && eldest.hasNext()) {
+                responseBytes -= eldest.next().bytes;
+                eldest.remove();
+            }
+        }
+        return first;
+    }
+
+    synchronized boolean isCompleted(String requestId) {
+        expire(System.currentTimeMillis());
+        return completedAt.containsKey(requestId);
+    }
+
+    /**
+     * Response this worker sent for a completed request, if it is still cached.
+     */
+    synchronized ResponseMessage getResponse(String requestId) {
+        expire(System.currentTimeMillis());
+        CachedResponse cached = responses.get(requestId);
+        return cached != null ? cached.response : null;
+    }
+
+    synchronized int size() {
+        return completedAt.size();
+    }
+
+    synchronized long getResponseBytes() {
+        return responseBytes;
+    }
+
+    private void removeResponse(String requestId) {
+        CachedResponse removed = responses.remove(requestId);
+        if (removed != null) {
+            responseBytes -= removed.bytes;
+        }
+    }
+
+    /**
+     * Approximate size of a response: its strings, one byte per character (the corpus is
+     * mostly ASCII), plus a fixed overhead.
+     */
+    static long estimateBytes(ResponseMessage response) {
+        long bytes = 64;
+        Object payload = response.getPayload();
+        if (payload instanceof SearchResultPayload) {
+            Map<String, String> results = ((SearchResultPayload) payload).getResults();
+            if (results != null) {
+                for (Map.Entry<String, String> entry : results.entrySet()) {
+                    bytes += length(entry.getKey()) + length(entry.getValue()) + 32;
+                }
+            }
+        } else if (payload instanceof FileContentPayload) {
+            FileContentPayload file = (FileContentPayload) payload;
+            bytes += length(file.getFilename()) + length(file.getContent());
+        } else if (payload instanceof String) {
+            bytes += ((String) payload).length();
+        } else if (payload != null) {
+            bytes += 1024;  // statistics: counters and a few histograms
+        }
+        return bytes;
+    }
+
+    private static long length(String value) {
+        return value != null ? value.length() : 0;
+    }
+
+    private void expire(long now) {
+        Iterator<Map.Entry<String, Long>> it = completedAt.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            if (now - eldest.getValue() <= ttlMillis) {
+                break;
+            }
+            removeResponse(eldest.getKey());
+            it.remove();
+        }
+    }
+
+    private static final class CachedResponse {
+        final ResponseMessage response;
+        final long bytes;
+
+        CachedResponse(ResponseMessage response, long bytes) {
+            this.response = response;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package pt.isel.cd.worker;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Worker-local cache of the shared email corpus.
+ *
+ * File contents and search results share one LRU bounded by size (--cache-mb). File
+ * contents are revalidated against the file's size and modification time, so edits on
+ * GlusterFS are picked up. Search results are cached per normalized query together with
+ * a fingerprint of the corpus (names, sizes and modification times), so any change to the
+ * files invalidates them; they are charged for their file names and contents, although
+ * the contents are shared with the cached files.
+ * With sharded routing the same queries and files keep landing on the same workers,
+ * which is what makes these caches effective.
+ */
+class CorpusCache {
+    private static final int ENTRY_OVERHEAD_BYTES = 64;
+
+    private final long maxContentBytes;
+    private final int maxSearchResults;
+    private long contentBytes = 0;
+    private int searchCount = 0;
+    // Keyed by Path (file contents) or by query String (search results), least recently used first
+    private final LinkedHashMap<Object, CachedEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+
+    CorpusCache(long maxContentBytes, int maxSearchResults) {
+        this.maxContentBytes = maxContentBytes;
+        this.maxSearchResults = maxSearchResults;
+    }
+
+    /**
+     * Content of a file, from cache when it has not changed since it was read.
+     */
+    String read(Path path) throws IOException {
+        return read(path, Files.readAttributes(path, BasicFileAttributes.class));
+    }
+
+    String read(Path path, BasicFileAttributes attributes) throws IOException {
+        long modified = attributes.lastModifiedTime().toMillis();
+        long size = attributes.size();
+        synchronized (this) {
+            CachedEntry entry = entries.get(path);
+            CachedFile cached = entry instanceof CachedFile ? (CachedFile) entry : null;
+            if (cached != null && cached.modified == modified && cached.size == size) {
+                hits.incrementAndGet();
+                return cached.content;
+            }
+        }
+        misses.incrementAndGet();
+        String content = Files.readString(path);
+        put(path, new CachedFile(content, modified, size));
+        return content;
+    }
+
+    /**
+     * Cached results of a search, or null if unknown or computed on a different corpus.
+     */
+    synchronized Map<String, String> getSearchResults(String query, long corpusFingerprint) {
+        CachedEntry entry = entries.get(query);
+        CachedSearch cached = entry instanceof CachedSearch ? (CachedSearch) entry : null;
+        if (cached != null && cached.corpusFingerprint == corpusFingerprint) {
+            hits.incrementAndGet();
+            return cached.results;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    synchronized void putSearchResults(String query, long corpusFingerprint, Map<String, String> results) {
+        long bytes = ENTRY_OVERHEAD_BYTES + query.length();
+        for (Map.Entry<String, String> result : results.entrySet()) {
+            bytes += ENTRY_OVERHEAD_BYTES + result.getKey().length() + result.getValue().length();
+        }
+        put(query, new CachedSearch(Collections.unmodifiableMap(new HashMap<>(results)), corpusFingerprint, bytes));
+        if (searchCount > maxSearchResults) {
+            Iterator<CachedEntry> eldest = entries.values().iterator();
+            while (searchCount > maxSearchResults && eldest.hasNext()) {
+                CachedEntry entry = eldest.next();
+                if (entry instanceof CachedSearch) {
+                    remove(eldest, entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Add an entry, then evict the least recently used ones until the cache fits its budget.
+     * An entry larger than the whole budget is not cached.
+     */
+    private synchronized void put(Object key, CachedEntry entry) {
+        if (entry.bytes > maxContentBytes) {
+            return;
+        }
+        CachedEntry previous = entries.put(key, entry);
+        if (previous != null) {
+            account(previous, -1);
+        }
+        account(entry, 1);
+        Iterator<CachedEntry> eldest = entries.values().iterator();
+        while (contentBytes > maxContentBytes && eldest.hasNext()) {
+            remove(eldest, eldest.next());
+        }
+    }
+
+    private void remove(Iterator<CachedEntry> position, CachedEntry entry) {
+        position.remove();
+        account(entry, -1);
+    }
+
+    private void account(CachedEntry entry, int sign) {
+        contentBytes += sign * entry.bytes;
+        if (entry instanceof CachedSearch) {
+            searchCount += sign;
+        }
+    }
+
+    /**
+     * Fold one file into a corpus fingerprint (start from 17).
+     */
+    static long fingerprint(long fingerprint, Path path, BasicFileAttributes attributes) {
+        long h = fingerprint * 31 + path.hashCode();
+        h = h * 31 + attributes.size();
+        return h * 31 + attributes.lastModifiedTime().toMillis();
+    }
+
+    synchronized long getContentBytes() {
+        return contentBytes;
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    private abstract static class CachedEntry {
+        final long bytes;  // charged against the cache size
+
+        CachedEntry(long bytes) {
+            this.bytes = bytes;
+        }
+    }
+
+    private static final class CachedFile extends CachedEntry {
+        final String content;
+        final long modified;
+        final long size;
+
+        CachedFile(String content, long modified, long size) {
+            super(size);
+            this.content = content;
+            this.modified = modified;
+            this.size = size;
+        }
+    }
+
+    private static final class CachedSearch extends CachedEntry {
+        final Map<String, String> results;
+        final long corpusFingerprint;
+
+        CachedSearch(Map<String, String> results, long corpusFingerprint, long bytes) {
+            super(bytes);
+            this.results = results;
+            this.corpusFingerprint = corpusFingerprint;
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package pt.isel.cd.worker;
+
+import com.rabbitmq.client.*;
+import pt.isel.cd.common.config.RequestLane;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Consumes one request lane on its own channel.
+ * Each lane has its own prefetch and concurrency limit, so a burst of slow
+ * searches cannot take the capacity reserved for interactive requests.
+ * With sharding enabled the lane is fed by the plain lane queue (hedges, deprioritized
+ * and unsharded clients) and by this worker's shard queues, all on the same channel.
+ * The shards can be reassigned while consuming (see {@link #assignShards}).
+ * 
+ * Acks are asynchronous and coalesced: completed deliveries are queued and a single
+ * flusher acks them, using one multiple=true ack for every run of consecutive
+ * delivery tags. Tags completed out of order are acked individually so a slow
+ * request never holds back the acks (and prefetch credit) of faster ones.
+ */
+class LaneConsumer {
+    private static final Logger logger = LoggerFactory.getLogger(LaneConsumer.class);
+
+    private final String workerId;
+    private final RequestLane lane;
+    private final Channel channel;
+    private final int concurrency;
+    private final Semaphore concurrencyLimit;
+    private final int initialPrefetch;
+    private final PrefetchController prefetchController;  // null = fixed prefetch
+    private final ExecutorService executor;
+    private final DeliveryHandler handler;
+    private final DeliverCallback deliverCallback = this::receive;
+    private final List<Integer> shards = new ArrayList<>();
+    // Consumer tag per consumed queue, while started. Guarded by its own lock, not by the
+    // channel's monitor: consume and cancel are RPCs, and acks must not wait behind them
+    private final Object consumersLock = new Object();
+    private final Map<String, String> consumerTags = new LinkedHashMap<>();
+    private boolean started = false;
+    
+    // Delivered but not yet acked/nacked, and completed tags waiting for the flusher
+    private final NavigableSet<Long> unsettled = new ConcurrentSkipListSet<>();
+    private final ConcurrentLinkedQueue<Long> readyAcks = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final AtomicLong ackFrames = new AtomicLong(0);
+    private final AtomicLong ackedDeliveries = new AtomicLong(0);
+
+    /**
+     * @param shards           shard queues of the lane to consume besides the lane queue
+     * @param concurrencyLimit permits for requests of the lane, shared by colocated workers
+     */
+    LaneConsumer(String workerId, RequestLane lane, Connection connection, WorkerOptions options,
+                 List<Integer> shards, Semaphore concurrencyLimit, ExecutorService executor,
+                 DeliveryHandler handler) throws IOException {
+        this.workerId = workerId;
+        this.lane = lane;
+        this.concurrency = options.getConcurrency(lane);
+        this.concurrencyLimit = concurrencyLimit;
+        this.executor = executor;
+        this.handler = handler;
+        
+        int prefetch = options.getPrefetch(lane);
+        if (options.isAdaptivePrefetch()) {
+            int maxPrefetch = Math.max(options.getMaxPrefetch(lane), prefetch);
+            prefetchController = new PrefetchController(workerId + "/" + lane, prefetch,
+                options.getMinPrefetch(), maxPrefetch, unsettled::size);
+            prefetch = prefetchController.getPrefetch();
+        } else {
+            prefetchController = null;
+        }
+        this.initialPrefetch = prefetch;
+
+        channel = connection.createChannel();
+        channel.queueDeclare(lane.getQueueName(), true, false, false, null);
+        // Shard queues are declared and bound by the worker before the lanes start
+        this.shards.addAll(shards);
+        // The window is set channel-wide: it then bounds the lane as a whole, however many
+        // queues feed it, and adaptive updates take effect on the running consumers (a
+        // per-consumer limit only applies to consumers started after basic.qos).
+        channel.basicQos(prefetch, true);
+    }
+
+    void start() throws IOException {
+        // Start consuming with manual acknowledgment
+        synchronized (consumersLock) {
+            started = true;
+            consume(lane.getQueueName());
+            for (int shard : shards) {
+                consume(lane.getShardQueueName(shard));
+            }
+            logger.info("Worker [{}] consuming lane {} from {} (concurrency={}, prefetch={}{})",
+                        workerId, lane, consumerTags.keySet(), concurrency, getPrefetch(),
+                        prefetchController != null ? ", adaptive" : "");
+        }
+    }
+
+    /**
+     * Consume these shard queues from now on instead of the current ones. Deliveries
+     * already received from a shard given up are still processed and acked.
+     */
+    void assignShards(List<Integer> assigned) throws IOException {
+        synchronized (consumersLock) {
+            if (started) {
+                for (int shard : shards) {
+                    if (!assigned.contains(shard)) {
+                        String consumerTag = consumerTags.remove(lane.getShardQueueName(shard));
+                        if (consumerTag != null && channel.isOpen()) {
+                            channel.basicCancel(consumerTag);
+                        }
+                    }
+                }
+                for (int shard : assigned) {
+                    if (!shards.contains(shard)) {
+                        consume(lane.getShardQueueName(shard));
+                    }
+                }
+            }
+            shards.clear();
+            shards.addAll(assigned);
+        }
+    }
+
+    private void consume(String queueName) throws IOException {
+        consumerTags.put(queueName, channel.basicConsume(queueName, false, deliverCallback, tag -> {}));
+    }
+
+    /**
+     * The consumer thread only hands deliveries off; processing happens on the executor.
+     */
+    private void receive(String consumerTag, Delivery delivery) {
+        unsettled.add(delivery.getEnvelope().getDeliveryTag());
+        long receivedNanos = System.nanoTime();
+        try {
+            executor.execute(() -> process(delivery, receivedNanos));
+        } catch (RejectedExecutionException e) {
+            logger.warn("Worker [{}] shutting down, requeueing {} delivery {}",
+                        workerId, lane, delivery.getEnvelope().getDeliveryTag());
+            nack(delivery.getEnvelope().getDeliveryTag(), true);
+        }
+    }
+
+    private void process(Delivery delivery, long receivedNanos) {
+        try {
+            concurrencyLimit.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            nack(delivery.getEnvelope().getDeliveryTag(), true);
+            return;
+        }
+        long startedNanos = System.nanoTime();
+        try {
+            handler.handle(this, delivery);
+        } finally {
+            concurrencyLimit.release();
+            if (prefetchController != null) {
+                long finishedNanos = System.nanoTime();
+                int updated = prefetchController.onCompleted(startedNanos - receivedNanos, finishedNanos - startedNanos);
+                if (updated > 0) {
+                    applyPrefetch(updated);
+                }
+            }
+        }
+    }
+
+    private void applyPrefetch(int prefetch) {
+        try {
+            // Not under the ack monitor: basic.qos waits for the broker's reply, and the client
+            // already serializes channel RPCs
+            channel.basicQos(prefetch, true);
+            logger.info("Worker [{}] lane {} prefetch adjusted to {}", workerId, lane, prefetch);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Worker [{}] failed to adjust {} prefetch", workerId, lane, e);
+        }
+    }
+
+    /**
+     * Mark a delivery as done. The ack is sent asynchronously, possibly coalesced with others.
+     */
+    void ack(long deliveryTag) {
+        readyAcks.add(deliveryTag);
+        flushAcks();
+    }
+
+    void nack(long deliveryTag, boolean requeue) {
+        try {
+            synchronized (channel) {
+                unsettled.remove(deliveryTag);
+                channel.basicNack(deliveryTag, false, requeue);
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("Worker [{}] failed to nack {} delivery {}", workerId, lane, deliveryTag, e);
+        }
+        // A nack may unblock a run of completed tags above it
+        flushAcks();
+    }
+
+    /**
+     * Only one thread flushes at a time; tags added meanwhile are picked up by the next pass.
+     */
+    private void flushAcks() {
+        while (!readyAcks.isEmpty() && flushLock.tryLock()) {
+            try {
+                List<Long> ready = new ArrayList<>();
+                Long tag;
+                while ((tag = readyAcks.poll()) != null) {
+                    ready.add(tag);
+                }
+                ready.sort(null);
+                synchronized (channel) {
+                    sendAcks(ready);
+                }
+            } catch (IOException | RuntimeException e) {
+                // Unacked deliveries are redelivered by the broker if the channel is gone
+                logger.error("Worker [{}] failed to ack {} deliveries", workerId, lane, e);
+            } finally {
+                flushLock.unlock();
+            }
+        }
+    }
+
+    private void sendAcks(List<Long> ready) throws IOException {
+        // Leading run: every unsettled tag up to here is ready, so a single multiple=true ack covers it
+        int run = 0;
+        while (run < ready.size() && !unsettled.isEmpty() && unsettled.first().equals(ready.get(run))) {
+            unsettled.pollFirst();
+            run++;
+        }
+        if (run > 0) {
+            channel.basicAck(ready.get(run - 1), run > 1);
+            ackFrames.incrementAndGet();
+        }
+        // The rest completed ahead of an in-flight delivery and must be acked one by one
+        for (int i = run; i < ready.size(); i++) {
+            long tag = ready.get(i);
+            unsettled.remove(tag);
+            channel.basicAck(tag, false);
+            ackFrames.incrementAndGet();
+        }
+        ackedDeliveries.addAndGet(ready.size());
+    }
+
+    /**
+     * Stop receiving new deliveries. In-flight ones can still be acked.
+     */
+    void cancel() {
+        synchronized (consumersLock) {
+            started = false;
+            for (String consumerTag : consumerTags.values()) {
+                try {
+                    if (channel.isOpen()) {
+                        channel.basicCancel(consumerTag);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    logger.warn("Worker [{}] failed to cancel {} consumer", workerId, lane, e);
+                }
+            }
+            consumerTags.clear();
+        }
+    }
+
+    void close() throws IOException, java.util.concurrent.TimeoutException {
+        if (channel.isOpen()) {
+            channel.close();
+        }
+    }
+
+    RequestLane getLane() {
+        return lane;
+    }
+
+    int getPrefetch() {
+        return prefetchController != null ? prefetchController.getPrefetch() : initialPrefetch;
+    }
+
+    /**
+     * Deliveries received and not yet acked or nacked.
+     */
+    int getInFlightCount() {
+        return unsettled.size();
+    }
+
+    /**
+     * Number of basic.ack frames sent (lower than acked deliveries when coalescing kicks in).
+     */
+    long getAckFrames() {
+        return ackFrames.get();
+    }
+
+    long getAckedDeliveries() {
+        return ackedDeliveries.get();
+    }
+
+    /**
+     * Callback invoked on an executor thread for each delivery of the lane.
+     */
+    @FunctionalInterface
+    interface DeliveryHandler {
+        void handle(LaneConsumer lane, Delivery delivery);
+    }
+}
@@ -0,0 +1,113 @@
+package pt.isel.cd.worker;
+
+import pt.isel.cd.common.model.LatencyHistogram;
+import pt.isel.cd.common.util.LatencyRecorder;
+
+import java.math.BigDecimal;
+
+/**
+ * Builds a scrape in the Prometheus text exposition format (version 0.0.4).
+ * Each metric family is declared once with {@link #family}, followed by its samples.
+ */
+class MetricsText {
+    // Exposed histogram buckets, in seconds
+    private static final double[] BUCKETS = {
+        0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30
+    };
+
+    private final StringBuilder text = new StringBuilder();
+    private final String constantLabels;
+
+    /**
+     * @param constantLabels label pairs added to every sample (e.g. "worker", id)
+     */
+    MetricsText(String... constantLabels) {
+        this.constantLabels = labels(constantLabels);
+    }
+
+    MetricsText family(String name, String type, String help) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        return this;
+    }
+
+    MetricsText sample(String name, double value, String... labels) {
+        text.append(name);
+        appendLabels(labels(labels), null);
+        text.append(' ').append(format(value)).append('\n');
+        return this;
+    }
+
+    /**
+     * Histogram samples from a microsecond recorder, exposed in seconds. A bucket counts the
+     * recorded buckets lying entirely below its bound, so values are never overstated.
+     */
+    MetricsText histogram(String name, LatencyRecorder recorder, String... labels) {
+        LatencyHistogram histogram = recorder.snapshot();
+        long[] counts = histogram.getCounts();
+        String own = labels(labels);
+        long cumulative = 0;
+        int index = 0;
+        for (double bound : BUCKETS) {
+            long boundMicros = (long) (bound * 1_000_000);
+            while (index < counts.length && LatencyHistogram.bucketUpperBound(index) <= boundMicros) {
+                cumulative += counts[index++];
+            }
+            text.append(name).append("_bucket");
+            appendLabels(own, "le=\"" + format(bound) + "\"");
+            text.append(' ').append(cumulative).append('\n');
+        }
+        long total = histogram.getTotalCount();
+        text.append(name).append("_bucket");
+        appendLabels(own, "le=\"+Inf\"");
+        text.append(' ').append(total).append('\n');
+        text.append(name).append("_sum");
+        appendLabels(own, null);
+        text.append(' ').append(format(recorder.getSum() / 1_000_000.0)).append('\n');
+        text.append(name).append("_count");
+        appendLabels(own, null);
+        text.append(' ').append(total).append('\n');
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return text.toString();
+    }
+
+    private void appendLabels(String own, String extra) {
+        StringBuilder all = new StringBuilder(constantLabels);
+        for (String part : new String[] {own, extra}) {
+            if (part != null && !part.isEmpty()) {
+                if (all.length() > 0) all.append(',');
+                all.append(part);
+            }
+        }
+        if (all.length() > 0) {
+            text.append('{').append(all).append('}');
+        }
+    }
+
+    private static String labels(String[] pairs) {
+        StringBuilder labels = new StringBuilder();
+        for (int i = 0; i + 1 < pairs.length; i += 2) {
+            if (labels.length() > 0) labels.append(',');
+            labels.append(pairs[i]).append("=\"").append(escape(pairs[i + 1])).append('"');
+        }
+        return labels.toString();
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String format(double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15) {
+            return String.valueOf((long) value);
+        }
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return Double.isNaN(value) ? "NaN" : value > 0 ? "+Inf" : "-Inf";
+        }
+        return BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+    }
+}
@@ -0,0 +1,98 @@
+package pt.isel.cd.worker;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/**
+ * AIMD controller for a lane's prefetch window.
+ *
+ * Deliveries that wait locally for a free processing slot are being hoarded: an idle
+ * peer could have served them. When the average local wait grows past a small fraction
+ * of the service time the window is halved (multiplicative decrease). When the window
+ * is full and nothing waits locally the worker can take more, so it grows by one
+ * (additive increase). Slow workers settle on a small window and fast ones on a larger
+ * one, which evens out queue wait across heterogeneous VMs.
+ */
+class PrefetchController {
+    private static final Logger logger = LoggerFactory.getLogger(PrefetchController.class);
+
+    private static final long ADJUST_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final long MIN_TARGET_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+    private static final double TARGET_WAIT_FRACTION = 0.1;  // of the average service time
+    private static final double EWMA_WEIGHT = 0.2;
+
+    private final String name;
+    private final int minPrefetch;
+    private final int maxPrefetch;
+    private final IntSupplier inFlight;
+
+    private int prefetch;
+    private double avgServiceNanos;
+    private double avgWaitNanos;
+    private long lastAdjustNanos = System.nanoTime();
+
+    PrefetchController(String name, int initialPrefetch, int minPrefetch, int maxPrefetch, IntSupplier inFlight) {
+        if (minPrefetch < 1 || maxPrefetch < minPrefetch) {
+            throw new IllegalArgumentException("invalid prefetch bounds [" + minPrefetch + ", " + maxPrefetch + "]");
+        }
+        this.name = name;
+        this.minPrefetch = minPrefetch;
+        this.maxPrefetch = maxPrefetch;
+        this.inFlight = inFlight;
+        this.prefetch = Math.max(minPrefetch, Math.min(maxPrefetch, initialPrefetch));
+    }
+
+    /**
+     * Record a processed delivery.
+     *
+     * @param waitNanos    time the delivery waited locally for a processing slot
+     * @param serviceNanos time spent processing it
+     * @return the new prefetch if it changed, or -1
+     */
+    synchronized int onCompleted(long waitNanos, long serviceNanos) {
+        avgWaitNanos = ewma(avgWaitNanos, waitNanos);
+        avgServiceNanos = ewma(avgServiceNanos, serviceNanos);
+
+        long now = System.nanoTime();
+        if (now - lastAdjustNanos < ADJUST_INTERVAL_NANOS) {
+            return -1;
+        }
+        lastAdjustNanos = now;
+
+        double targetWait = Math.max(MIN_TARGET_WAIT_NANOS, avgServiceNanos * TARGET_WAIT_FRACTION);
+        int updated = prefetch;
+        if (avgWaitNanos > targetWait) {
+            updated = Math.max(minPrefetch, prefetch / 2);
+        } else if (inFlight.getAsInt() >= prefetch) {
+            updated = Math.min(maxPrefetch, prefetch + 1);
+        }
+        if (updated == prefetch) {
+            return -1;
+        }
+
+        logger.debug("Lane {} prefetch {} -> {} (avg wait {} ms, avg service {} ms)", name, prefetch, updated,
+                     TimeUnit.NANOSECONDS.toMillis((long) avgWaitNanos),
+                     TimeUnit.NANOSECONDS.toMillis((long) avgServiceNanos));
+        prefetch = updated;
+        return updated;
+    }
+
+    synchronized int getPrefetch() {
+        return prefetch;
+    }
+
+    synchronized long getAverageServiceMillis() {
+        return TimeUnit.NANOSECONDS.toMillis((long) avgServiceNanos);
+    }
+
+    synchronized long getAverageWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis((long) avgWaitNanos);
+    }
+
+    private static double ewma(double average, long sample) {
+        return average == 0 ? sample : average + EWMA_WEIGHT * (sample - average);
+    }
+}
@@ -0,0 +1,96 @@
+package pt.isel.cd.worker;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Small pool of confirm-mode publisher channels.
+ * AMQP channels must not be used by several threads at once, so every publisher
+ * serializes on its own channel; spreading publishes over a few channels keeps that
+ * lock uncontended as request concurrency grows. All responses (request threads and
+ * the statistics coordinator) go through this pool; no other code publishes on these channels.
+ */
+public class PublisherPool implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(PublisherPool.class);
+
+    private final List<ResponsePublisher> publishers = new ArrayList<>();
+    // Runs the continuations of publish futures, off the connection's I/O thread
+    private final ExecutorService completions;
+    private final AtomicInteger next = new AtomicInteger(0);
+
+    public PublisherPool(String workerId, Connection connection, int size) throws IOException {
+        if (size < 1) {
+            throw new IllegalArgumentException("publisher pool size must be >= 1");
+        }
+        completions = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name(workerId + "-confirm-", 1).factory());
+        for (int i = 0; i < size; i++) {
+            publishers.add(new ResponsePublisher(workerId, connection.createChannel(), completions));
+        }
+        logger.info("Worker [{}] created {} publisher channel(s)", workerId, size);
+    }
+
+    /**
+     * Publish on the next channel in round-robin order.
+     * The future completes when the broker confirms the message, on a pool thread.
+     */
+    public CompletableFuture<Void> publish(String exchange, String routingKey, AMQP.BasicProperties props, byte[] body) {
+        int index = Math.floorMod(next.getAndIncrement(), publishers.size());
+        return publishers.get(index).publish(exchange, routingKey, props, body);
+    }
+
+    public int getUnconfirmedCount() {
+        int total = 0;
+        for (ResponsePublisher publisher : publishers) {
+            total += publisher.getUnconfirmedCount();
+        }
+        return total;
+    }
+
+    /**
+     * Wait (up to the timeout) for outstanding confirms, close the channels, then let the
+     * continuations of the settled publishes (acks) finish.
+     */
+    public void close(long timeoutMillis) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        for (ResponsePublisher publisher : publishers) {
+            Channel channel = publisher.getChannel();
+            if (!channel.isOpen()) continue;
+            try {
+                if (publisher.getUnconfirmedCount() > 0) {
+                    channel.waitForConfirms(Math.max(1, deadline - System.currentTimeMillis()));
+                }
+            } catch (TimeoutException e) {
+                logger.warn("Closing publisher channel with {} unconfirmed response(s)",
+                            publisher.getUnconfirmedCount());
+            }
+            try {
+                channel.close();
+            } catch (TimeoutException e) {
+                logger.warn("Timeout closing publisher channel", e);
+            }
+        }
+        completions.shutdown();
+        if (!completions.awaitTermination(Math.max(1, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+            logger.warn("Publish continuations did not finish in time");
+        }
+    }
+
+    @Override
+    public void close() throws IOException, InterruptedException {
+        close(0);
+    }
+}
@@ -0,0 +1,118 @@
+package pt.isel.cd.worker;
+
+import com.rabbitmq.client.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Publishes responses on a channel in publisher-confirm mode.
+ * Each publish returns a future that completes when the broker confirms the message,
+ * so callers can ack the originating request only once its response is safe.
+ * Confirms are tracked asynchronously; publishing never waits for the broker.
+ * The futures are completed on an executor, never on the connection thread that reads
+ * the confirms: their continuations ack, publish and send Spread messages, and a
+ * continuation blocked there would stall every channel of the connection.
+ */
+class ResponsePublisher {
+    private static final Logger logger = LoggerFactory.getLogger(ResponsePublisher.class);
+
+    private final String workerId;
+    private final Channel channel;
+    private final Executor completions;
+    private final ConcurrentNavigableMap<Long, CompletableFuture<Void>> unconfirmed = new ConcurrentSkipListMap<>();
+
+    ResponsePublisher(String workerId, Channel channel, Executor completions) throws IOException {
+        this.workerId = workerId;
+        this.channel = channel;
+        this.completions = completions;
+
+        channel.confirmSelect();
+        channel.addConfirmListener(
+            (sequenceNumber, multiple) -> settle(sequenceNumber, multiple, null),
+            (sequenceNumber, multiple) -> settle(sequenceNumber, multiple,
+                new IOException("Broker rejected response (seq=" + sequenceNumber + ")")));
+        channel.addShutdownListener(cause -> failAll(cause));
+    }
+
+    /**
+     * Publish a message and return a future completed on broker confirm.
+     */
+    CompletableFuture<Void> publish(String exchange, String routingKey, AMQP.BasicProperties props, byte[] body) {
+        CompletableFuture<Void> confirmed = new CompletableFuture<>();
+        // Sequence number and publish must be atomic; several request threads publish here
+        synchronized (channel) {
+            long sequenceNumber = channel.getNextPublishSeqNo();
+            unconfirmed.put(sequenceNumber, confirmed);
+            try {
+                channel.basicPublish(exchange, routingKey, props, body);
+            } catch (IOException | RuntimeException e) {
+                unconfirmed.remove(sequenceNumber);
+                confirmed.completeExceptionally(e);
+            }
+        }
+        return confirmed;
+    }
+
+    int getUnconfirmedCount() {
+        return unconfirmed.size();
+    }
+
+    Channel getChannel() {
+        return channel;
+    }
+
+    private void settle(long sequenceNumber, boolean multiple, Exception error) {
+        if (multiple) {
+            Map<Long, CompletableFuture<Void>> settled = unconfirmed.headMap(sequenceNumber, true);
+            for (CompletableFuture<Void> future : settled.values()) {
+                complete(future, error);
+            }
+            settled.clear();
+        } else {
+            CompletableFuture<Void> future = unconfirmed.remove(sequenceNumber);
+            if (future != null) {
+                complete(future, error);
+            }
+        }
+        if (error != null) {
+            logger.warn("Worker [{}] broker nacked response(s) up to seq={} (multiple={})",
+                        workerId, sequenceNumber, multiple);
+        }
+    }
+
+    private void failAll(ShutdownSignalException cause) {
+        if (unconfirmed.isEmpty()) return;
+        logger.warn("Worker [{}] publisher channel closed with {} unconfirmed response(s)",
+                    workerId, unconfirmed.size());
+        IOException error = new IOException("Publisher channel closed before confirm", cause);
+        for (Long sequenceNumber : unconfirmed.keySet()) {
+            CompletableFuture<Void> future = unconfirmed.remove(sequenceNumber);
+            if (future != null) {
+                complete(future, error);
+            }
+        }
+    }
+
+    private void complete(CompletableFuture<Void> future, Exception error) {
+        Runnable completion = () -> {
+            if (error == null) {
+                future.complete(null);
+            } else {
+                future.completeExceptionally(error);
+            }
+        };
+        try {
+            completions.execute(completion);
+        } catch (RejectedExecutionException e) {
+            completion.run();  // pool closed: nobody is left to block
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package pt.isel.cd.worker;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import pt.isel.cd.common.config.QueueConfig;
+import pt.isel.cd.common.config.RequestLane;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Bounded retry with exponential backoff for failed requests.
+ *
+ * A failed request is republished to a per-lane delay queue whose messages expire after
+ * the backoff delay and are dead-lettered back to the lane queue. The attempt count travels
+ * in the {@link QueueConfig#RETRY_COUNT_HEADER} header. After the last attempt the request
+ * goes to the lane's dead-letter queue instead, so a poison message is never redelivered forever.
+ */
+class RetryPolicy {
+    private static final Logger logger = LoggerFactory.getLogger(RetryPolicy.class);
+    private static final long MAX_DELAY_MILLIS = 3_600_000;
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+
+    RetryPolicy(int maxAttempts, long baseDelayMillis) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("max attempts must be >= 1");
+        }
+        if (baseDelayMillis < 1) {
+            throw new IllegalArgumentException("retry delay must be >= 1 ms");
+        }
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+    }
+
+    /**
+     * Declare the delay queues and the dead-letter queue of every lane.
+     */
+    void declareQueues(Connection connection) throws IOException {
+        Channel channel = connection.createChannel();
+        try {
+            for (RequestLane lane : RequestLane.values()) {
+                for (int retry = 1; retry < maxAttempts; retry++) {
+                    Map<String, Object> args = new HashMap<>();
+                    args.put("x-message-ttl", delayMillis(retry));
+                    args.put("x-dead-letter-exchange", "");
+                    args.put("x-dead-letter-routing-key", lane.getQueueName());
+                    channel.queueDeclare(lane.getRetryQueueName(delayMillis(retry)), true, false, false, args);
+                }
+                channel.queueDeclare(lane.getDeadLetterQueueName(), true, false, false, null);
+            }
+        } finally {
+            try {
+                channel.close();
+            } catch (TimeoutException e) {
+                logger.warn("Timeout closing retry topology channel", e);
+            }
+        }
+    }
+
+    int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Backoff before the given retry (1 = first retry): base, 2 x base, 4 x base, ...
+     */
+    long delayMillis(int retry) {
+        int shift = Math.min(retry - 1, 30);
+        return Math.min(MAX_DELAY_MILLIS, baseDelayMillis << shift);
+    }
+
+    /**
+     * Whether a request that just failed its n-th attempt may be tried again.
+     */
+    boolean canRetry(int attempt) {
+        return attempt < maxAttempts;
+    }
+
+    /**
+     * Number of attempts that already failed for a delivery (0 on first delivery).
+     */
+    static int previousAttempts(AMQP.BasicProperties props) {
+        Map<String, Object> headers = props != null ? props.getHeaders() : null;
+        Object value = headers != null ? headers.get(QueueConfig.RETRY_COUNT_HEADER) : null;
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        }
+        return 0;
+    }
+
+    /**
+     * Copy of the delivery properties recording the failed attempts and the failure.
+     */
+    static AMQP.BasicProperties withFailure(AMQP.BasicProperties props, int attempts, String reason) {
+        Map<String, Object> headers = new HashMap<>();
+        if (props.getHeaders() != null) {
+            headers.putAll(props.getHeaders());
+        }
+        headers.put(QueueConfig.RETRY_COUNT_HEADER, attempts);
+        if (reason != null) {
+            headers.put(QueueConfig.FAILURE_REASON_HEADER, reason);
+        }
+        return new AMQP.BasicProperties.Builder()
+            .contentType(props.getContentType())
+            .correlationId(props.getCorrelationId())
+            .replyTo(props.getReplyTo())
+            .headers(headers)
+            .build();
+    }
+}
@@ -0,0 +1,138 @@
+package pt.isel.cd.worker;
+
+import pt.isel.cd.common.model.LatencyHistogram;
+import pt.isel.cd.common.model.RequestType;
+import pt.isel.cd.common.model.WindowStats;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Request counts, error counts and latency histograms per request type over the last
+ * 1, 5 and 15 minutes.
+ *
+ * A ring of 10-second slots covers the longest window. Each slot is stamped with the
+ * interval it holds; the first request of a new interval claims the slot with a CAS on the
+ * stamp and clears it, so recording never takes a lock. A request recorded by another thread
+ * between that CAS and the clearing can be lost, which is negligible for rates. A window is
+ * the sum of the slots it spans: the current, partly filled, slot plus the full ones before
+ * it, so rates are computed over the time actually covered.
+ */
+class RollingWindows {
+    static final int[] WINDOW_SECONDS = {60, 300, 900};
+
+    private static final int SLOT_SECONDS = 10;
+    private static final long SLOT_NANOS = TimeUnit.SECONDS.toNanos(SLOT_SECONDS);
+    private static final int SLOTS = 900 / SLOT_SECONDS;
+    private static final int BUCKETS = LatencyHistogram.BUCKET_COUNT;
+
+    private final long originNanos = System.nanoTime();
+    private final AtomicLongArray stamps = new AtomicLongArray(SLOTS);
+    private final Map<RequestType, Slots> slotsByType = new EnumMap<>(RequestType.class);
+
+    RollingWindows() {
+        for (int i = 0; i < SLOTS; i++) {
+            stamps.set(i, -1);
+        }
+        for (RequestType type : RequestType.values()) {
+            slotsByType.put(type, new Slots());
+        }
+    }
+
+    /**
+     * Record a completed request.
+     *
+     * @param latencyMicros time to complete it, or -1 when it was not processed (shed or dead-lettered)
+     */
+    void record(RequestType type, boolean error, long latencyMicros) {
+        Slots slots = type != null ? slotsByType.get(type) : null;
+        if (slots == null) return;
+
+        int slot = claimCurrentSlot();
+        slots.requests.incrementAndGet(slot);
+        if (error) {
+            slots.errors.incrementAndGet(slot);
+        }
+        if (latencyMicros >= 0) {
+            slots.latencies.incrementAndGet(slot * BUCKETS + LatencyHistogram.bucketIndex(latencyMicros));
+        }
+    }
+
+    List<WindowStats> snapshot() {
+        long elapsedNanos = System.nanoTime() - originNanos;
+        long interval = elapsedNanos / SLOT_NANOS;
+        long intoSlotMillis = TimeUnit.NANOSECONDS.toMillis(elapsedNanos % SLOT_NANOS);
+
+        List<WindowStats> windows = new ArrayList<>(WINDOW_SECONDS.length);
+        for (int windowSeconds : WINDOW_SECONDS) {
+            int slotCount = windowSeconds / SLOT_SECONDS;
+            long span = Math.min(TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+                                 TimeUnit.SECONDS.toMillis((long) (slotCount - 1) * SLOT_SECONDS) + intoSlotMillis);
+            WindowStats window = new WindowStats(windowSeconds, span);
+            Map<String, Long> requests = new HashMap<>();
+            Map<String, Long> errors = new HashMap<>();
+            Map<String, LatencyHistogram> latencies = new HashMap<>();
+            for (Map.Entry<RequestType, Slots> entry : slotsByType.entrySet()) {
+                long requestCount = 0;
+                long errorCount = 0;
+                long[] counts = new long[BUCKETS];
+                for (int i = 0; i < SLOTS; i++) {
+                    long stamp = stamps.get(i);
+                    long slotRequests = entry.getValue().requests.get(i);
+                    if (slotRequests > 0 && stamp > interval - slotCount && stamp <= interval) {
+                        requestCount += slotRequests;
+                        errorCount += entry.getValue().errors.get(i);
+                        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                            counts[bucket] += entry.getValue().latencies.get(i * BUCKETS + bucket);
+                        }
+                    }
+                }
+                if (requestCount > 0) {
+                    String type = entry.getKey().name();
+                    requests.put(type, requestCount);
+                    errors.put(type, errorCount);
+                    LatencyHistogram histogram = new LatencyHistogram(counts);
+                    if (histogram.getTotalCount() > 0) {
+                        latencies.put(type, histogram);
+                    }
+                }
+            }
+            window.setRequests(requests);
+            window.setErrors(errors);
+            window.setLatencies(latencies);
+            windows.add(window);
+        }
+        return windows;
+    }
+
+    private int claimCurrentSlot() {
+        long interval = (System.nanoTime() - originNanos) / SLOT_NANOS;
+        int slot = (int) (interval % SLOTS);
+        long stamp = stamps.get(slot);
+        if (stamp < interval && stamps.compareAndSet(slot, stamp, interval)) {
+            for (Slots slots : slotsByType.values()) {
+                slots.clear(slot);
+            }
+        }
+        return slot;
+    }
+
+    private static class Slots {
+        final AtomicLongArray requests = new AtomicLongArray(SLOTS);
+        final AtomicLongArray errors = new AtomicLongArray(SLOTS);
+        final AtomicLongArray latencies = new AtomicLongArray(SLOTS * BUCKETS);
+
+        void clear(int slot) {
+            requests.set(slot, 0);
+            errors.set(slot, 0);
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                latencies.set(slot * BUCKETS + bucket, 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package pt.isel.cd.worker;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Splits the shard queues among the workers of the group when they are not configured
+ * with --shard-ids.
+ *
+ * Rendezvous (highest random weight) hashing: every worker scores each (worker, shard)
+ * pair the same way and a shard belongs to the member with the highest score. Workers that
+ * agree on the view agree on the owners, every shard has exactly one, and a worker joining
+ * or leaving only moves the shards it takes or gives up.
+ */
+final class ShardAssignment {
+
+    private ShardAssignment() {
+        // Utility class
+    }
+
+    /**
+     * Shards owned by a worker among the given members (which should include it).
+     */
+    static List<Integer> ownedShards(int shardCount, Collection<String> members, String workerId) {
+        List<Integer> owned = new ArrayList<>();
+        for (int shard = 0; shard < shardCount; shard++) {
+            if (workerId.equals(owner(shard, members))) {
+                owned.add(shard);
+            }
+        }
+        return owned;
+    }
+
+    static String owner(int shard, Collection<String> members) {
+        String owner = null;
+        long best = 0;
+        for (String member : members) {
+            long score = score(member, shard);
+            // Ties (practically impossible) go to the smallest id, so every worker picks the same
+            if (owner == null || score > best || (score == best && member.compareTo(owner) < 0)) {
+                owner = member;
+                best = score;
+            }
+        }
+        return owner;
+    }
+
+    private static long score(String member, int shard) {
+        // 64-bit finalizer of MurmurHash3: spreads similar ids (worker-1, worker-2) apart
+        long h = member.hashCode() * 0x9E3779B97F4A7C15L + shard;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
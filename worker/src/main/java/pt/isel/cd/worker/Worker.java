@@ -1,46 +1,86 @@
 package pt.isel.cd.worker;
 
 import com.rabbitmq.client.*;
+import pt.isel.cd.common.codec.Codecs;
+import pt.isel.cd.common.codec.MessageCodec;
 import pt.isel.cd.common.config.QueueConfig;
+import pt.isel.cd.common.config.RequestLane;
+import pt.isel.cd.common.config.ShardRouting;
 import pt.isel.cd.common.model.*;
 import pt.isel.cd.common.util.JsonUtil;
+import pt.isel.cd.common.util.RequestTrace;
+import pt.isel.cd.common.util.SpanExporter;
+import pt.isel.cd.common.util.Tracing;
+import pt.isel.cd.worker.spread.BatchingSpreadAdapter;
 import pt.isel.cd.worker.spread.ElectionManager;
+import pt.isel.cd.worker.spread.InstrumentedSpreadAdapter;
 import pt.isel.cd.worker.spread.SpreadSimulator;
+import pt.isel.cd.worker.spread.StatsReplica;
 import pt.isel.cd.worker.spread.SpreadAdapter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
  * Worker - Processes search requests from RabbitMQ and searches files in GlusterFS.
  * Includes Spread integration for leader election and distributed statistics aggregation.
  */
-public class Worker {
+public class Worker implements AutoCloseable {
     private static final Logger logger = LoggerFactory.getLogger(Worker.class);
+    private static final int COMPLETED_REQUESTS_CAPACITY = 10000;
+    private static final long CACHED_RESPONSES_MAX_BYTES = 16L * 1024 * 1024;
+    private static final long COMPLETED_REQUESTS_TTL_MS = 5 * 60 * 1000;
     
     private final String workerId;
+    private final WorkerResources resources;  // shared when colocated with other workers
     private final Connection connection;
-    private final Channel channel;
+    private final PublisherPool publisherPool;
+    private final RetryPolicy retryPolicy;
     private final Path sharedFilesPath;
+    private final CorpusCache corpusCache;
+    private final boolean reportsCache;  // a shared cache is reported by one worker only
     private final long startTime;
+    private final WorkerOptions options;
+    
+    // Request processing: each lane consumer hands deliveries off to this shared executor
+    // and bounds its own concurrency (virtual threads are unbounded by themselves).
+    private final ExecutorService requestExecutor;
+    private final List<LaneConsumer> laneConsumers = new ArrayList<>();
     
     // Spread integration for consensus and election (supports both simulation and real)
     private final SpreadAdapter spread;
+    private final InstrumentedSpreadAdapter spreadMetrics;
+    private final BatchingSpreadAdapter spreadBatching;
     private final ElectionManager electionManager;
+    private final StatsReplica statsReplica;  // null = stats collected by the coordinator on demand
     
     // Statistics counters
     private final AtomicLong totalRequests = new AtomicLong(0);
     private final AtomicLong successfulRequests = new AtomicLong(0);
     private final AtomicLong failedRequests = new AtomicLong(0);
+    private final AtomicLong shedRequests = new AtomicLong(0);  // also counted as failed
+    private final WorkerMetrics metrics = new WorkerMetrics();
+    private final MetricsServer metricsServer;  // null = no metrics endpoint
+    private final SpanExporter spanExporter;    // null = spans are not exported
+    
+    // Requests completed here or announced by other workers (idempotency keys; duplicates are skipped)
+    private final CompletedRequests completedRequests = new CompletedRequests(
+        COMPLETED_REQUESTS_CAPACITY, CACHED_RESPONSES_MAX_BYTES, COMPLETED_REQUESTS_TTL_MS);
 
     /**
      * Constructor for local development (Spread simulation mode)
@@ -59,55 +99,192 @@ public class Worker {
     public Worker(String workerId, String rabbitMqHost, int rabbitMqPort, String sharedFilesDir,
                   String spreadHost, String spreadGroup) 
             throws IOException, TimeoutException {
+        this(workerId, rabbitMqHost, rabbitMqPort, sharedFilesDir, spreadHost, spreadGroup, new WorkerOptions());
+    }
+    
+    /**
+     * Constructor with Spread parameters and processing options.
+     */
+    public Worker(String workerId, String rabbitMqHost, int rabbitMqPort, String sharedFilesDir,
+                  String spreadHost, String spreadGroup, WorkerOptions options) 
+            throws IOException, TimeoutException {
+        this(workerId, createTransport(workerId, rabbitMqHost, rabbitMqPort, spreadHost, spreadGroup, options),
+             new WorkerResources(workerId, rabbitMqHost, rabbitMqPort, sharedFilesDir, options, 1),
+             options, options.getMetricsPort());
+    }
+    
+    /**
+     * Worker on the given Spread transport and resources, which colocated workers share
+     * (see {@link ColocatedWorkers}).
+     */
+    Worker(String workerId, SpreadAdapter transport, WorkerResources resources, WorkerOptions options,
+           int metricsPort) throws IOException, TimeoutException {
         this.workerId = workerId;
-        this.sharedFilesPath = Paths.get(sharedFilesDir);
+        this.resources = resources;
+        this.sharedFilesPath = resources.sharedFilesPath;
+        this.corpusCache = resources.corpusCache;
+        this.reportsCache = resources.claimCacheReporting();
         this.startTime = System.currentTimeMillis();
+        this.options = options;
+        this.requestExecutor = resources.requestExecutor;
+        this.connection = resources.connection;
+        this.publisherPool = resources.publisherPool;
         
-        ConnectionFactory factory = new ConnectionFactory();
-        factory.setHost(rabbitMqHost);
-        factory.setPort(rabbitMqPort);
+        // Delay and dead-letter queues for failed requests
+        retryPolicy = new RetryPolicy(options.getMaxAttempts(), options.getRetryDelayMillis());
+        retryPolicy.declareQueues(connection);
         
-        connection = factory.newConnection();
-        channel = connection.createChannel();
+        // Optional sharded topology: consistent-hash exchange per lane over N shard queues
+        if (options.getShardCount() > 0) {
+            declareShards(connection, options.getShardCount());
+        }
         
-        // Declare requests queue (durable, for work distribution)
-        channel.queueDeclare(QueueConfig.REQUESTS_QUEUE, true, false, false, null);
+        // One consumer channel per lane (queues are declared there, durable, for work distribution).
+        // Prefetch bounds how many unacked requests each lane holds (fair dispatch across workers).
+        // Without --shard-ids the shards are split among the group, starting from its current view
+        List<Integer> shards = options.getShardIds().isEmpty()
+            ? ShardAssignment.ownedShards(options.getShardCount(), groupOf(transport.getGroupMembers()), workerId)
+            : options.getShardIds();
+        for (RequestLane lane : RequestLane.values()) {
+            laneConsumers.add(new LaneConsumer(workerId, lane, connection, options, shards,
+                resources.laneLimits.get(lane), requestExecutor, this::handleDelivery));
+        }
         
-        // Set QoS to process one message at a time (fair dispatch)
-        channel.basicQos(1);
+        // Unbatch what other workers coalesced (always), coalesce our own messages if asked to,
+        // and count the traffic for the metrics endpoint
+        spreadBatching = new BatchingSpreadAdapter(transport, options.getSpreadBatchMillis(),
+                                                   BatchingSpreadAdapter.DEFAULT_MAX_BATCH);
+        spreadMetrics = new InstrumentedSpreadAdapter(spreadBatching);
+        spread = spreadMetrics;
+        spanExporter = resources.spanExporter;
         
-        // Initialize Spread (real or simulation)
+        // Initialize election manager
+        electionManager = new ElectionManager(workerId, spread, 
+            (clientQueue, props, body) -> publisherPool.publish("", clientQueue, props, body));
+        electionManager.setStatsProvider(this::getPartialStats);
+        if (spanExporter != null) {
+            electionManager.setSpanSink(spanExporter::export);
+        }
+        if (options.getStatsGossipMillis() > 0) {
+            statsReplica = new StatsReplica(workerId, startTime, spread, this::getPartialStats);
+            statsReplica.start(options.getStatsGossipMillis());
+        } else {
+            statsReplica = null;
+        }
+        spread.addMessageListener(this::handleSpreadMessage);
+        if (options.getShardCount() > 0) {
+            spread.addMembershipListener(this::onViewChange);
+        }
+        
+        // Announce presence to the group
+        announcePresence();
+        
+        metricsServer = metricsPort > 0
+            ? new MetricsServer(workerId, metricsPort, this::writeMetrics)
+            : null;
+        
+        logger.info("Worker [{}] initialized. Files: {}, {}", workerId, sharedFilesPath, options);
+    }
+    
+    /**
+     * Real Spread when a daemon host is given, otherwise the RabbitMQ simulation.
+     */
+    private static SpreadAdapter createTransport(String workerId, String rabbitMqHost, int rabbitMqPort,
+                                                 String spreadHost, String spreadGroup, WorkerOptions options)
+            throws IOException, TimeoutException {
         String groupName = spreadGroup != null ? spreadGroup : "email_workers";
         if (spreadHost != null) {
             // GCP mode: Use real Spread Toolkit
             try {
                 logger.info("Worker [{}] using REAL Spread Toolkit, host [{}], group [{}]", 
                            workerId, spreadHost, groupName);
-                spread = new pt.isel.cd.worker.spread.RealSpreadConnection(workerId, groupName, spreadHost);
+                pt.isel.cd.worker.spread.RealSpreadConnection connection = 
+                    new pt.isel.cd.worker.spread.RealSpreadConnection(workerId, groupName, spreadHost);
+                connection.setCodec(Codecs.byName(options.getSpreadFormat()));
+                return connection;
             } catch (Exception e) {
                 logger.error("ERROR: Failed to connect to Spread daemon", e);
                 logger.error("  Make sure Spread daemon is running on {}", spreadHost);
                 logger.error("  Command: docker compose -f docker-compose-spread.yml up -d");
                 throw new RuntimeException("Failed to connect to Spread daemon", e);
             }
-        } else {
-            // Local mode: Use RabbitMQ simulation
-            logger.info("Worker [{}] using SIMULATED Spread (RabbitMQ), group [{}]", 
-                       workerId, groupName);
-            SpreadSimulator simulator = new SpreadSimulator(workerId, groupName, rabbitMqHost, rabbitMqPort);
-            simulator.joinGroup();
-            spread = simulator;
         }
-        
-        // Initialize election manager
-        electionManager = new ElectionManager(workerId, spread, channel);
-        electionManager.setStatsProvider(this::getPartialStats);
-        
-        // Announce presence to the group
-        announcePresence();
-        
-        logger.info("Worker [{}] initialized. RabbitMQ: {}:{}, Files: {}", 
-                    workerId, rabbitMqHost, rabbitMqPort, sharedFilesDir);
+        // Local mode: Use RabbitMQ simulation
+        logger.info("Worker [{}] using SIMULATED Spread (RabbitMQ), group [{}]", 
+                   workerId, groupName);
+        SpreadSimulator simulator = new SpreadSimulator(workerId, groupName, rabbitMqHost, rabbitMqPort);
+        simulator.setHeartbeatMillis(options.getHeartbeatMillis());
+        simulator.setCodec(Codecs.byName(options.getSpreadFormat()));
+        simulator.joinGroup();
+        return simulator;
+    }
+    
+    private static void declareShards(Connection connection, int shardCount) throws IOException, TimeoutException {
+        Channel channel = connection.createChannel();
+        try {
+            for (RequestLane lane : RequestLane.values()) {
+                channel.exchangeDeclare(lane.getShardExchangeName(), ShardRouting.CONSISTENT_HASH_EXCHANGE_TYPE, true);
+                for (int shard = 0; shard < shardCount; shard++) {
+                    channel.queueDeclare(lane.getShardQueueName(shard), true, false, false, null);
+                    channel.queueBind(lane.getShardQueueName(shard), lane.getShardExchangeName(), ShardRouting.SHARD_WEIGHT);
+                }
+            }
+        } finally {
+            channel.close();
+        }
+    }
+    
+    /**
+     * The members of the group, this worker included (views exclude it).
+     */
+    private TreeSet<String> groupOf(Set<String> view) {
+        TreeSet<String> members = new TreeSet<>(view);
+        members.add(workerId);
+        return members;
+    }
+    
+    /**
+     * Shards follow the group: each member consumes the shards it owns in the new view.
+     * With --shard-ids the assignment is fixed, so the first member checks that every
+     * shard still has a consumer somewhere.
+     */
+    private void onViewChange(Set<String> view) {
+        TreeSet<String> members = groupOf(view);
+        if (options.getShardIds().isEmpty()) {
+            List<Integer> shards = ShardAssignment.ownedShards(options.getShardCount(), members, workerId);
+            logger.info("Worker [{}] consuming shards {} of {} ({} workers)",
+                        workerId, shards, options.getShardCount(), members.size());
+            for (LaneConsumer laneConsumer : laneConsumers) {
+                try {
+                    laneConsumer.assignShards(shards);
+                } catch (IOException | RuntimeException e) {
+                    logger.error("Worker [{}] failed to reassign {} shards", workerId, laneConsumer.getLane(), e);
+                }
+            }
+        } else if (workerId.equals(members.first())) {
+            warnUnconsumedShards();
+        }
+    }
+    
+    private void warnUnconsumedShards() {
+        try {
+            Channel channel = connection.createChannel();
+            try {
+                for (RequestLane lane : RequestLane.values()) {
+                    for (int shard = 0; shard < options.getShardCount(); shard++) {
+                        String queue = lane.getShardQueueName(shard);
+                        if (channel.queueDeclarePassive(queue).getConsumerCount() == 0) {
+                            logger.warn("Worker [{}] shard queue {} has no consumer: check --shard-ids of the workers",
+                                        workerId, queue);
+                        }
+                    }
+                }
+            } finally {
+                channel.close();
+            }
+        } catch (IOException | TimeoutException | RuntimeException e) {
+            logger.warn("Worker [{}] could not check the shard consumers", workerId, e);
+        }
     }
     
     private void announcePresence() {
@@ -126,62 +303,441 @@ public class Worker {
 
     public void start() throws IOException {
         logger.info("Worker [{}] starting to consume requests...", workerId);
+        for (LaneConsumer laneConsumer : laneConsumers) {
+            laneConsumer.start();
+        }
+    }
+    
+    /**
+     * Process a single delivery on a request executor thread.
+     * The delivery is acked only after the broker confirms its response; until then
+     * it stays unacked and is redelivered if the worker dies.
+     * Failures are retried with backoff through the lane's delay queues (see {@link RetryPolicy}).
+     * Each request is counted exactly once: as successful, failed (dead-lettered), or handed
+     * over (GET_STATS answered by the coordinator); retries, hedge copies and duplicates
+     * of requests already completed (here or by another worker) are not counted again.
+     */
+    private void handleDelivery(LaneConsumer lane, Delivery delivery) {
+        long deliveryTag = delivery.getEnvelope().getDeliveryTag();
+        long startTime = System.currentTimeMillis();
+        long startNanos = System.nanoTime();
+        // Reply in the wire format the client used (no content-type = JSON from older clients)
+        MessageCodec codec = Codecs.forContentType(delivery.getProperties().getContentType());
+        RequestTrace trace = new RequestTrace(workerId, "worker.request",
+                                              Tracing.readContext(delivery.getProperties().getHeaders()), startNanos);
+        RequestMessage request = null;
+        try {
+            request = codec.decodeRequest(delivery.getBody());
+            long decodedNanos = System.nanoTime();
+            trace.phase("decode", startNanos, decodedNanos);
+            metrics.recordPhase("decode", decodedNanos - startNanos);
+        } catch (Exception e) {
+            // Retrying cannot fix a malformed message
+            logger.error("Worker [{}] cannot decode {} delivery {}, dead-lettering", 
+                        workerId, lane.getLane(), deliveryTag, e);
+            retryOrDeadLetter(lane, delivery, null, codec, e);
+            return;
+        }
         
-        DeliverCallback deliverCallback = (consumerTag, delivery) -> {
-            long startTime = System.currentTimeMillis();
-            try {
-                RequestMessage request = JsonUtil.parseRequest(delivery.getBody());
-                logger.info("Worker [{}] processing request: {} (type: {})", 
-                            workerId, request.getRequestId(), request.getType());
-                
+        String requestId = request.getRequestId();
+        trace.setRequestId(requestId);
+        if (completedRequests.isCompleted(requestId)) {
+            handleDuplicate(lane, delivery, request, codec);
+            return;
+        }
+        try {
+            int previousAttempts = RetryPolicy.previousAttempts(delivery.getProperties());
+            logger.info("Worker [{}] processing request: {} (type: {}, lane: {}, attempt: {})", 
+                        workerId, requestId, request.getType(), lane.getLane(), previousAttempts + 1);
+            
+            long queueWait = queueWaitMillis(delivery.getProperties(), startTime);
+            if (queueWait >= 0) {
+                trace.phaseMicros("queue", trace.getStartMicros() - TimeUnit.MILLISECONDS.toMicros(queueWait),
+                                  TimeUnit.MILLISECONDS.toMicros(queueWait));
+                if (previousAttempts == 0) {
+                    metrics.recordQueueWait(queueWait);
+                }
+            }
+            // Retried requests waited on purpose and are not subject to admission control
+            if (previousAttempts == 0 && !admit(lane, delivery, request, codec, startTime, startNanos, trace)) {
+                return;
+            }
+            if (previousAttempts == 0 && !isHedge(delivery.getProperties())) {
                 totalRequests.incrementAndGet();
-                
-                ResponseMessage response = processRequest(request);
-                
-                // If response is null, another worker will handle it (e.g., election loser)
-                if (response != null) {
-                    // Send response to client queue
-                    if (request.getClientQueue() != null && !request.getClientQueue().isEmpty()) {
-                        byte[] responseBytes = JsonUtil.toJsonBytes(response);
-                        channel.basicPublish("", request.getClientQueue(), null, responseBytes);
-                        logger.debug("Worker [{}] sent response to {}", workerId, request.getClientQueue());
-                    }
-                    
-                    if (response.getStatus() == ResponseStatus.OK) {
-                        successfulRequests.incrementAndGet();
-                    } else {
-                        failedRequests.incrementAndGet();
-                    }
+            }
+            
+            String replyTo = replyAddress(request, delivery.getProperties());
+            long processStartNanos = System.nanoTime();
+            ResponseMessage response = processRequest(request, codec, replyTo, trace);
+            long processedNanos = System.nanoTime();
+            trace.phase("process", processStartNanos, processedNanos);
+            metrics.recordPhase("process", processedNanos - processStartNanos);
+            
+            // If response is null, another worker will handle it (e.g., election loser)
+            if (response == null) {
+                lane.ack(deliveryTag);
+                announceCompleted(requestId, null, delivery);
+                exportTrace(trace);
+                return;
+            }
+            
+            RequestMessage completed = request;
+            publishResponse(response, codec, request, delivery.getProperties(), trace)
+                .whenComplete((ignored, error) -> 
+                    settleDelivery(lane, delivery, completed, codec, response, error, startNanos));
+            
+        } catch (Exception e) {
+            logger.error("Worker [{}] error processing request {}", workerId, requestId, e);
+            retryOrDeadLetter(lane, delivery, request, codec, e);
+        }
+    }
+    
+    /**
+     * A delivery whose request id already completed: a redelivery after a lost ack or failed
+     * confirm, or the twin of a hedged request. If this worker still has the response it is
+     * sent again (the client discards it if it already has one); the work is never redone.
+     */
+    private void handleDuplicate(LaneConsumer lane, Delivery delivery, RequestMessage request, MessageCodec codec) {
+        long deliveryTag = delivery.getEnvelope().getDeliveryTag();
+        ResponseMessage cached = completedRequests.getResponse(request.getRequestId());
+        if (cached == null) {
+            logger.info("Worker [{}] skipping duplicate of completed request {}", workerId, request.getRequestId());
+            lane.ack(deliveryTag);
+            return;
+        }
+        logger.info("Worker [{}] replaying cached response for duplicate request {}", workerId, request.getRequestId());
+        publishResponse(cached, codec, request, delivery.getProperties())
+            .whenComplete((ignored, error) -> {
+                if (error != null) {
+                    logger.warn("Worker [{}] failed to replay response for {}", workerId, request.getRequestId(), error);
                 }
-                
-                // Acknowledge the message
-                channel.basicAck(delivery.getEnvelope().getDeliveryTag(), false);
-                
-                long elapsed = System.currentTimeMillis() - startTime;
-                logger.info("Worker [{}] completed request {} in {} ms", 
-                            workerId, request.getRequestId(), elapsed);
-                
-            } catch (Exception e) {
-                logger.error("Worker [{}] error processing request", workerId, e);
+                lane.ack(deliveryTag);
+            });
+    }
+    
+    /**
+     * Admission control: a request that waited in the queue longer than the threshold is
+     * shed (BUSY reply) or moved once behind fresher requests, depending on the policy.
+     * Requests the client did not stamp with its publish time are always admitted.
+     * Returns true if the request should be processed now.
+     */
+    private boolean admit(LaneConsumer lane, Delivery delivery, RequestMessage request, MessageCodec codec,
+                          long startTime, long startNanos, RequestTrace trace) {
+        WorkerOptions.AdmissionPolicy policy = options.getAdmissionPolicy();
+        long queueWait = queueWaitMillis(delivery.getProperties(), startTime);
+        if (policy == WorkerOptions.AdmissionPolicy.NONE || queueWait <= options.getMaxQueueWaitMillis()) {
+            return true;
+        }
+        
+        if (policy == WorkerOptions.AdmissionPolicy.SHED) {
+            if (!isHedge(delivery.getProperties())) {
+                totalRequests.incrementAndGet();
+            }
+            logger.warn("Worker [{}] shedding request {} (queued {} ms, limit {} ms, {} shed so far)", 
+                       workerId, request.getRequestId(), queueWait, options.getMaxQueueWaitMillis(),
+                       shedRequests.incrementAndGet());
+            ResponseMessage busy = statusResponse(request, ResponseStatus.BUSY,
+                    "Queued for " + queueWait + " ms, worker is overloaded");
+            publishResponse(busy, codec, request, delivery.getProperties(), trace)
+                .whenComplete((ignored, error) -> 
+                    settleDelivery(lane, delivery, request, codec, busy, error, startNanos));
+            return false;
+        }
+        
+        if (isDeprioritized(delivery.getProperties())) {
+            // Already moved back once: process it, a late answer still beats none
+            return true;
+        }
+        long deliveryTag = delivery.getEnvelope().getDeliveryTag();
+        logger.warn("Worker [{}] deprioritizing request {} (queued {} ms, limit {} ms)", 
+                   workerId, request.getRequestId(), queueWait, options.getMaxQueueWaitMillis());
+        publisherPool.publish("", lane.getLane().getQueueName(), 
+                              deprioritizedProps(delivery.getProperties(), queueWait), delivery.getBody())
+            .whenComplete((ignored, error) -> {
+                if (error == null) {
+                    lane.ack(deliveryTag);
+                } else {
+                    logger.error("Worker [{}] could not requeue request {}, requeueing in place", 
+                                workerId, request.getRequestId(), error);
+                    lane.nack(deliveryTag, true);
+                }
+            });
+        return false;
+    }
+    
+    /**
+     * Time since the client published the request, or -1 if it did not stamp it.
+     */
+    private static long queueWaitMillis(AMQP.BasicProperties props, long now) {
+        Map<String, Object> headers = props.getHeaders();
+        Object enqueuedAt = headers != null ? headers.get(QueueConfig.ENQUEUED_AT_HEADER) : null;
+        if (enqueuedAt instanceof Number) {
+            return Math.max(0, now - ((Number) enqueuedAt).longValue());
+        }
+        return -1;
+    }
+    
+    private static boolean isDeprioritized(AMQP.BasicProperties props) {
+        Map<String, Object> headers = props.getHeaders();
+        return headers != null && Boolean.TRUE.equals(headers.get(QueueConfig.DEPRIORITIZED_HEADER));
+    }
+    
+    /**
+     * Copy of a request's properties for republishing it at the tail of its queue.
+     * The broker-side expiration is reduced by the time already spent queued.
+     */
+    private static AMQP.BasicProperties deprioritizedProps(AMQP.BasicProperties props, long queueWait) {
+        Map<String, Object> headers = new HashMap<>(props.getHeaders());
+        headers.put(QueueConfig.DEPRIORITIZED_HEADER, true);
+        String expiration = null;
+        if (props.getExpiration() != null) {
+            try {
+                expiration = String.valueOf(Math.max(1, Long.parseLong(props.getExpiration()) - queueWait));
+            } catch (NumberFormatException e) {
+                expiration = props.getExpiration();
+            }
+        }
+        return new AMQP.BasicProperties.Builder()
+            .contentType(props.getContentType())
+            .correlationId(props.getCorrelationId())
+            .replyTo(props.getReplyTo())
+            .headers(headers)
+            .expiration(expiration)
+            .build();
+    }
+    
+    private static boolean isHedge(AMQP.BasicProperties props) {
+        Map<String, Object> headers = props.getHeaders();
+        return headers != null && Boolean.TRUE.equals(headers.get(QueueConfig.HEDGE_HEADER));
+    }
+    
+    /**
+     * The hedge copy, or an original the client may hedge (the header is present on both).
+     */
+    private static boolean mayBeHedged(AMQP.BasicProperties props) {
+        Map<String, Object> headers = props.getHeaders();
+        return headers != null && headers.containsKey(QueueConfig.HEDGE_HEADER);
+    }
+    
+    /**
+     * Record a completed request. If a duplicate may exist elsewhere (the delivery is a
+     * redelivery, or the client may hedge it) every worker is told, so whoever gets the
+     * duplicate skips it; other requests cost no Spread message.
+     * A shed (BUSY) request was not done and is not recorded, so a duplicate still runs.
+     */
+    private void announceCompleted(String requestId, ResponseMessage response, Delivery delivery) {
+        completedRequests.markCompleted(requestId, response);
+        if (!delivery.getEnvelope().isRedeliver() && !mayBeHedged(delivery.getProperties())) {
+            return;
+        }
+        try {
+            spread.multicast(new SpreadMessage(SpreadMessageType.REQUEST_COMPLETED, workerId, requestId));
+        } catch (Exception e) {
+            logger.warn("Worker [{}] failed to announce completion of {}", workerId, requestId, e);
+        }
+    }
+    
+    private void handleSpreadMessage(SpreadMessage message) {
+        if (message.getType() == SpreadMessageType.REQUEST_COMPLETED && message.getPayload() instanceof String) {
+            completedRequests.markCompleted((String) message.getPayload());
+        }
+    }
+    
+    /**
+     * Where to send the response: the AMQP replyTo property (direct reply-to clients)
+     * takes precedence over the clientQueue field of the request. Null = no reply.
+     */
+    private static String replyAddress(RequestMessage request, AMQP.BasicProperties props) {
+        if (props != null && props.getReplyTo() != null && !props.getReplyTo().isEmpty()) {
+            return props.getReplyTo();
+        }
+        if (request.getClientQueue() != null && !request.getClientQueue().isEmpty()) {
+            return request.getClientQueue();
+        }
+        return null;
+    }
+    
+    /**
+     * Runs once the response is confirmed by the broker (or failed to publish).
+     */
+    private void settleDelivery(LaneConsumer lane, Delivery delivery, RequestMessage request, MessageCodec codec,
+                                ResponseMessage response, Throwable publishError, long startNanos) {
+        if (publishError != null) {
+            logger.error("Worker [{}] response for request {} was not confirmed", 
+                        workerId, request.getRequestId(), publishError);
+            retryOrDeadLetter(lane, delivery, request, codec, publishError);
+            return;
+        }
+        
+        // Acknowledge the message
+        lane.ack(delivery.getEnvelope().getDeliveryTag());
+        if (response.getStatus() != ResponseStatus.BUSY) {
+            announceCompleted(request.getRequestId(), response, delivery);
+        }
+        
+        // A hedge copy was not counted in the total, so neither is its outcome
+        if (!isHedge(delivery.getProperties())) {
+            if (response.getStatus() == ResponseStatus.OK) {
+                successfulRequests.incrementAndGet();
+            } else {
                 failedRequests.incrementAndGet();
-                // Reject and requeue the message
-                channel.basicNack(delivery.getEnvelope().getDeliveryTag(), false, true);
             }
-        };
+        }
         
-        // Start consuming with manual acknowledgment
-        channel.basicConsume(QueueConfig.REQUESTS_QUEUE, false, deliverCallback, consumerTag -> {});
+        long elapsedNanos = System.nanoTime() - startNanos;
+        metrics.recordCompleted(request.getType(), response.getStatus(), elapsedNanos);
+        logger.info("Worker [{}] completed request {} in {} ms", workerId, request.getRequestId(), 
+                    TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+    }
+    
+    /**
+     * Republish a failed delivery to the lane's delay queue, or to its dead-letter queue once
+     * the attempts are exhausted (undecodable deliveries go there directly). In the latter case
+     * the client gets an ERROR response. The original delivery is acked once the copy (and the
+     * response) are confirmed; if that fails it is requeued as a last resort.
+     */
+    private void retryOrDeadLetter(LaneConsumer lane, Delivery delivery, RequestMessage request,
+                                   MessageCodec codec, Throwable cause) {
+        long deliveryTag = delivery.getEnvelope().getDeliveryTag();
+        int attempt = RetryPolicy.previousAttempts(delivery.getProperties()) + 1;
+        String reason = cause.getClass().getSimpleName() + ": " + cause.getMessage();
+        AMQP.BasicProperties failedProps = RetryPolicy.withFailure(delivery.getProperties(), attempt, reason);
+        
+        CompletableFuture<Void> handedOff;
+        if (request != null && retryPolicy.canRetry(attempt)) {
+            long delay = retryPolicy.delayMillis(attempt);
+            logger.warn("Worker [{}] request {} failed (attempt {}/{}), retrying in {} ms", 
+                       workerId, request.getRequestId(), attempt, retryPolicy.getMaxAttempts(), delay);
+            handedOff = publisherPool.publish("", lane.getLane().getRetryQueueName(delay), 
+                                              failedProps, delivery.getBody());
+        } else {
+            logger.error("Worker [{}] request {} failed after {} attempt(s), dead-lettering", 
+                        workerId, request != null ? request.getRequestId() : "<undecodable>", attempt);
+            if (!isHedge(delivery.getProperties())) {
+                failedRequests.incrementAndGet();
+            }
+            if (request != null) {
+                metrics.recordDeadLettered(request.getType());
+            }
+            CompletableFuture<Void> deadLettered = publisherPool.publish("", 
+                lane.getLane().getDeadLetterQueueName(), failedProps, delivery.getBody());
+            handedOff = request != null
+                ? CompletableFuture.allOf(deadLettered, publishResponse(
+                      statusResponse(request, ResponseStatus.ERROR, 
+                                     "Request failed after " + attempt + " attempt(s): " + cause.getMessage()),
+                      codec, request, delivery.getProperties()))
+                : deadLettered;
+        }
+        
+        handedOff.whenComplete((ignored, error) -> {
+            if (error == null) {
+                lane.ack(deliveryTag);
+            } else {
+                logger.error("Worker [{}] could not hand off failed delivery {}, requeueing", 
+                            workerId, deliveryTag, error);
+                lane.nack(deliveryTag, true);
+            }
+        });
+    }
+    
+    private CompletableFuture<Void> publishResponse(ResponseMessage response, MessageCodec codec,
+                                                    RequestMessage request, AMQP.BasicProperties requestProps) {
+        return publishResponse(response, codec, request, requestProps, null);
+    }
+    
+    /**
+     * Publish a response to the request's reply address, echoing its correlationId.
+     * The future completes on broker confirm (immediately if there is no one to reply to).
+     * A traced response echoes the trace id and, if the client asked for them, carries the
+     * phase timings so far; the trace is exported once the publish settles.
+     */
+    private CompletableFuture<Void> publishResponse(ResponseMessage response, MessageCodec codec,
+                                                    RequestMessage request, AMQP.BasicProperties requestProps,
+                                                    RequestTrace trace) {
+        String replyTo = replyAddress(request, requestProps);
+        if (replyTo == null) {
+            if (trace != null) {
+                exportTrace(trace);
+            }
+            return CompletableFuture.completedFuture(null);
+        }
+        long encodeStartNanos = System.nanoTime();
+        byte[] body = codec.encodeResponse(response);
+        long publishedNanos = System.nanoTime();
+        metrics.recordPhase("encode", publishedNanos - encodeStartNanos);
+        
+        AMQP.BasicProperties.Builder props = new AMQP.BasicProperties.Builder()
+            .contentType(codec.getContentType())
+            .correlationId(requestProps.getCorrelationId());
+        if (trace != null) {
+            trace.phase("encode", encodeStartNanos, publishedNanos);
+            Map<String, Object> headers = new HashMap<>();
+            headers.put(QueueConfig.TRACE_ID_HEADER, trace.getTraceId());
+            if (trace.isDetailed()) {
+                headers.put(QueueConfig.TRACE_PHASES_HEADER, trace.formatPhases());
+            }
+            props.headers(headers);
+        }
+        return publisherPool.publish("", replyTo, props.build(), body)
+            .whenComplete((ignored, error) -> {
+                long settledNanos = System.nanoTime();
+                metrics.recordPublish(settledNanos - publishedNanos, error == null);
+                if (trace != null) {
+                    trace.phase("publish", publishedNanos, settledNanos);
+                    exportTrace(trace);
+                }
+            });
+    }
+    
+    private void exportTrace(RequestTrace trace) {
+        if (spanExporter != null) {
+            spanExporter.export(trace.finish(System.nanoTime()));
+        }
+    }
+    
+    /**
+     * Response with a status and message only (no result payload).
+     */
+    private static ResponseMessage statusResponse(RequestMessage request, ResponseStatus status, String message) {
+        return new ResponseMessage(
+            request.getRequestId(),
+            status,
+            responseTypeOf(request.getType()),
+            message
+        );
+    }
+    
+    private static ResponseType responseTypeOf(RequestType type) {
+        if (type == null) {
+            return null;
+        }
+        switch (type) {
+            case SEARCH:
+                return ResponseType.SEARCH_RESULT;
+            case GET_FILE:
+                return ResponseType.FILE_CONTENT;
+            case GET_STATS:
+                return ResponseType.STATISTICS;
+            default:
+                return null;
+        }
     }
 
-    private ResponseMessage processRequest(RequestMessage request) {
+    /**
+     * Failures that would fail the same way again (unknown type, bad payload) are answered
+     * with an ERROR response. I/O errors on the corpus may be transient: they are thrown, so
+     * the delivery is retried with backoff and dead-lettered once the attempts run out.
+     */
+    private ResponseMessage processRequest(RequestMessage request, MessageCodec codec, String replyTo,
+                                           RequestTrace trace) throws IOException {
         try {
             switch (request.getType()) {
                 case SEARCH:
-                    return handleSearch(request);
+                    return handleSearch(request, trace);
                 case GET_FILE:
                     return handleGetFile(request);
                 case GET_STATS:
-                    return handleGetStats(request);
+                    return handleGetStats(request, codec, replyTo, trace);
                 default:
                     return new ResponseMessage(
                         request.getRequestId(), 
@@ -190,6 +746,10 @@ public class Worker {
                         "Unknown request type"
                     );
             }
+        } catch (IOException e) {
+            throw e;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();  // from walking the corpus
         } catch (Exception e) {
             logger.error("Error processing request", e);
             return new ResponseMessage(
@@ -201,31 +761,72 @@ public class Worker {
         }
     }
 
-    private ResponseMessage handleSearch(RequestMessage request) {
+    private ResponseMessage handleSearch(RequestMessage request, RequestTrace trace) throws IOException {
         SearchPayload payload = (SearchPayload) request.getPayload();
         List<String> substrings = payload.getSubstrings();
         
         logger.info("Worker [{}] searching for: {}", workerId, substrings);
         
         Map<String, String> matchingEmails = new HashMap<>();
+        String query = ShardRouting.normalizeQuery(substrings);
         
+        long searchStartNanos = System.nanoTime();
         try (Stream<Path> paths = Files.walk(sharedFilesPath)) {
-            paths
+            List<Path> emailFiles = paths
                 .filter(Files::isRegularFile)
                 .filter(path -> path.toString().endsWith(".txt"))
-                .forEach(path -> {
+                .sorted()
+                .collect(Collectors.toList());
+            
+            // Stat every file first: the corpus fingerprint tells whether cached results are still valid
+            Map<Path, BasicFileAttributes> attributes = new LinkedHashMap<>();
+            long fingerprint = 17;
+            boolean complete = true;
+            for (Path path : emailFiles) {
+                try {
+                    BasicFileAttributes fileAttributes = Files.readAttributes(path, BasicFileAttributes.class);
+                    attributes.put(path, fileAttributes);
+                    fingerprint = CorpusCache.fingerprint(fingerprint, path, fileAttributes);
+                } catch (IOException e) {
+                    logger.error("Read error in file: {} - {}", path, e.getMessage());
+                    complete = false;
+                }
+            }
+            
+            long listNanos = System.nanoTime() - searchStartNanos;
+            trace.phase("search.list", searchStartNanos, searchStartNanos + listNanos);
+            Map<String, String> cached = corpusCache.getSearchResults(query, fingerprint);
+            if (cached != null) {
+                metrics.recordSearchPhases(listNanos, -1);
+                trace.phase("search.cached", searchStartNanos + listNanos, System.nanoTime());
+                matchingEmails.putAll(cached);
+                logger.info("Worker [{}] found {} matching files (cached)", workerId, matchingEmails.size());
+            } else {
+                long bytesScanned = 0;
+                for (Map.Entry<Path, BasicFileAttributes> file : attributes.entrySet()) {
+                    Path path = file.getKey();
                     try {
-                        String emailMessage = Files.readString(path);
+                        String emailMessage = corpusCache.read(path, file.getValue());
+                        bytesScanned += file.getValue().size();
                         if (containsAllSubstrings(emailMessage, substrings)) {
                             // Use filename only (not full path) as key
                             matchingEmails.put(path.getFileName().toString(), emailMessage);
                         }
                     } catch (IOException e) {
                         logger.error("Read error in file: {} - {}", path, e.getMessage());
+                        complete = false;
                     }
-                });
-            
-            logger.info("Worker [{}] found {} matching files", workerId, matchingEmails.size());
+                }
+                long scannedNanos = System.nanoTime();
+                metrics.recordScan(attributes.size(), bytesScanned);
+                metrics.recordSearchPhases(listNanos, scannedNanos - searchStartNanos - listNanos);
+                trace.phase("search.scan", searchStartNanos + listNanos, scannedNanos);
+                // Partial results (unreadable files) are not worth remembering
+                if (complete) {
+                    corpusCache.putSearchResults(query, fingerprint, matchingEmails);
+                }
+                logger.info("Worker [{}] found {} matching files", workerId, matchingEmails.size());
+            }
             
             SearchResultPayload resultPayload = new SearchResultPayload(matchingEmails);
             return new ResponseMessage(
@@ -234,15 +835,6 @@ public class Worker {
                 ResponseType.SEARCH_RESULT,
                 resultPayload
             );
-            
-        } catch (IOException e) {
-            logger.error("Error searching files", e);
-            return new ResponseMessage(
-                request.getRequestId(),
-                ResponseStatus.ERROR,
-                ResponseType.SEARCH_RESULT,
-                null
-            );
         }
     }
 
@@ -256,7 +848,7 @@ public class Worker {
         return true;
     }
 
-    private ResponseMessage handleGetFile(RequestMessage request) {
+    private ResponseMessage handleGetFile(RequestMessage request) throws IOException {
         FilePayload payload = (FilePayload) request.getPayload();
         String filename = payload.getFilename();
         
@@ -282,7 +874,7 @@ public class Worker {
                 );
             }
             
-            String content = Files.readString(filePath);
+            String content = corpusCache.read(filePath);
             FileContentPayload resultPayload = new FileContentPayload(filename, content);
             
             return new ResponseMessage(
@@ -292,31 +884,50 @@ public class Worker {
                 resultPayload
             );
             
-        } catch (IOException e) {
-            logger.error("Error reading file: {}", filename, e);
+        } catch (NoSuchFileException e) {
+            // Deleted since the existence check: retrying will not bring it back
+            logger.warn("Worker [{}] file not found: {}", workerId, filename);
             return new ResponseMessage(
                 request.getRequestId(),
-                ResponseStatus.ERROR,
+                ResponseStatus.NOT_FOUND,
                 ResponseType.FILE_CONTENT,
                 null
             );
         }
     }
 
-    private ResponseMessage handleGetStats(RequestMessage request) {
-        logger.info("Worker [{}] initiating election for statistics aggregation", workerId);
+    private ResponseMessage handleGetStats(RequestMessage request, MessageCodec codec, String replyTo,
+                                           RequestTrace trace) {
+        if (statsReplica != null) {
+            // Answered from the local replica of the group counters: no election, no collection
+            StatisticsPayload stats = statsReplica.getStatistics();
+            logger.info("Worker [{}] answering statistics locally: total={}, workers={}, staleness={} ms",
+                        workerId, stats.getTotalRequests(), stats.getWorkerCount(), stats.getStalenessMillis());
+            return new ResponseMessage(
+                request.getRequestId(),
+                ResponseStatus.OK,
+                ResponseType.STATISTICS,
+                stats
+            );
+        }
+        
+        logger.info("Worker [{}] handing statistics aggregation to coordinator [{}]", 
+                    workerId, electionManager.getCoordinator());
         
         try {
-            // Initiate election - the winner will send the response directly
-            electionManager.initiateElection(request.getRequestId(), request.getClientQueue());
+            // The coordinator of the current view sends the response directly
+            // The coordinator may be another worker: it gets the resolved reply address
+            // (direct reply-to addresses are routable from any connection)
+            electionManager.requestStats(request.getRequestId(), replyTo, codec.getContentType(),
+                                         trace.childContext());
             
             // Return null so this worker doesn't send a duplicate response
-            // The election winner will handle sending the response
+            // The coordinator will handle sending the response
             return null;
             
         } catch (Exception e) {
-            logger.error("Error during statistics election", e);
-            // Fallback to local stats if election fails
+            logger.error("Error handing over statistics aggregation", e);
+            // Fallback to local stats if the hand-over fails
             StatisticsPayload localStats = new StatisticsPayload(
                 totalRequests.get(),
                 successfulRequests.get(),
@@ -333,16 +944,74 @@ public class Worker {
         }
     }
     
+    /**
+     * Render this worker's metrics for a scrape of the metrics endpoint.
+     */
+    private void writeMetrics(MetricsText out) {
+        out.family("worker_requests_total", "counter", "Requests received, counted once per request id")
+           .sample("worker_requests_total", totalRequests.get());
+        out.family("worker_requests_succeeded_total", "counter", "Requests answered with OK")
+           .sample("worker_requests_succeeded_total", successfulRequests.get());
+        out.family("worker_requests_failed_total", "counter", "Requests answered with an error, shed or dead-lettered")
+           .sample("worker_requests_failed_total", failedRequests.get());
+        out.family("worker_requests_shed_total", "counter", "Requests shed by admission control")
+           .sample("worker_requests_shed_total", shedRequests.get());
+        out.family("worker_uptime_seconds", "gauge", "Time since the worker started")
+           .sample("worker_uptime_seconds", (System.currentTimeMillis() - startTime) / 1000.0);
+        metrics.writeTo(out, corpusCache);
+        
+        out.family("worker_publish_unconfirmed", "gauge", "Responses published and awaiting a broker confirm")
+           .sample("worker_publish_unconfirmed", publisherPool.getUnconfirmedCount());
+        out.family("worker_lane_in_flight", "gauge", "Deliveries received and not yet acked");
+        for (LaneConsumer laneConsumer : laneConsumers) {
+            out.sample("worker_lane_in_flight", laneConsumer.getInFlightCount(), "lane", laneConsumer.getLane().name());
+        }
+        out.family("worker_lane_prefetch", "gauge", "Current prefetch window");
+        for (LaneConsumer laneConsumer : laneConsumers) {
+            out.sample("worker_lane_prefetch", laneConsumer.getPrefetch(), "lane", laneConsumer.getLane().name());
+        }
+        out.family("worker_lane_acked_total", "counter", "Deliveries acked");
+        for (LaneConsumer laneConsumer : laneConsumers) {
+            out.sample("worker_lane_acked_total", laneConsumer.getAckedDeliveries(), "lane", laneConsumer.getLane().name());
+        }
+        out.family("worker_lane_ack_frames_total", "counter", "basic.ack frames sent (acks are coalesced)");
+        for (LaneConsumer laneConsumer : laneConsumers) {
+            out.sample("worker_lane_ack_frames_total", laneConsumer.getAckFrames(), "lane", laneConsumer.getLane().name());
+        }
+        
+        out.family("worker_spread_sent_total", "counter", "Spread messages sent");
+        for (SpreadMessageType type : SpreadMessageType.values()) {
+            out.sample("worker_spread_sent_total", spreadMetrics.getSentCount(type), "type", type.name());
+        }
+        out.family("worker_spread_received_total", "counter", "Spread messages received");
+        for (SpreadMessageType type : SpreadMessageType.values()) {
+            out.sample("worker_spread_received_total", spreadMetrics.getReceivedCount(type), "type", type.name());
+        }
+        out.family("worker_spread_send_errors_total", "counter", "Spread messages that failed to send")
+           .sample("worker_spread_send_errors_total", spreadMetrics.getSendErrors());
+        out.family("worker_spread_frames_sent_total", "counter", "Transport messages sent (batches count once)")
+           .sample("worker_spread_frames_sent_total", spreadBatching.getFramesSent());
+        out.family("worker_spread_batched_send_errors_total", "counter", "Batched Spread messages that failed to send")
+           .sample("worker_spread_batched_send_errors_total", spreadBatching.getSendErrors());
+        out.family("worker_spread_send_seconds", "histogram", "Time to hand a Spread message to the transport")
+           .histogram("worker_spread_send_seconds", spreadMetrics.getSendLatency());
+        out.family("worker_spread_members", "gauge", "Other members in the current Spread view")
+           .sample("worker_spread_members", spread.getGroupMembers().size());
+    }
+    
     /**
      * Get partial statistics from this worker for aggregation.
      */
     private PartialStatsPayload getPartialStats() {
-        return new PartialStatsPayload(
+        PartialStatsPayload stats = new PartialStatsPayload(
             workerId,
             totalRequests.get(),
             successfulRequests.get(),
             failedRequests.get()
         );
+        stats.setIncarnation(startTime);
+        metrics.fill(stats, reportsCache ? corpusCache : null);
+        return stats;
     }
 
     private void sendResponse(ResponseMessage response) throws IOException {
@@ -353,18 +1022,47 @@ public class Worker {
         // Actual sending will be done in processRequest with proper routing
     }
 
+    @Override
     public void close() throws Exception {
-        if (spread != null) {
-            spread.close();
-        }
-        if (channel != null && channel.isOpen()) {
-            channel.close();
+        // Stop taking new deliveries and let in-flight requests finish
+        stopConsuming();
+        if (!resources.isShared()) {
+            resources.drain();
         }
-        if (connection != null && connection.isOpen()) {
-            connection.close();
+        release();
+        if (!resources.isShared()) {
+            resources.close();
         }
         logger.info("Worker [{}] closed", workerId);
     }
+    
+    /**
+     * Cancel the lane consumers; deliveries already received are still processed.
+     */
+    void stopConsuming() {
+        for (LaneConsumer laneConsumer : laneConsumers) {
+            laneConsumer.cancel();
+        }
+    }
+    
+    /**
+     * Close what belongs to this worker alone (after its requests have drained).
+     */
+    void release() throws Exception {
+        for (LaneConsumer laneConsumer : laneConsumers) {
+            laneConsumer.close();
+        }
+        if (metricsServer != null) {
+            metricsServer.close();
+        }
+        if (statsReplica != null) {
+            statsReplica.close();
+        }
+        electionManager.close();
+        if (spread != null) {
+            spread.close();
+        }
+    }
 
     public static void main(String[] args) {
         // Default values (final for lambda access)
@@ -376,6 +1074,8 @@ public class Worker {
         config[4] = null;  // spreadGroup - null = use default
         final int[] portConfig = new int[1]; // rabbitPort
         portConfig[0] = 5672;
+        int colocated = 1;  // logical workers hosted in this JVM
+        WorkerOptions options = new WorkerOptions();
         
         // Parse command-line arguments
         for (int i = 0; i < args.length; i++) {
@@ -398,6 +1098,75 @@ public class Worker {
                 case "--spread-group":
                     if (i + 1 < args.length) config[4] = args[++i];
                     break;
+                case "--concurrency":
+                    if (i + 1 < args.length) options.setConcurrency(Integer.parseInt(args[++i]));
+                    break;
+                case "--prefetch":
+                    if (i + 1 < args.length) options.setPrefetch(Integer.parseInt(args[++i]));
+                    break;
+                case "--interactive-concurrency":
+                    if (i + 1 < args.length) options.setInteractiveConcurrency(Integer.parseInt(args[++i]));
+                    break;
+                case "--interactive-prefetch":
+                    if (i + 1 < args.length) options.setInteractivePrefetch(Integer.parseInt(args[++i]));
+                    break;
+                case "--publisher-channels":
+                    if (i + 1 < args.length) options.setPublisherChannels(Integer.parseInt(args[++i]));
+                    break;
+                case "--fixed-prefetch":
+                    options.setAdaptivePrefetch(false);
+                    break;
+                case "--prefetch-min":
+                    if (i + 1 < args.length) options.setMinPrefetch(Integer.parseInt(args[++i]));
+                    break;
+                case "--prefetch-max":
+                    if (i + 1 < args.length) options.setMaxPrefetch(Integer.parseInt(args[++i]));
+                    break;
+                case "--max-attempts":
+                    if (i + 1 < args.length) options.setMaxAttempts(Integer.parseInt(args[++i]));
+                    break;
+                case "--retry-delay":
+                    if (i + 1 < args.length) options.setRetryDelayMillis(Long.parseLong(args[++i]));
+                    break;
+                case "--admission":
+                    if (i + 1 < args.length) options.setAdmissionPolicy(parseAdmissionPolicy(args[++i]));
+                    break;
+                case "--max-queue-wait":
+                    if (i + 1 < args.length) options.setMaxQueueWaitMillis(Long.parseLong(args[++i]));
+                    break;
+                case "--metrics-port":
+                    if (i + 1 < args.length) options.setMetricsPort(Integer.parseInt(args[++i]));
+                    break;
+                case "--trace-file":
+                    if (i + 1 < args.length) options.setTraceFile(args[++i]);
+                    break;
+                case "--stats-gossip":
+                    if (i + 1 < args.length) options.setStatsGossipMillis(Long.parseLong(args[++i]));
+                    break;
+                case "--spread-format":
+                    if (i + 1 < args.length) options.setSpreadFormat(args[++i]);
+                    break;
+                case "--spread-batch":
+                    if (i + 1 < args.length) options.setSpreadBatchMillis(Long.parseLong(args[++i]));
+                    break;
+                case "--heartbeat":
+                    if (i + 1 < args.length) options.setHeartbeatMillis(Long.parseLong(args[++i]));
+                    break;
+                case "--shards":
+                    if (i + 1 < args.length) options.setShardCount(Integer.parseInt(args[++i]));
+                    break;
+                case "--shard-ids":
+                    if (i + 1 < args.length) options.setShardIds(parseShardIds(args[++i]));
+                    break;
+                case "--cache-mb":
+                    if (i + 1 < args.length) options.setCacheBytes(Long.parseLong(args[++i]) * 1024 * 1024);
+                    break;
+                case "--executor":
+                    if (i + 1 < args.length) options.setExecutorMode(parseExecutorMode(args[++i]));
+                    break;
+                case "--colocate":
+                    if (i + 1 < args.length) colocated = Integer.parseInt(args[++i]);
+                    break;
                 case "--help":
                     printUsage();
                     return;
@@ -411,6 +1180,29 @@ public class Worker {
         if (System.getenv("FILE_DIR") != null) config[2] = System.getenv("FILE_DIR");
         if (System.getenv("SPREAD_HOST") != null) config[3] = System.getenv("SPREAD_HOST");
         if (System.getenv("SPREAD_GROUP") != null) config[4] = System.getenv("SPREAD_GROUP");
+        if (System.getenv("WORKER_CONCURRENCY") != null) options.setConcurrency(Integer.parseInt(System.getenv("WORKER_CONCURRENCY")));
+        if (System.getenv("WORKER_PREFETCH") != null) options.setPrefetch(Integer.parseInt(System.getenv("WORKER_PREFETCH")));
+        if (System.getenv("WORKER_INTERACTIVE_CONCURRENCY") != null) options.setInteractiveConcurrency(Integer.parseInt(System.getenv("WORKER_INTERACTIVE_CONCURRENCY")));
+        if (System.getenv("WORKER_INTERACTIVE_PREFETCH") != null) options.setInteractivePrefetch(Integer.parseInt(System.getenv("WORKER_INTERACTIVE_PREFETCH")));
+        if (System.getenv("WORKER_ADAPTIVE_PREFETCH") != null) options.setAdaptivePrefetch(Boolean.parseBoolean(System.getenv("WORKER_ADAPTIVE_PREFETCH")));
+        if (System.getenv("WORKER_PREFETCH_MIN") != null) options.setMinPrefetch(Integer.parseInt(System.getenv("WORKER_PREFETCH_MIN")));
+        if (System.getenv("WORKER_PREFETCH_MAX") != null) options.setMaxPrefetch(Integer.parseInt(System.getenv("WORKER_PREFETCH_MAX")));
+        if (System.getenv("WORKER_MAX_ATTEMPTS") != null) options.setMaxAttempts(Integer.parseInt(System.getenv("WORKER_MAX_ATTEMPTS")));
+        if (System.getenv("WORKER_RETRY_DELAY_MS") != null) options.setRetryDelayMillis(Long.parseLong(System.getenv("WORKER_RETRY_DELAY_MS")));
+        if (System.getenv("WORKER_ADMISSION") != null) options.setAdmissionPolicy(parseAdmissionPolicy(System.getenv("WORKER_ADMISSION")));
+        if (System.getenv("WORKER_MAX_QUEUE_WAIT_MS") != null) options.setMaxQueueWaitMillis(Long.parseLong(System.getenv("WORKER_MAX_QUEUE_WAIT_MS")));
+        if (System.getenv("WORKER_METRICS_PORT") != null) options.setMetricsPort(Integer.parseInt(System.getenv("WORKER_METRICS_PORT")));
+        if (System.getenv("WORKER_TRACE_FILE") != null) options.setTraceFile(System.getenv("WORKER_TRACE_FILE"));
+        if (System.getenv("WORKER_STATS_GOSSIP_MS") != null) options.setStatsGossipMillis(Long.parseLong(System.getenv("WORKER_STATS_GOSSIP_MS")));
+        if (System.getenv("WORKER_SPREAD_FORMAT") != null) options.setSpreadFormat(System.getenv("WORKER_SPREAD_FORMAT"));
+        if (System.getenv("WORKER_SPREAD_BATCH_MS") != null) options.setSpreadBatchMillis(Long.parseLong(System.getenv("WORKER_SPREAD_BATCH_MS")));
+        if (System.getenv("WORKER_HEARTBEAT_MS") != null) options.setHeartbeatMillis(Long.parseLong(System.getenv("WORKER_HEARTBEAT_MS")));
+        if (System.getenv("WORKER_SHARDS") != null) options.setShardCount(Integer.parseInt(System.getenv("WORKER_SHARDS")));
+        if (System.getenv("WORKER_SHARD_IDS") != null) options.setShardIds(parseShardIds(System.getenv("WORKER_SHARD_IDS")));
+        if (System.getenv("WORKER_CACHE_MB") != null) options.setCacheBytes(Long.parseLong(System.getenv("WORKER_CACHE_MB")) * 1024 * 1024);
+        if (System.getenv("WORKER_EXECUTOR") != null) options.setExecutorMode(parseExecutorMode(System.getenv("WORKER_EXECUTOR")));
+        if (System.getenv("WORKER_PUBLISHER_CHANNELS") != null) options.setPublisherChannels(Integer.parseInt(System.getenv("WORKER_PUBLISHER_CHANNELS")));
+        if (System.getenv("WORKER_COLOCATE") != null) colocated = Integer.parseInt(System.getenv("WORKER_COLOCATE"));
         
         String mode = (config[3] != null) ? "PRODUCTION (Real Spread)" : "DEVELOPMENT (Simulated)";
         logger.info("Starting Worker [{}] in {} mode", config[0], mode);
@@ -420,10 +1212,26 @@ public class Worker {
             logger.info("  Spread Host: {}", config[3]);
             logger.info("  Spread Group: {}", config[4] != null ? config[4] : "email_workers (default)");
         }
+        logger.info("  Concurrency: search {} / interactive {} ({} threads), prefetch: {} / {}", 
+                   options.getConcurrency(), options.getInteractiveConcurrency(), options.getExecutorMode(),
+                   options.getPrefetch(), options.getInteractivePrefetch());
+        
+        if (colocated > 1 && config[3] != null) {
+            logger.warn("  Colocated workers form an in-memory group; Spread host {} is not used", config[3]);
+        }
         
         try {
-            Worker worker = new Worker(config[0], config[1], portConfig[0], config[2], config[3], config[4]);
-            worker.start();
+            AutoCloseable worker;
+            if (colocated > 1) {
+                ColocatedWorkers workers = new ColocatedWorkers(config[0], colocated, config[1], portConfig[0], 
+                                                                config[2], config[4], options);
+                workers.start();
+                worker = workers;
+            } else {
+                Worker single = new Worker(config[0], config[1], portConfig[0], config[2], config[3], config[4], options);
+                single.start();
+                worker = single;
+            }
             
             // Add shutdown hook
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
@@ -445,6 +1253,36 @@ public class Worker {
         }
     }
     
+    private static WorkerOptions.ExecutorMode parseExecutorMode(String value) {
+        return WorkerOptions.ExecutorMode.valueOf(value.trim().toUpperCase());
+    }
+    
+    private static WorkerOptions.AdmissionPolicy parseAdmissionPolicy(String value) {
+        return WorkerOptions.AdmissionPolicy.valueOf(value.trim().toUpperCase());
+    }
+    
+    /**
+     * Parse a shard list such as "0,1,4-6".
+     */
+    private static List<Integer> parseShardIds(String value) {
+        List<Integer> ids = new ArrayList<>();
+        for (String part : value.split(",")) {
+            part = part.trim();
+            if (part.isEmpty()) continue;
+            int dash = part.indexOf('-');
+            if (dash > 0) {
+                int from = Integer.parseInt(part.substring(0, dash).trim());
+                int to = Integer.parseInt(part.substring(dash + 1).trim());
+                for (int id = from; id <= to; id++) {
+                    ids.add(id);
+                }
+            } else {
+                ids.add(Integer.parseInt(part));
+            }
+        }
+        return ids;
+    }
+    
     private static void printUsage() {
         System.out.println("Worker - Distributed Email Search System");
         System.out.println();
@@ -458,10 +1296,52 @@ public class Worker {
         System.out.println("  --spread-host <host>    Spread daemon host (e.g., 4803@localhost)");
         System.out.println("                          If not specified, uses RabbitMQ simulation");
         System.out.println("  --spread-group <group>  Spread group name (default: email_workers)");
+        System.out.println("  --concurrency <n>       Searches processed in parallel (default: CPU count)");
+        System.out.println("  --prefetch <n>          Unacked searches held by this worker (default: concurrency)");
+        System.out.println("  --interactive-concurrency <n>");
+        System.out.println("                          GET_FILE/GET_STATS processed in parallel (default: 2)");
+        System.out.println("  --interactive-prefetch <n>");
+        System.out.println("                          Unacked interactive requests held (default: interactive concurrency)");
+        System.out.println("  --fixed-prefetch        Keep prefetch constant (default: adaptive, AIMD)");
+        System.out.println("  --prefetch-min <n>      Lower bound of adaptive prefetch (default: 1)");
+        System.out.println("  --prefetch-max <n>      Upper bound of adaptive prefetch (default: 4 x lane concurrency)");
+        System.out.println("  --max-attempts <n>      Attempts per request before dead-lettering (default: 4)");
+        System.out.println("  --retry-delay <ms>      Backoff before the first retry, doubled each time (default: 1000)");
+        System.out.println("  --admission <policy>    none | shed | deprioritize requests queued too long (default: none)");
+        System.out.println("  --max-queue-wait <ms>   Queue wait that triggers the admission policy (default: 20000)");
+        System.out.println("  --metrics-port <port>   Serve Prometheus metrics on http://<host>:<port>/metrics (default: off)");
+        System.out.println("  --trace-file <path>     Append request spans to a file as JSON lines (default: off)");
+        System.out.println("  --stats-gossip <ms>     Replicate statistics every ms and answer GET_STATS locally");
+        System.out.println("                          (default: 0 = collect on demand via the coordinator)");
+        System.out.println("  --spread-format <fmt>   json | binary wire format of Spread messages; both are");
+        System.out.println("                          understood on receipt (default: json; binary once no older");
+        System.out.println("                          worker shares the group)");
+        System.out.println("  --spread-batch <ms>     Coalesce completion announcements and gossip sent within ms per");
+        System.out.println("                          destination (e.g. 2; default: 0 = off, needed while older workers");
+        System.out.println("                          share the group; batches of other workers are always understood)");
+        System.out.println("  --heartbeat <ms>        Presence heartbeat of the simulated Spread group; silent members");
+        System.out.println("                          are removed (e.g. 1000; default: 0 = off)");
+        System.out.println("  --shards <n>            Use the sharded topology with n shards per lane (default: 0 = off)");
+        System.out.println("  --shard-ids <list>      Shards this worker consumes, e.g. 0,1,4-6 (default: split");
+        System.out.println("                          among the workers of the group)");
+        System.out.println("  --cache-mb <n>          Cache size for file contents and search results (default: 64)");
+        System.out.println("  --executor <mode>       virtual | platform threads for requests (default: virtual)");
+        System.out.println("  --publisher-channels <n>");
+        System.out.println("                          Channels used to publish responses (default: 4)");
+        System.out.println("  --colocate <n>          Host n workers (<worker-id>-1..n) in this JVM, sharing the");
+        System.out.println("                          connection, cache, request threads and lane concurrency,");
+        System.out.println("                          grouped in memory (default: 1)");
         System.out.println("  --help                  Show this help message");
         System.out.println();
         System.out.println("Environment Variables (for Docker):");
-        System.out.println("  WORKER_ID, RABBIT_HOST, RABBIT_PORT, FILE_DIR, SPREAD_HOST, SPREAD_GROUP");
+        System.out.println("  WORKER_ID, RABBIT_HOST, RABBIT_PORT, FILE_DIR, SPREAD_HOST, SPREAD_GROUP,");
+        System.out.println("  WORKER_CONCURRENCY, WORKER_PREFETCH, WORKER_INTERACTIVE_CONCURRENCY,");
+        System.out.println("  WORKER_INTERACTIVE_PREFETCH, WORKER_ADAPTIVE_PREFETCH, WORKER_PREFETCH_MIN,");
+        System.out.println("  WORKER_PREFETCH_MAX, WORKER_MAX_ATTEMPTS, WORKER_RETRY_DELAY_MS,");
+        System.out.println("  WORKER_ADMISSION, WORKER_MAX_QUEUE_WAIT_MS, WORKER_SHARDS, WORKER_SHARD_IDS,");
+        System.out.println("  WORKER_CACHE_MB, WORKER_STATS_GOSSIP_MS, WORKER_METRICS_PORT, WORKER_EXECUTOR,");
+        System.out.println("  WORKER_PUBLISHER_CHANNELS, WORKER_TRACE_FILE, WORKER_HEARTBEAT_MS, WORKER_COLOCATE,");
+        System.out.println("  WORKER_SPREAD_BATCH_MS, WORKER_SPREAD_FORMAT");
         System.out.println();
         System.out.println("Examples:");
         System.out.println();
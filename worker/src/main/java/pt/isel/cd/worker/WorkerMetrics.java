@@ -0,0 +1,201 @@
+package pt.isel.cd.worker;
+
+import pt.isel.cd.common.model.LatencyHistogram;
+import pt.isel.cd.common.model.PartialStatsPayload;
+import pt.isel.cd.common.model.RequestType;
+import pt.isel.cd.common.model.ResponseStatus;
+import pt.isel.cd.common.model.WindowStats;
+import pt.isel.cd.common.util.LatencyRecorder;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Performance telemetry of this worker, reported with its partial statistics and
+ * exposed on the metrics endpoint.
+ * Request threads record without taking locks: histograms are {@link LatencyRecorder}s
+ * and counters are striped {@link LongAdder}s.
+ * Besides the cumulative histograms, {@link RollingWindows} keep the last 1, 5 and 15 minutes.
+ */
+class WorkerMetrics {
+    private final Map<RequestType, LatencyRecorder> latencies = new EnumMap<>(RequestType.class);
+    private final LatencyRecorder queueWait = new LatencyRecorder();
+    private final LatencyRecorder searchListPhase = new LatencyRecorder();
+    private final LatencyRecorder searchScanPhase = new LatencyRecorder();
+    private final Map<String, LatencyRecorder> requestPhases = new ConcurrentHashMap<>();
+    private final LatencyRecorder publishConfirm = new LatencyRecorder();
+    private final LongAdder publishFailures = new LongAdder();
+    private final LongAdder filesScanned = new LongAdder();
+    private final LongAdder bytesScanned = new LongAdder();
+    private final RollingWindows windows = new RollingWindows();
+
+    WorkerMetrics() {
+        for (RequestType type : RequestType.values()) {
+            latencies.put(type, new LatencyRecorder());
+        }
+    }
+
+    /**
+     * A request whose response was confirmed: time from picking it up to the confirm.
+     * Shed (BUSY) requests count in the windows but not in the latencies.
+     */
+    void recordCompleted(RequestType type, ResponseStatus status, long nanos) {
+        boolean processed = status != ResponseStatus.BUSY;
+        LatencyRecorder recorder = type != null ? latencies.get(type) : null;
+        if (recorder != null && processed) {
+            recorder.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+        }
+        windows.record(type, status != ResponseStatus.OK, processed ? TimeUnit.NANOSECONDS.toMicros(nanos) : -1);
+    }
+
+    /**
+     * A request that failed every attempt and was dead-lettered.
+     */
+    void recordDeadLettered(RequestType type) {
+        windows.record(type, true, -1);
+    }
+
+    /**
+     * Time a request spent in the broker queue before delivery.
+     */
+    void recordQueueWait(long millis) {
+        queueWait.record(TimeUnit.MILLISECONDS.toMicros(millis));
+    }
+
+    void recordScan(long files, long bytes) {
+        filesScanned.add(files);
+        bytesScanned.add(bytes);
+    }
+
+    /**
+     * Search phases: listing and stat-ing the corpus, then reading and matching the files.
+     */
+    void recordSearchPhases(long listNanos, long scanNanos) {
+        searchListPhase.record(TimeUnit.NANOSECONDS.toMicros(listNanos));
+        if (scanNanos >= 0) {
+            searchScanPhase.record(TimeUnit.NANOSECONDS.toMicros(scanNanos));
+        }
+    }
+
+    /**
+     * Phases of handling a delivery: decode, process, encode.
+     */
+    void recordPhase(String phase, long nanos) {
+        requestPhases.computeIfAbsent(phase, name -> new LatencyRecorder())
+                     .record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    /**
+     * Time from publishing a response to the broker's confirm (or a failed publish).
+     */
+    void recordPublish(long nanos, boolean confirmed) {
+        if (confirmed) {
+            publishConfirm.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+        } else {
+            publishFailures.increment();
+        }
+    }
+
+    /**
+     * Copy the current telemetry into a partial statistics payload.
+     *
+     * @param cache the cache to report, or null if another colocated worker reports it
+     */
+    void fill(PartialStatsPayload stats, CorpusCache cache) {
+        Map<String, LatencyHistogram> snapshots = new HashMap<>();
+        for (Map.Entry<RequestType, LatencyRecorder> entry : latencies.entrySet()) {
+            LatencyHistogram histogram = entry.getValue().snapshot();
+            if (histogram.getTotalCount() > 0) {
+                snapshots.put(entry.getKey().name(), histogram);
+            }
+        }
+        stats.setLatencies(snapshots);
+        stats.setQueueWait(queueWait.snapshot());
+        stats.setFilesScanned(filesScanned.sum());
+        stats.setBytesScanned(bytesScanned.sum());
+        if (cache != null) {
+            stats.setCacheHits(cache.getHits());
+            stats.setCacheMisses(cache.getMisses());
+        }
+        stats.setWindows(windows.snapshot());
+    }
+
+    void writeTo(MetricsText out, CorpusCache cache) {
+        out.family("worker_request_duration_seconds", "histogram",
+                   "Time from picking up a request to its confirmed response");
+        for (Map.Entry<RequestType, LatencyRecorder> entry : latencies.entrySet()) {
+            out.histogram("worker_request_duration_seconds", entry.getValue(), "type", entry.getKey().name());
+        }
+        out.family("worker_queue_wait_seconds", "histogram", "Time requests spent in the broker queue")
+           .histogram("worker_queue_wait_seconds", queueWait);
+
+        out.family("worker_request_phase_seconds", "histogram", "Duration of the phases of handling a request");
+        for (Map.Entry<String, LatencyRecorder> entry : new TreeMap<>(requestPhases).entrySet()) {
+            out.histogram("worker_request_phase_seconds", entry.getValue(), "phase", entry.getKey());
+        }
+        out.family("worker_search_phase_seconds", "histogram", "Duration of the phases of a search")
+           .histogram("worker_search_phase_seconds", searchListPhase, "phase", "list")
+           .histogram("worker_search_phase_seconds", searchScanPhase, "phase", "scan");
+        out.family("worker_search_files_scanned_total", "counter", "Files read and matched by searches")
+           .sample("worker_search_files_scanned_total", filesScanned.sum());
+        out.family("worker_search_bytes_scanned_total", "counter", "Bytes read and matched by searches")
+           .sample("worker_search_bytes_scanned_total", bytesScanned.sum());
+
+        out.family("worker_cache_hits_total", "counter", "Corpus cache hits (file contents and search results)")
+           .sample("worker_cache_hits_total", cache.getHits());
+        out.family("worker_cache_misses_total", "counter", "Corpus cache misses")
+           .sample("worker_cache_misses_total", cache.getMisses());
+        out.family("worker_cache_content_bytes", "gauge", "File contents and search results held in the corpus cache")
+           .sample("worker_cache_content_bytes", cache.getContentBytes());
+
+        out.family("worker_publish_confirm_seconds", "histogram", "Time from publishing a response to its confirm")
+           .histogram("worker_publish_confirm_seconds", publishConfirm);
+        out.family("worker_publish_failures_total", "counter", "Responses nacked or not confirmed")
+           .sample("worker_publish_failures_total", publishFailures.sum());
+
+        writeWindows(out, windows.snapshot());
+    }
+
+    private static void writeWindows(MetricsText out, List<WindowStats> snapshot) {
+        out.family("worker_window_requests_per_second", "gauge", "Completed requests per second over a recent window");
+        for (WindowStats window : snapshot) {
+            for (RequestType type : RequestType.values()) {
+                long requests = window.getRequests().getOrDefault(type.name(), 0L);
+                double rate = window.getSpanMillis() > 0 ? requests * 1000.0 / window.getSpanMillis() : 0;
+                out.sample("worker_window_requests_per_second", rate,
+                           "type", type.name(), "window", windowLabel(window));
+            }
+        }
+        out.family("worker_window_error_ratio", "gauge", "Share of requests not completed OK over a recent window");
+        for (WindowStats window : snapshot) {
+            for (RequestType type : RequestType.values()) {
+                long requests = window.getRequests().getOrDefault(type.name(), 0L);
+                long errors = window.getErrors().getOrDefault(type.name(), 0L);
+                out.sample("worker_window_error_ratio", requests == 0 ? 0 : (double) errors / requests,
+                           "type", type.name(), "window", windowLabel(window));
+            }
+        }
+        out.family("worker_window_request_duration_seconds", "gauge",
+                   "Request duration quantiles over a recent window");
+        for (WindowStats window : snapshot) {
+            for (Map.Entry<String, LatencyHistogram> entry : window.getLatencies().entrySet()) {
+                for (double quantile : new double[] {0.5, 0.95, 0.99}) {
+                    long micros = entry.getValue().getValueAtPercentile(quantile * 100);
+                    out.sample("worker_window_request_duration_seconds", micros / 1e6,
+                               "type", entry.getKey(), "window", windowLabel(window),
+                               "quantile", Double.toString(quantile));
+                }
+            }
+        }
+    }
+
+    private static String windowLabel(WindowStats window) {
+        return window.getWindowSeconds() / 60 + "m";
+    }
+}
@@ -0,0 +1,368 @@
+package pt.isel.cd.worker;
+
+import pt.isel.cd.common.codec.Codecs;
+import pt.isel.cd.common.config.RequestLane;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tunable settings for a Worker instance.
+ * Defaults match a single worker per VM; override via command line or environment.
+ */
+public class WorkerOptions {
+
+    /**
+     * How request processing tasks are executed.
+     */
+    public enum ExecutorMode {
+        /** One virtual thread per request, bounded by the concurrency limit. */
+        VIRTUAL,
+        /** Fixed pool of platform threads sized to the concurrency limit. */
+        PLATFORM
+    }
+
+    /**
+     * What to do with a request that waited in the queue longer than the admission threshold.
+     */
+    public enum AdmissionPolicy {
+        /** Process every request regardless of queue wait. */
+        NONE,
+        /** Reply BUSY immediately without processing. */
+        SHED,
+        /** Move it once behind the requests queued after it, then process it. */
+        DEPRIORITIZE
+    }
+
+    // Bulk lane (SEARCH)
+    private int concurrency = Runtime.getRuntime().availableProcessors();
+    private int prefetch = 0;  // 0 = same as concurrency
+    
+    // Interactive lane (GET_FILE, GET_STATS)
+    private int interactiveConcurrency = 2;
+    private int interactivePrefetch = 0;  // 0 = same as interactiveConcurrency
+    
+    // Adaptive prefetch bounds (apply to every lane)
+    private boolean adaptivePrefetch = true;
+    private int minPrefetch = 1;
+    private int maxPrefetch = 0;  // 0 = 4 x lane concurrency
+    
+    // Failed requests: attempts before dead-lettering, backoff before the first retry
+    private int maxAttempts = 4;
+    private long retryDelayMillis = 1000;
+    
+    // Admission control on queue wait (measured from the client's publish time); opt-in because
+    // clients that predate BUSY do not understand it. Requests without a publish time are admitted.
+    private AdmissionPolicy admissionPolicy = AdmissionPolicy.NONE;
+    private long maxQueueWaitMillis = 20000;
+    
+    // Sharded topology: shard queues per lane (0 = off) and the ones consumed here (empty = split
+    // among the members of the group)
+    private int shardCount = 0;
+    private List<Integer> shardIds = Collections.emptyList();
+    
+    private long cacheBytes = 64L * 1024 * 1024;
+    
+    // Statistics replicated by gossip and answered locally (0 = collected by the coordinator on demand)
+    private long statsGossipMillis = 0;
+    
+    // Simulated Spread: presence heartbeats feeding the failure detector (0 = off)
+    private long heartbeatMillis = 0;
+    
+    // Announcements and gossip sent within this window are coalesced per destination (0 = off)
+    private long spreadBatchMillis = 0;
+    private String spreadFormat = "json";  // wire format of sent Spread messages (json | binary)
+    
+    private int metricsPort = 0;  // Prometheus endpoint (0 = off)
+    private String traceFile;     // JSON lines span export (null = off)
+    
+    private ExecutorMode executorMode = ExecutorMode.VIRTUAL;
+    private int publisherChannels = 4;
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public void setConcurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be >= 1");
+        }
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Number of unacknowledged deliveries the broker may push to this worker.
+     */
+    public int getPrefetch() {
+        return prefetch > 0 ? prefetch : concurrency;
+    }
+
+    public void setPrefetch(int prefetch) {
+        if (prefetch < 0) {
+            throw new IllegalArgumentException("prefetch must be >= 0");
+        }
+        this.prefetch = prefetch;
+    }
+
+    public int getInteractiveConcurrency() {
+        return interactiveConcurrency;
+    }
+
+    public void setInteractiveConcurrency(int interactiveConcurrency) {
+        if (interactiveConcurrency < 1) {
+            throw new IllegalArgumentException("interactive concurrency must be >= 1");
+        }
+        this.interactiveConcurrency = interactiveConcurrency;
+    }
+
+    public int getInteractivePrefetch() {
+        return interactivePrefetch > 0 ? interactivePrefetch : interactiveConcurrency;
+    }
+
+    public void setInteractivePrefetch(int interactivePrefetch) {
+        if (interactivePrefetch < 0) {
+            throw new IllegalArgumentException("interactive prefetch must be >= 0");
+        }
+        this.interactivePrefetch = interactivePrefetch;
+    }
+
+    /**
+     * Concurrency limit of a lane.
+     */
+    public int getConcurrency(RequestLane lane) {
+        return lane == RequestLane.INTERACTIVE ? getInteractiveConcurrency() : getConcurrency();
+    }
+
+    /**
+     * Prefetch of a lane.
+     */
+    public int getPrefetch(RequestLane lane) {
+        return lane == RequestLane.INTERACTIVE ? getInteractivePrefetch() : getPrefetch();
+    }
+
+    /**
+     * Whether each lane adjusts its prefetch to observed service and wait times.
+     */
+    public boolean isAdaptivePrefetch() {
+        return adaptivePrefetch;
+    }
+
+    public void setAdaptivePrefetch(boolean adaptivePrefetch) {
+        this.adaptivePrefetch = adaptivePrefetch;
+    }
+
+    public int getMinPrefetch() {
+        return minPrefetch;
+    }
+
+    public void setMinPrefetch(int minPrefetch) {
+        if (minPrefetch < 1) {
+            throw new IllegalArgumentException("min prefetch must be >= 1");
+        }
+        this.minPrefetch = minPrefetch;
+    }
+
+    public void setMaxPrefetch(int maxPrefetch) {
+        if (maxPrefetch < 0) {
+            throw new IllegalArgumentException("max prefetch must be >= 0");
+        }
+        this.maxPrefetch = maxPrefetch;
+    }
+
+    /**
+     * Upper bound of the adaptive prefetch of a lane (never below the minimum or the initial prefetch).
+     */
+    public int getMaxPrefetch(RequestLane lane) {
+        int max = maxPrefetch > 0 ? maxPrefetch : 4 * getConcurrency(lane);
+        return Math.max(max, minPrefetch);
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public void setMaxAttempts(int maxAttempts) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("max attempts must be >= 1");
+        }
+        this.maxAttempts = maxAttempts;
+    }
+
+    public long getRetryDelayMillis() {
+        return retryDelayMillis;
+    }
+
+    public void setRetryDelayMillis(long retryDelayMillis) {
+        if (retryDelayMillis < 1) {
+            throw new IllegalArgumentException("retry delay must be >= 1 ms");
+        }
+        this.retryDelayMillis = retryDelayMillis;
+    }
+
+    public AdmissionPolicy getAdmissionPolicy() {
+        return admissionPolicy;
+    }
+
+    public void setAdmissionPolicy(AdmissionPolicy admissionPolicy) {
+        this.admissionPolicy = admissionPolicy;
+    }
+
+    public long getMaxQueueWaitMillis() {
+        return maxQueueWaitMillis;
+    }
+
+    public void setMaxQueueWaitMillis(long maxQueueWaitMillis) {
+        if (maxQueueWaitMillis < 0) {
+            throw new IllegalArgumentException("max queue wait must be >= 0");
+        }
+        this.maxQueueWaitMillis = maxQueueWaitMillis;
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    public void setShardCount(int shardCount) {
+        if (shardCount < 0) {
+            throw new IllegalArgumentException("shard count must be >= 0");
+        }
+        this.shardCount = shardCount;
+    }
+
+    /**
+     * Shards configured for this worker; empty if the shards are split among the members
+     * of the group (see {@link ShardAssignment}).
+     */
+    public List<Integer> getShardIds() {
+        if (shardCount == 0) {
+            return Collections.emptyList();
+        }
+        return shardIds;
+    }
+
+    public void setShardIds(List<Integer> shardIds) {
+        this.shardIds = new ArrayList<>(shardIds);
+    }
+
+    public long getCacheBytes() {
+        return cacheBytes;
+    }
+
+    public void setCacheBytes(long cacheBytes) {
+        if (cacheBytes < 0) {
+            throw new IllegalArgumentException("cache size must be >= 0");
+        }
+        this.cacheBytes = cacheBytes;
+    }
+
+    public long getStatsGossipMillis() {
+        return statsGossipMillis;
+    }
+
+    public void setStatsGossipMillis(long statsGossipMillis) {
+        if (statsGossipMillis < 0) {
+            throw new IllegalArgumentException("stats gossip interval must be >= 0");
+        }
+        this.statsGossipMillis = statsGossipMillis;
+    }
+
+    public long getHeartbeatMillis() {
+        return heartbeatMillis;
+    }
+
+    public void setHeartbeatMillis(long heartbeatMillis) {
+        if (heartbeatMillis < 0) {
+            throw new IllegalArgumentException("heartbeat interval must be >= 0");
+        }
+        this.heartbeatMillis = heartbeatMillis;
+    }
+
+    public long getSpreadBatchMillis() {
+        return spreadBatchMillis;
+    }
+
+    public void setSpreadBatchMillis(long spreadBatchMillis) {
+        if (spreadBatchMillis < 0) {
+            throw new IllegalArgumentException("spread batch window must be >= 0");
+        }
+        this.spreadBatchMillis = spreadBatchMillis;
+    }
+
+    public String getSpreadFormat() {
+        return spreadFormat;
+    }
+
+    public void setSpreadFormat(String spreadFormat) {
+        Codecs.byName(spreadFormat);  // validates the name
+        this.spreadFormat = spreadFormat.trim().toLowerCase();
+    }
+
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    public void setMetricsPort(int metricsPort) {
+        if (metricsPort < 0 || metricsPort > 65535) {
+            throw new IllegalArgumentException("metrics port must be in [0, 65535]");
+        }
+        this.metricsPort = metricsPort;
+    }
+
+    public String getTraceFile() {
+        return traceFile;
+    }
+
+    public void setTraceFile(String traceFile) {
+        this.traceFile = traceFile != null && !traceFile.isEmpty() ? traceFile : null;
+    }
+
+    public ExecutorMode getExecutorMode() {
+        return executorMode;
+    }
+
+    public void setExecutorMode(ExecutorMode executorMode) {
+        this.executorMode = executorMode;
+    }
+
+    /**
+     * Number of channels used to publish responses.
+     */
+    public int getPublisherChannels() {
+        return publisherChannels;
+    }
+
+    public void setPublisherChannels(int publisherChannels) {
+        if (publisherChannels < 1) {
+            throw new IllegalArgumentException("publisher channels must be >= 1");
+        }
+        this.publisherChannels = publisherChannels;
+    }
+
+    @Override
+    public String toString() {
+        return "WorkerOptions{" +
+                "concurrency=" + concurrency +
+                ", prefetch=" + getPrefetch() +
+                ", interactiveConcurrency=" + interactiveConcurrency +
+                ", interactivePrefetch=" + getInteractivePrefetch() +
+                ", adaptivePrefetch=" + adaptivePrefetch +
+                ", minPrefetch=" + minPrefetch +
+                ", maxPrefetch=" + (maxPrefetch > 0 ? String.valueOf(maxPrefetch) : "4x") +
+                ", maxAttempts=" + maxAttempts +
+                ", retryDelayMillis=" + retryDelayMillis +
+                ", admissionPolicy=" + admissionPolicy +
+                ", maxQueueWaitMillis=" + maxQueueWaitMillis +
+                ", shards=" + (shardCount > 0 ? (shardIds.isEmpty() ? "group" : shardIds) + "/" + shardCount : "off") +
+                ", cacheBytes=" + cacheBytes +
+                ", statsGossipMillis=" + statsGossipMillis +
+                ", heartbeatMillis=" + heartbeatMillis +
+                ", spreadBatchMillis=" + spreadBatchMillis +
+                ", spreadFormat=" + spreadFormat +
+                ", metricsPort=" + metricsPort +
+                ", traceFile=" + (traceFile != null ? traceFile : "off") +
+                ", executorMode=" + executorMode +
+                ", publisherChannels=" + publisherChannels +
+                '}';
+    }
+}
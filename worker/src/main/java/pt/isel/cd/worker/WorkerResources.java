@@ -0,0 +1,142 @@
+package pt.isel.cd.worker;
+
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import pt.isel.cd.common.config.RequestLane;
+import pt.isel.cd.common.util.SpanExporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * What a worker runs on besides its own state: the broker connection and response
+ * publishers, the corpus and its cache, the request executor and the span exporter.
+ * A standalone worker owns its resources; workers colocated in one JVM share a single
+ * set (see {@link ColocatedWorkers}), so N workers cost one connection, one cache and
+ * one pool of request threads, and run at most the configured concurrency per lane
+ * between them, as a single worker would.
+ */
+class WorkerResources {
+    private static final Logger logger = LoggerFactory.getLogger(WorkerResources.class);
+    private static final int RESPONSE_DRAIN_TIMEOUT_SECONDS = 10;
+    private static final int CACHED_SEARCHES_CAPACITY = 1024;
+
+    final Connection connection;
+    final PublisherPool publisherPool;
+    final Path sharedFilesPath;
+    final CorpusCache corpusCache;
+    final ExecutorService requestExecutor;
+    final Map<RequestLane, Semaphore> laneLimits = new EnumMap<>(RequestLane.class);
+    final SpanExporter spanExporter;  // null = spans are not exported
+    private final String name;
+    private final boolean shared;
+    private final AtomicBoolean cacheReported = new AtomicBoolean(false);
+
+    /**
+     * @param name    worker id, or the id prefix of colocated workers (names threads and logs)
+     * @param workers number of workers that will share these resources
+     */
+    WorkerResources(String name, String rabbitMqHost, int rabbitMqPort, String sharedFilesDir,
+                    WorkerOptions options, int workers) throws IOException, TimeoutException {
+        this(name, connect(rabbitMqHost, rabbitMqPort), sharedFilesDir, options, workers);
+    }
+
+    /**
+     * Resources on an open broker connection, which {@link #close()} closes.
+     */
+    WorkerResources(String name, Connection connection, String sharedFilesDir, WorkerOptions options,
+                    int workers) throws IOException {
+        this.name = name;
+        this.connection = connection;
+        this.shared = workers > 1;
+        this.sharedFilesPath = Paths.get(sharedFilesDir);
+        this.corpusCache = new CorpusCache(options.getCacheBytes(), CACHED_SEARCHES_CAPACITY);
+        this.requestExecutor = createRequestExecutor(name, options);
+        for (RequestLane lane : RequestLane.values()) {
+            laneLimits.put(lane, new Semaphore(options.getConcurrency(lane)));
+        }
+
+        // Responses are published on a small pool of confirm-mode channels
+        publisherPool = new PublisherPool(name, connection, options.getPublisherChannels());
+        spanExporter = options.getTraceFile() != null ? new SpanExporter(Paths.get(options.getTraceFile())) : null;
+    }
+
+    private static Connection connect(String rabbitMqHost, int rabbitMqPort) throws IOException, TimeoutException {
+        ConnectionFactory factory = new ConnectionFactory();
+        factory.setHost(rabbitMqHost);
+        factory.setPort(rabbitMqPort);
+        return factory.newConnection();
+    }
+
+    private static ExecutorService createRequestExecutor(String name, WorkerOptions options) {
+        if (options.getExecutorMode() == WorkerOptions.ExecutorMode.PLATFORM) {
+            // Enough threads for every lane to run at its full concurrency (shared by colocated workers)
+            int poolSize = 0;
+            for (RequestLane lane : RequestLane.values()) {
+                poolSize += options.getConcurrency(lane);
+            }
+            AtomicInteger threadCount = new AtomicInteger(0);
+            return Executors.newFixedThreadPool(poolSize, r -> {
+                Thread t = new Thread(r, name + "-request-" + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name(name + "-request-", 1).factory());
+    }
+
+    /**
+     * Shared by colocated workers (who then must not close it themselves).
+     */
+    boolean isShared() {
+        return shared;
+    }
+
+    /**
+     * Whether the caller should report the cache counters. Only the first worker asking
+     * does, so a shared cache is not counted once per worker in aggregated statistics.
+     */
+    boolean claimCacheReporting() {
+        return cacheReported.compareAndSet(false, true);
+    }
+
+    /**
+     * Let in-flight requests finish, then give their responses a chance to be confirmed
+     * so the requests get acked. Consumers must have been cancelled first.
+     */
+    void drain() throws IOException, InterruptedException {
+        requestExecutor.shutdown();
+        if (!requestExecutor.awaitTermination(RESPONSE_DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            logger.warn("Worker [{}] in-flight requests did not finish within {} s",
+                        name, RESPONSE_DRAIN_TIMEOUT_SECONDS);
+            requestExecutor.shutdownNow();
+        }
+        publisherPool.close(TimeUnit.SECONDS.toMillis(RESPONSE_DRAIN_TIMEOUT_SECONDS));
+    }
+
+    /**
+     * Close the span exporter and the connection (after {@link #drain()} and after the
+     * workers have released their channels).
+     */
+    void close() throws IOException {
+        if (spanExporter != null) {
+            spanExporter.close();
+        }
+        if (connection != null && connection.isOpen()) {
+            connection.close();
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package pt.isel.cd.worker.spread;
+
+import pt.isel.cd.common.model.SpreadBatchPayload;
+import pt.isel.cd.common.model.SpreadMessage;
+import pt.isel.cd.common.model.SpreadMessageType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Unbatches BATCH messages on receipt and, with a batch window, coalesces the frequent
+ * messages another adapter sends within that window into one BATCH message per destination.
+ *
+ * Every transport message costs a reliable Spread or AMQP publish, so bursts of completion
+ * announcements under load and gossip are sent as a few frames instead. A message is never
+ * reordered with respect to any receiver: it joins the open frame of its destination only
+ * if no frame opened after it reaches one of the same receivers (a multicast reaches
+ * everyone), otherwise a new frame is opened; frames are sent in the order they were
+ * opened, one flush at a time. A frame holding a single message is sent as that message,
+ * unwrapped.
+ *
+ * Coalesced messages are sent asynchronously: their transport failures are logged and
+ * counted here. Every other message (elections, stats rounds) flushes the open frames and
+ * is sent at once on the caller's thread, so it is not delayed and its failure is thrown
+ * to the caller. Without a batch window every message is sent that way.
+ */
+public class BatchingSpreadAdapter implements SpreadAdapter {
+    private static final Logger logger = LoggerFactory.getLogger(BatchingSpreadAdapter.class);
+
+    public static final int DEFAULT_MAX_BATCH = 64;
+
+    // Frequent messages nobody waits on
+    private static final Set<SpreadMessageType> BATCHED_TYPES = EnumSet.of(
+        SpreadMessageType.REQUEST_COMPLETED, SpreadMessageType.STATS_GOSSIP, SpreadMessageType.WORKER_PRESENCE);
+
+    private final SpreadAdapter delegate;
+    private final long lingerMillis;
+    private final int maxBatch;
+    private final List<Consumer<SpreadMessage>> messageListeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService flusher;  // null = no batch window
+
+    private final Object lock = new Object();
+    private final List<Frame> openFrames = new ArrayList<>();  // in the order they were opened
+    private boolean flushScheduled = false;
+    private final Object sendLock = new Object();
+
+    private final LongAdder framesSent = new LongAdder();
+    private final LongAdder messagesSent = new LongAdder();
+    private final LongAdder sendErrors = new LongAdder();
+
+    /**
+     * @param lingerMillis how long the first message of a frame waits for others
+     *                     (0 = send every message on its own, only unbatch on receipt)
+     * @param maxBatch     messages per frame; a full frame is sent at once
+     */
+    public BatchingSpreadAdapter(SpreadAdapter delegate, long lingerMillis, int maxBatch) {
+        if (lingerMillis < 0) {
+            throw new IllegalArgumentException("batch window must be >= 0 ms");
+        }
+        if (maxBatch < 1) {
+            throw new IllegalArgumentException("batch size must be >= 1");
+        }
+        this.delegate = delegate;
+        this.lingerMillis = lingerMillis;
+        this.maxBatch = maxBatch;
+        this.flusher = lingerMillis == 0 ? null : Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "spread-batch-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        delegate.addMessageListener(this::receive);
+    }
+
+    @Override
+    public void multicast(SpreadMessage message) throws Exception {
+        send(null, message);
+    }
+
+    @Override
+    public void sendTo(String targetMemberId, SpreadMessage message) throws Exception {
+        send(targetMemberId, message);
+    }
+
+    /**
+     * @param target member id, or null for a multicast
+     */
+    private void send(String target, SpreadMessage message) throws Exception {
+        if (flusher != null && BATCHED_TYPES.contains(message.getType())) {
+            enqueue(target, message);
+            return;
+        }
+        message.setTimestamp(System.currentTimeMillis());
+        synchronized (sendLock) {
+            sendOpenFrames();  // earlier messages to the same receivers go first
+            transmit(target, message, 1);
+        }
+    }
+
+    /**
+     * @param target member id, or null for a multicast
+     */
+    private void enqueue(String target, SpreadMessage message) {
+        message.setTimestamp(System.currentTimeMillis());
+        boolean full;
+        synchronized (lock) {
+            Frame frame = openFrame(target);
+            frame.messages.add(message);
+            full = frame.messages.size() >= maxBatch;
+            if (!full && !flushScheduled) {
+                flushScheduled = true;
+                flusher.schedule(this::flush, lingerMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (full) {
+            flush();
+        }
+    }
+
+    /**
+     * The open frame a message to target can join without overtaking an earlier message
+     * to any of its receivers, or a new one.
+     */
+    private Frame openFrame(String target) {
+        for (int i = openFrames.size() - 1; i >= 0; i--) {
+            Frame frame = openFrames.get(i);
+            if (Objects.equals(frame.target, target)) {
+                if (frame.messages.size() < maxBatch) {
+                    return frame;
+                }
+                break;
+            }
+            if (frame.target == null || target == null) {
+                break;  // a later frame reaches the same receiver
+            }
+        }
+        Frame frame = new Frame(target);
+        openFrames.add(frame);
+        return frame;
+    }
+
+    /**
+     * Send the open frames. Flushes are serialized so frames leave in the order they were opened.
+     */
+    public void flush() {
+        synchronized (sendLock) {
+            sendOpenFrames();
+        }
+    }
+
+    private void sendOpenFrames() {
+        List<Frame> frames;
+        synchronized (lock) {
+            if (openFrames.isEmpty()) {
+                return;
+            }
+            frames = new ArrayList<>(openFrames);
+            openFrames.clear();
+            flushScheduled = false;
+        }
+        for (Frame frame : frames) {
+            send(frame);
+        }
+    }
+
+    private void send(Frame frame) {
+        SpreadMessage message = frame.messages.size() == 1
+            ? frame.messages.get(0)
+            : new SpreadMessage(SpreadMessageType.BATCH, frame.messages.get(0).getSenderId(),
+                                new SpreadBatchPayload(frame.messages));
+        try {
+            transmit(frame.target, message, frame.messages.size());
+        } catch (Exception e) {
+            sendErrors.add(frame.messages.size());
+            logger.warn("Failed to send {} Spread message(s) to [{}]: {}", frame.messages.size(),
+                        frame.target != null ? frame.target : "group", e.getMessage());
+        }
+    }
+
+    private void transmit(String target, SpreadMessage message, int messages) throws Exception {
+        if (target == null) {
+            delegate.multicast(message);
+        } else {
+            delegate.sendTo(target, message);
+        }
+        framesSent.increment();
+        messagesSent.add(messages);
+    }
+
+    private void receive(SpreadMessage message) {
+        if (message.getType() == SpreadMessageType.BATCH && message.getPayload() instanceof SpreadBatchPayload) {
+            for (SpreadMessage inner : ((SpreadBatchPayload) message.getPayload()).getMessages()) {
+                if (inner.getSenderId() == null) {
+                    inner.setSenderId(message.getSenderId());
+                }
+                deliver(inner);
+            }
+        } else {
+            deliver(message);
+        }
+    }
+
+    private void deliver(SpreadMessage message) {
+        for (Consumer<SpreadMessage> listener : messageListeners) {
+            try {
+                listener.accept(message);
+            } catch (Exception e) {
+                logger.error("Error in message listener", e);
+            }
+        }
+    }
+
+    /**
+     * Transport messages sent (a frame carries one or more messages).
+     */
+    public long getFramesSent() {
+        return framesSent.sum();
+    }
+
+    public long getMessagesSent() {
+        return messagesSent.sum();
+    }
+
+    /**
+     * Coalesced messages that failed to send (the others fail on their caller).
+     */
+    public long getSendErrors() {
+        return sendErrors.sum();
+    }
+
+    @Override
+    public void addMessageListener(Consumer<SpreadMessage> listener) {
+        messageListeners.add(listener);
+    }
+
+    @Override
+    public void removeMessageListener(Consumer<SpreadMessage> listener) {
+        messageListeners.remove(listener);
+    }
+
+    @Override
+    public void addMembershipListener(Consumer<Set<String>> listener) {
+        delegate.addMembershipListener(listener);
+    }
+
+    @Override
+    public void removeMembershipListener(Consumer<Set<String>> listener) {
+        delegate.removeMembershipListener(listener);
+    }
+
+    @Override
+    public Set<String> getGroupMembers() {
+        return delegate.getGroupMembers();
+    }
+
+    @Override
+    public void close() throws Exception {
+        flush();
+        if (flusher != null) {
+            flusher.shutdownNow();
+        }
+        delegate.close();
+    }
+
+    private static class Frame {
+        final String target;  // null = multicast
+        final List<SpreadMessage> messages = new ArrayList<>();
+
+        Frame(String target) {
+            this.target = target;
+        }
+    }
+}
@@ -1,52 +1,75 @@
 package pt.isel.cd.worker.spread;
 
-import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.AMQP;
+import pt.isel.cd.common.codec.Codecs;
+import pt.isel.cd.common.codec.MessageCodec;
+import pt.isel.cd.common.config.QueueConfig;
 import pt.isel.cd.common.model.*;
 import pt.isel.cd.common.util.JsonUtil;
+import pt.isel.cd.common.util.RequestTrace;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Manages leader election among workers using Spread group communication.
+ * Chooses the statistics coordinator and runs the stats collection.
  * 
- * Algorithm (from structure.md):
- * 1. Worker receiving GET_STATS request initiates election
- * 2. Multicasts STATS_ELECTION with (epoch, uptime, workerId)
- * 3. Workers compare and vote for highest priority candidate
- * 4. Priority: highest uptime, then lexicographic workerId
- * 5. Candidate with majority becomes coordinator
- * 6. Coordinator collects partial stats and aggregates
+ * The coordinator is derived from the Spread membership view instead of being elected
+ * per request: every member sees the same view, so every member independently picks the
+ * same coordinator (the lowest member id) without exchanging a message. The choice is kept
+ * until the view changes. A worker receiving GET_STATS forwards it to the coordinator
+ * (STATS_FORWARD, point-to-point), which collects partial stats from all members and
+ * answers the client directly. If the coordinator does not report completion in time
+ * (e.g. it failed and the view has not caught up yet), the forwarding worker collects
+ * the stats itself.
+ * 
+ * Votes and announcements of the previous per-request election protocol are still
+ * answered, so workers running older versions can share the group during an upgrade.
+ * 
+ * The trace context of the GET_STATS request travels with the forward and the stats
+ * requests; the coordinator times its collection as a span of that trace.
  */
 public class ElectionManager {
     private static final Logger logger = LoggerFactory.getLogger(ElectionManager.class);
     
-    private static final int ELECTION_TIMEOUT_MS = 3000;  // 3 seconds for election
     private static final int STATS_COLLECTION_TIMEOUT_MS = 2000;  // 2 seconds to collect stats
+    private static final int FORWARD_TIMEOUT_MS = STATS_COLLECTION_TIMEOUT_MS + 2000;  // then coordinate locally
     
     private final String workerId;
     private final SpreadAdapter spread;
-    private final Channel rabbitChannel;
+    private final ResponseSender responseSender;
     private final long startTime;
     
-    private final AtomicLong electionEpoch = new AtomicLong(0);
-    private final Map<Long, ElectionState> activeElections = new ConcurrentHashMap<>();
+    private final AtomicLong collectionSequence = new AtomicLong(0);
     private final Set<Long> processedAnnouncements = ConcurrentHashMap.newKeySet();
+    private final Object viewLock = new Object();
+    private volatile View view;
+    
+    // GET_STATS forwarded to the coordinator, with the fallback scheduled for each
+    private final Map<String, ScheduledFuture<?>> forwardedRequests = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService forwardTimeouts;
     
     // Statistics providers
     private StatsProvider localStatsProvider;
+    private SpanSink spanSink;
     
-    public ElectionManager(String workerId, SpreadAdapter spread, Channel rabbitChannel) {
+    public ElectionManager(String workerId, SpreadAdapter spread, ResponseSender responseSender) {
         this.workerId = workerId;
         this.spread = spread;
-        this.rabbitChannel = rabbitChannel;
+        this.responseSender = responseSender;
         this.startTime = System.currentTimeMillis();
+        this.view = new View(0, viewMembers(spread.getGroupMembers()));
+        this.forwardTimeouts = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, workerId + "-stats-forward");
+            thread.setDaemon(true);
+            return thread;
+        });
         
-        // Listen for election messages
+        // Listen for membership changes and coordination messages
+        spread.addMembershipListener(this::handleMembershipChange);
         spread.addMessageListener(this::handleSpreadMessage);
     }
     
@@ -54,50 +77,134 @@ public class ElectionManager {
         this.localStatsProvider = provider;
     }
     
+    public void setSpanSink(SpanSink sink) {
+        this.spanSink = sink;
+    }
+    
     /**
-     * Initiate election to determine coordinator for statistics aggregation.
-     * The election winner will send the response directly to the client.
+     * Current statistics coordinator (the lowest member id of the current view).
      */
-    public void initiateElection(String requestId, String clientQueue) {
-        long epoch = System.currentTimeMillis() * 1000 + (long)(Math.random() * 1000); // Globally unique epoch
-        long uptime = System.currentTimeMillis() - startTime;
+    public String getCoordinator() {
+        return view.coordinator();
+    }
+    
+    /**
+     * Have the coordinator of the current view aggregate statistics for a GET_STATS request.
+     * The coordinator sends the response directly to the client, in the given wire format
+     * (null = JSON).
+     * 
+     * @param trace trace context of the request (null = untraced)
+     */
+    public void requestStats(String requestId, String clientQueue, String replyContentType, TraceContext trace) {
+        View current = view;
+        String coordinator = current.coordinator();
+        if (coordinator.equals(workerId)) {
+            collectAndAggregateStats(collectionSequence.incrementAndGet(), requestId, clientQueue, 
+                                     replyContentType, false, trace);
+            return;
+        }
         
-        ElectionState state = new ElectionState(epoch, requestId, clientQueue);
-        activeElections.put(epoch, state);
+        logger.info("Worker [{}] forwarding stats request={} to coordinator [{}] (view {})", 
+                   workerId, requestId, coordinator, current.id);
+        CoordinatorAnnouncePayload forward = new CoordinatorAnnouncePayload(
+            current.id, coordinator, requestId, clientQueue);
+        forward.setReplyContentType(replyContentType);
         
-        logger.info("Worker [{}] initiating election epoch={} for request={}", 
-                   workerId, epoch, requestId);
+        // Registered before sending: the completion notice may arrive before sendTo returns
+        forwardedRequests.put(requestId, forwardTimeouts.schedule(() -> {
+            if (forwardedRequests.remove(requestId) != null) {
+                logger.warn("Worker [{}] coordinator [{}] did not answer stats request={}, collecting locally",
+                           workerId, coordinator, requestId);
+                collectAndAggregateStats(collectionSequence.incrementAndGet(), requestId, clientQueue, 
+                                         replyContentType, false, trace);
+            }
+        }, FORWARD_TIMEOUT_MS, TimeUnit.MILLISECONDS));
         
         try {
-            // Multicast election message
-            ElectionPayload payload = new ElectionPayload(workerId, epoch, uptime, requestId, clientQueue);
-            SpreadMessage message = new SpreadMessage(SpreadMessageType.STATS_ELECTION, workerId, payload);
-            spread.multicast(message);
-            
-            // Self-vote
-            state.recordVote(workerId, workerId, true);
-            
+            SpreadMessage message = new SpreadMessage(SpreadMessageType.STATS_FORWARD, workerId, forward);
+            message.setTrace(trace);
+            spread.sendTo(coordinator, message);
         } catch (Exception e) {
-            logger.error("Error initiating election", e);
-            state.result.completeExceptionally(e);
+            logger.error("Worker [{}] failed to forward stats request={} to [{}], collecting locally", 
+                        workerId, requestId, coordinator, e);
+            ScheduledFuture<?> fallback = forwardedRequests.remove(requestId);
+            if (fallback != null) {
+                fallback.cancel(false);
+                collectAndAggregateStats(collectionSequence.incrementAndGet(), requestId, clientQueue, 
+                                         replyContentType, false, trace);
+            }
+        }
+    }
+    
+    /**
+     * Stop the forward timers.
+     */
+    public void close() {
+        forwardTimeouts.shutdownNow();
+    }
+    
+    private void handleMembershipChange(Set<String> members) {
+        synchronized (viewLock) {
+            List<String> updated = viewMembers(members);
+            if (updated.equals(view.members)) {
+                return;
+            }
+            String previousCoordinator = view.coordinator();
+            view = new View(view.id + 1, updated);
+            if (!previousCoordinator.equals(view.coordinator())) {
+                logger.info("Worker [{}] view {} ({} members): coordinator [{}] -> [{}]", 
+                           workerId, view.id, updated.size(), previousCoordinator, view.coordinator());
+            } else {
+                logger.info("Worker [{}] view {} ({} members): coordinator [{}]", 
+                           workerId, view.id, updated.size(), view.coordinator());
+            }
         }
     }
     
+    /**
+     * Sorted members of a view, always including this worker.
+     */
+    private List<String> viewMembers(Set<String> members) {
+        TreeSet<String> sorted = new TreeSet<>(members);
+        sorted.add(workerId);
+        return new ArrayList<>(sorted);
+    }
+    
     /**
      * Collect partial stats from all workers and aggregate.
      * Sends response directly to client queue.
+     * The round ends as soon as every member still in the view has answered: members
+     * that leave or are suspected failed while it runs are no longer waited for.
      */
-    private void collectAndAggregateStats(long epoch, String requestId, String clientQueue) {
+    private void collectAndAggregateStats(long epoch, String requestId, String clientQueue, String replyContentType,
+                                          boolean forwarded, TraceContext trace) {
         logger.info("Worker [{}] is coordinator for epoch={}. Collecting stats...", workerId, epoch);
+        MessageCodec codec = Codecs.forContentType(replyContentType);
+        RequestTrace collection = new RequestTrace(workerId, "stats.coordinate", trace, System.nanoTime());
+        collection.setRequestId(requestId);
         
         // Run in separate thread to avoid blocking the RabbitMQ consumer thread
         new Thread(() -> {
+            long collectStartNanos = System.nanoTime();
             try {
+                Map<String, PartialStatsPayload> collectedStats = new ConcurrentHashMap<>();
+                Set<String> pending = ConcurrentHashMap.newKeySet();
+                CompletableFuture<Void> answered = new CompletableFuture<>();
+                
+                // Registered before the members are read, so no departure is missed
+                Consumer<Set<String>> departures = live -> {
+                    if (pending.removeIf(member -> !member.equals(workerId) && !live.contains(member))) {
+                        logger.info("Worker [{}] no longer waiting for stats from departed members", workerId);
+                        if (pending.isEmpty()) {
+                            answered.complete(null);
+                        }
+                    }
+                };
+                spread.addMembershipListener(departures);
+                
                 Set<String> members = spread.getGroupMembers();
                 members.add(workerId);  // Include self
-                
-                Map<String, PartialStatsPayload> collectedStats = new ConcurrentHashMap<>();
-                CountDownLatch latch = new CountDownLatch(members.size());
+                pending.addAll(members);
                 
                 // Listen for stats responses
                 Consumer<SpreadMessage> statsListener = msg -> {
@@ -108,7 +215,9 @@ public class ElectionManager {
                             logger.info("Worker [{}] collected stats from [{}]: total={}", 
                                        workerId, stats.getWorkerId(), stats.getTotalRequests());
                             collectedStats.put(stats.getWorkerId(), stats);
-                            latch.countDown();
+                            if (pending.remove(stats.getWorkerId()) && pending.isEmpty()) {
+                                answered.complete(null);
+                            }
                         } else {
                             logger.warn("Worker [{}] received null stats payload", workerId);
                         }
@@ -118,32 +227,35 @@ public class ElectionManager {
                 spread.addMessageListener(statsListener);
                 
                 try {
-                    // Request stats from all workers
-                    for (String memberId : members) {
-                        if (memberId.equals(workerId)) {
-                            // Add own stats
-                            if (localStatsProvider != null) {
-                                PartialStatsPayload ownStats = localStatsProvider.getPartialStats();
-                                collectedStats.put(workerId, ownStats);
-                                latch.countDown();
-                            }
-                        } else {
-                            // Request from other workers
-                            SpreadMessage request = new SpreadMessage(SpreadMessageType.STATS_REQUEST, workerId, epoch);
-                            spread.sendTo(memberId, request);
+                    // Add own stats
+                    if (localStatsProvider != null) {
+                        PartialStatsPayload ownStats = localStatsProvider.getPartialStats();
+                        collectedStats.put(workerId, ownStats);
+                        if (pending.remove(workerId) && pending.isEmpty()) {
+                            answered.complete(null);
+                        }
+                    }
+                    // Request stats from the other workers: one multicast instead of a message per member
+                    if (members.size() > 1) {
+                        SpreadMessage request = new SpreadMessage(SpreadMessageType.STATS_REQUEST, workerId, epoch);
+                        if (trace != null) {
+                            request.setTrace(collection.childContext());
                         }
+                        spread.multicast(request);
                     }
                     
                     // Wait for responses (with timeout)
-                    boolean completed = latch.await(STATS_COLLECTION_TIMEOUT_MS, TimeUnit.MILLISECONDS);
-                    
-                    if (!completed) {
-                        logger.warn("Stats collection timeout. Collected {}/{} responses", 
-                                   collectedStats.size(), members.size());
+                    try {
+                        answered.get(STATS_COLLECTION_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                    } catch (TimeoutException e) {
+                        logger.warn("Stats collection timeout. Collected {}/{} responses, missing {}", 
+                                   collectedStats.size(), members.size(), pending);
                     }
                     
-                    // Aggregate stats
-                    StatisticsPayload aggregated = aggregateStats(collectedStats.values(), members.size());
+                    // Aggregate stats (the count is of the workers that answered)
+                    StatisticsPayload aggregated = aggregateStats(collectedStats.values(), collectedStats.size());
+                    long encodeStartNanos = System.nanoTime();
+                    collection.phase("stats.collect", collectStartNanos, encodeStartNanos);
                     
                     // Send response to client
                     ResponseMessage response = new ResponseMessage(
@@ -153,12 +265,20 @@ public class ElectionManager {
                         aggregated
                     );
                     
-                    byte[] responseBytes = JsonUtil.toJsonBytes(response);
-                    rabbitChannel.basicPublish("", clientQueue, null, responseBytes);
+                    byte[] responseBytes = codec.encodeResponse(response);
+                    long publishStartNanos = System.nanoTime();
+                    collection.phase("encode", encodeStartNanos, publishStartNanos);
+                    responseSender.send(clientQueue, replyProps(codec, requestId, trace, collection), 
+                                        responseBytes).get();
+                    collection.phase("publish", publishStartNanos, System.nanoTime());
                     
                     logger.info("Worker [{}] sent aggregated stats to client: total={}, successful={}, failed={}, workers={}",
                                workerId, aggregated.getTotalRequests(), aggregated.getSuccessfulRequests(),
                                aggregated.getFailedRequests(), aggregated.getWorkerCount());
+                    if (forwarded) {
+                        // Tells the forwarding worker not to fall back to collecting itself
+                        spread.multicast(new SpreadMessage(SpreadMessageType.REQUEST_COMPLETED, workerId, requestId));
+                    }
                     
                 } catch (Exception e) {
                     logger.error("Error collecting stats", e);
@@ -170,13 +290,18 @@ public class ElectionManager {
                             ResponseType.STATISTICS,
                             "Error collecting statistics: " + e.getMessage()
                         );
-                        byte[] responseBytes = JsonUtil.toJsonBytes(errorResponse);
-                        rabbitChannel.basicPublish("", clientQueue, null, responseBytes);
-                    } catch (IOException sendError) {
+                        byte[] responseBytes = codec.encodeResponse(errorResponse);
+                        responseSender.send(clientQueue, replyProps(codec, requestId, trace, collection), 
+                                            responseBytes).get();
+                    } catch (Exception sendError) {
                         logger.error("Failed to send error response", sendError);
                     }
                 } finally {
                     spread.removeMessageListener(statsListener);
+                    spread.removeMembershipListener(departures);
+                    if (spanSink != null) {
+                        spanSink.export(collection.finish(System.nanoTime()));
+                    }
                 }
             } catch (Exception e) {
                 logger.error("Error in stats collection thread", e);
@@ -184,8 +309,29 @@ public class ElectionManager {
         }).start();
     }
     
+    /**
+     * Clients correlate by request id (direct reply-to clients use it as correlationId).
+     * Traced replies echo the trace id and, if asked for, carry the collection's phases.
+     */
+    private static AMQP.BasicProperties replyProps(MessageCodec codec, String requestId, TraceContext trace,
+                                                   RequestTrace collection) {
+        AMQP.BasicProperties.Builder props = new AMQP.BasicProperties.Builder()
+            .contentType(codec.getContentType())
+            .correlationId(requestId);
+        if (trace != null) {
+            Map<String, Object> headers = new HashMap<>();
+            headers.put(QueueConfig.TRACE_ID_HEADER, trace.getTraceId());
+            if (trace.isDetailed()) {
+                headers.put(QueueConfig.TRACE_PHASES_HEADER, collection.formatPhases());
+            }
+            props.headers(headers);
+        }
+        return props.build();
+    }
+    
     /**
      * Aggregate partial statistics from all workers.
+     * Latency histograms are merged bucket by bucket, so the percentiles are cluster-wide.
      */
     private StatisticsPayload aggregateStats(Collection<PartialStatsPayload> partialStats, int workerCount) {
         long totalRequests = 0;
@@ -201,7 +347,12 @@ public class ElectionManager {
         logger.info("Aggregated stats from {} workers: total={}, successful={}, failed={}", 
                    partialStats.size(), totalRequests, successfulRequests, failedRequests);
         
-        return new StatisticsPayload(totalRequests, successfulRequests, failedRequests, workerCount);
+        StatisticsPayload aggregated = new StatisticsPayload(totalRequests, successfulRequests, failedRequests, 
+                                                             workerCount);
+        for (PartialStatsPayload stats : partialStats) {
+            aggregated.addTelemetry(stats);
+        }
+        return aggregated;
     }
     
     /**
@@ -214,7 +365,13 @@ public class ElectionManager {
                     handleElectionMessage(message);
                     break;
                 case ELECTION_VOTE:
-                    handleVoteMessage(message);
+                    // Only sent to initiators of the old election protocol
+                    break;
+                case STATS_FORWARD:
+                    handleStatsForward(message);
+                    break;
+                case REQUEST_COMPLETED:
+                    handleRequestCompleted(message);
                     break;
                 case COORDINATOR_ANNOUNCE:
                     handleCoordinatorAnnounce(message);
@@ -256,38 +413,22 @@ public class ElectionManager {
         logger.debug("Worker [{}] voted for [{}] (accept={})", workerId, votedFor, accept);
     }
     
-    private void handleVoteMessage(SpreadMessage message) {
-        VotePayload vote = convertPayload(message.getPayload(), VotePayload.class);
-        if (vote == null) return;
+    private void handleStatsForward(SpreadMessage message) {
+        CoordinatorAnnouncePayload forward = convertPayload(message.getPayload(), CoordinatorAnnouncePayload.class);
+        if (forward == null) return;
         
-        ElectionState state = activeElections.get(vote.getElectionEpoch());
-        if (state == null) {
-            logger.warn("Received vote for unknown election epoch={}", vote.getElectionEpoch());
-            return;
-        }
-        
-        state.recordVote(vote.getVoterId(), vote.getVotedFor(), vote.isAccept());
-        
-        // Check if we have enough votes (only process once)
-        Set<String> members = spread.getGroupMembers();
-        members.add(workerId);
-        
-        if (state.hasVoteCount(members.size()) && !state.isComplete()) {
-            state.markComplete();
-            String winner = state.determineWinner();
-            logger.info("Election epoch={} complete. Winner: {}", vote.getElectionEpoch(), winner);
-            
-            // Multicast the coordinator announcement so all workers know who won
-            try {
-                CoordinatorAnnouncePayload announce = new CoordinatorAnnouncePayload(
-                    vote.getElectionEpoch(), winner, state.requestId, state.clientQueue);
-                SpreadMessage announceMsg = new SpreadMessage(
-                    SpreadMessageType.COORDINATOR_ANNOUNCE, workerId, announce);
-                spread.multicast(announceMsg);
-                logger.info("Multicasted coordinator announcement: winner={}", winner);
-            } catch (Exception e) {
-                logger.error("Error multicasting coordinator announcement", e);
-            }
+        // Collect even if our own view now names someone else: the sender is waiting on us
+        logger.info("Worker [{}] received stats request={} forwarded by [{}] (view {})", 
+                   workerId, forward.getRequestId(), message.getSenderId(), forward.getElectionEpoch());
+        collectAndAggregateStats(collectionSequence.incrementAndGet(), forward.getRequestId(), 
+                                 forward.getClientQueue(), forward.getReplyContentType(), true, message.getTrace());
+    }
+    
+    private void handleRequestCompleted(SpreadMessage message) {
+        if (!(message.getPayload() instanceof String)) return;
+        ScheduledFuture<?> fallback = forwardedRequests.remove((String) message.getPayload());
+        if (fallback != null) {
+            fallback.cancel(false);
         }
     }
     
@@ -307,13 +448,18 @@ public class ElectionManager {
         // If this worker is the coordinator, collect stats and send response
         if (announce.getCoordinatorId().equals(workerId)) {
             logger.info("Worker [{}] is the coordinator. Collecting stats...", workerId);
-            collectAndAggregateStats(announce.getElectionEpoch(), announce.getRequestId(), announce.getClientQueue());
+            collectAndAggregateStats(announce.getElectionEpoch(), announce.getRequestId(), 
+                                     announce.getClientQueue(), announce.getReplyContentType(), false,
+                                     message.getTrace());
         } else {
             logger.info("Worker [{}] lost election to [{}]", workerId, announce.getCoordinatorId());
         }
     }
     
     private void handleStatsRequest(SpreadMessage message) throws Exception {
+        if (workerId.equals(message.getSenderId())) {
+            return;  // our own multicast: the coordinator adds its stats itself
+        }
         logger.info("Worker [{}] received stats request from [{}]", workerId, message.getSenderId());
         
         if (localStatsProvider != null) {
@@ -341,18 +487,22 @@ public class ElectionManager {
         }
     }
     
-    @SuppressWarnings("unchecked")
+    /**
+     * Payloads arrive already typed (JsonUtil and BinaryCodec decode them by message type).
+     * Untyped maps can only come from unusual senders and are converted as a fallback.
+     */
     private <T> T convertPayload(Object payload, Class<T> clazz) {
         if (payload == null) return null;
         
         try {
-            // Gson deserializes nested objects as LinkedTreeMap
+            if (clazz.isInstance(payload)) {
+                return clazz.cast(payload);
+            }
             if (payload instanceof Map) {
-                // Re-serialize and deserialize with correct type
-                String json = JsonUtil.toJson(payload);
-                return JsonUtil.fromJson(json, clazz);
+                return JsonUtil.convert(payload, clazz);
             }
-            return clazz.cast(payload);
+            logger.warn("Unexpected payload {} (expected {})", payload.getClass().getSimpleName(), clazz.getSimpleName());
+            return null;
         } catch (Exception e) {
             logger.error("Error converting payload to {}", clazz.getSimpleName(), e);
             return null;
@@ -360,53 +510,36 @@ public class ElectionManager {
     }
     
     /**
-     * State for an ongoing election.
+     * A membership view: its local sequence number and sorted member ids.
      */
-    private static class ElectionState {
-        final long epoch;
-        final String requestId;
-        final String clientQueue;
-        final CompletableFuture<String> result = new CompletableFuture<>();
-        final Map<String, String> votes = new ConcurrentHashMap<>();  // voterId -> votedFor
-        private volatile boolean complete = false;
-        
-        ElectionState(long epoch, String requestId, String clientQueue) {
-            this.epoch = epoch;
-            this.requestId = requestId;
-            this.clientQueue = clientQueue;
-        }
+    private static class View {
+        final long id;
+        final List<String> members;
         
-        void recordVote(String voterId, String votedFor, boolean accept) {
-            votes.put(voterId, votedFor);
+        View(long id, List<String> members) {
+            this.id = id;
+            this.members = members;
         }
         
-        boolean hasVoteCount(int expected) {
-            return votes.size() >= expected;
-        }
-        
-        boolean isComplete() {
-            return complete;
-        }
-        
-        void markComplete() {
-            complete = true;
-        }
-        
-        String determineWinner() {
-            // Count votes for each candidate
-            Map<String, Integer> voteCounts = new HashMap<>();
-            for (String candidate : votes.values()) {
-                voteCounts.put(candidate, voteCounts.getOrDefault(candidate, 0) + 1);
-            }
-            
-            // Find candidate with most votes
-            return voteCounts.entrySet().stream()
-                .max(Map.Entry.comparingByValue())
-                .map(Map.Entry::getKey)
-                .orElse(null);
+        String coordinator() {
+            return members.get(0);
         }
     }
     
+    /**
+     * Publishes a response to a client queue; the future completes on broker confirm.
+     */
+    public interface ResponseSender {
+        CompletableFuture<Void> send(String clientQueue, AMQP.BasicProperties props, byte[] body);
+    }
+    
+    /**
+     * Receives the coordinator's spans (e.g. for export).
+     */
+    public interface SpanSink {
+        void export(List<TraceSpan> spans);
+    }
+    
     /**
      * Interface for providing local statistics.
      */
@@ -0,0 +1,117 @@
+package pt.isel.cd.worker.spread;
+
+import pt.isel.cd.common.model.SpreadMessage;
+import pt.isel.cd.common.model.SpreadMessageType;
+import pt.isel.cd.common.util.LatencyRecorder;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Counts Spread traffic of another adapter: messages sent and received per type,
+ * send failures and the time spent handing messages to the transport.
+ */
+public class InstrumentedSpreadAdapter implements SpreadAdapter {
+    private final SpreadAdapter delegate;
+    private final Map<SpreadMessageType, LongAdder> sent = new EnumMap<>(SpreadMessageType.class);
+    private final Map<SpreadMessageType, LongAdder> received = new EnumMap<>(SpreadMessageType.class);
+    private final LongAdder sendErrors = new LongAdder();
+    private final LatencyRecorder sendLatency = new LatencyRecorder();
+
+    public InstrumentedSpreadAdapter(SpreadAdapter delegate) {
+        this.delegate = delegate;
+        for (SpreadMessageType type : SpreadMessageType.values()) {
+            sent.put(type, new LongAdder());
+            received.put(type, new LongAdder());
+        }
+        delegate.addMessageListener(message -> count(received, message));
+    }
+
+    @Override
+    public void multicast(SpreadMessage message) throws Exception {
+        long start = System.nanoTime();
+        try {
+            delegate.multicast(message);
+        } catch (Exception e) {
+            sendErrors.increment();
+            throw e;
+        }
+        recordSent(message, start);
+    }
+
+    @Override
+    public void sendTo(String targetMemberId, SpreadMessage message) throws Exception {
+        long start = System.nanoTime();
+        try {
+            delegate.sendTo(targetMemberId, message);
+        } catch (Exception e) {
+            sendErrors.increment();
+            throw e;
+        }
+        recordSent(message, start);
+    }
+
+    @Override
+    public void addMessageListener(Consumer<SpreadMessage> listener) {
+        delegate.addMessageListener(listener);
+    }
+
+    @Override
+    public void removeMessageListener(Consumer<SpreadMessage> listener) {
+        delegate.removeMessageListener(listener);
+    }
+
+    @Override
+    public void addMembershipListener(Consumer<Set<String>> listener) {
+        delegate.addMembershipListener(listener);
+    }
+
+    @Override
+    public void removeMembershipListener(Consumer<Set<String>> listener) {
+        delegate.removeMembershipListener(listener);
+    }
+
+    @Override
+    public Set<String> getGroupMembers() {
+        return delegate.getGroupMembers();
+    }
+
+    @Override
+    public void close() throws Exception {
+        delegate.close();
+    }
+
+    public long getSentCount(SpreadMessageType type) {
+        return sent.get(type).sum();
+    }
+
+    public long getReceivedCount(SpreadMessageType type) {
+        return received.get(type).sum();
+    }
+
+    public long getSendErrors() {
+        return sendErrors.sum();
+    }
+
+    /**
+     * Time to hand a message to the transport, in microseconds.
+     */
+    public LatencyRecorder getSendLatency() {
+        return sendLatency;
+    }
+
+    private void recordSent(SpreadMessage message, long start) {
+        sendLatency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+        count(sent, message);
+    }
+
+    private static void count(Map<SpreadMessageType, LongAdder> counters, SpreadMessage message) {
+        if (message.getType() != null) {
+            counters.get(message.getType()).increment();
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package pt.isel.cd.worker.spread;
+
+import pt.isel.cd.common.codec.Codecs;
+import pt.isel.cd.common.codec.MessageCodec;
+import pt.isel.cd.common.model.SpreadMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * A Spread group inside one JVM: no broker and no daemon.
+ *
+ * Used by workers colocated in one process, and as a fast harness for the election and
+ * statistics protocols. Each member has an inbox served by its own thread, so listeners
+ * run off the sender's thread as they would with a real transport. Messages and view
+ * changes are enqueued under the group lock, so every member sees them in the same order
+ * (like Spread's agreed delivery) and the messages of each sender stay in send order.
+ * Messages are encoded once per send and decoded per receiver, so members never share
+ * payload objects.
+ */
+public class LocalSpreadGroup {
+    private static final Logger logger = LoggerFactory.getLogger(LocalSpreadGroup.class);
+
+    private final String groupName;
+    private final MessageCodec codec = Codecs.BINARY;
+    private final Map<String, Member> members = new LinkedHashMap<>();
+
+    public LocalSpreadGroup(String groupName) {
+        this.groupName = groupName;
+    }
+
+    /**
+     * Join the group; the member leaves when its adapter is closed.
+     */
+    public SpreadAdapter join(String memberId) {
+        Member member = new Member(memberId);
+        synchronized (this) {
+            if (members.containsKey(memberId)) {
+                throw new IllegalArgumentException("Member already in group " + groupName + ": " + memberId);
+            }
+            members.put(memberId, member);
+            deliverView();
+        }
+        logger.info("Worker [{}] joined local Spread group [{}]", memberId, groupName);
+        return member;
+    }
+
+    public synchronized Set<String> getMembers() {
+        return new HashSet<>(members.keySet());
+    }
+
+    private synchronized void leave(Member member) {
+        if (members.remove(member.memberId, member)) {
+            deliverView();
+        }
+    }
+
+    /**
+     * Every member's view excludes itself, as with the other adapters. The view is
+     * current at once; its listeners run in order with the member's messages.
+     */
+    private void deliverView() {
+        for (Member member : members.values()) {
+            Set<String> view = new HashSet<>(members.keySet());
+            view.remove(member.memberId);
+            member.view = view;
+            member.enqueue(() -> member.notifyView(view));
+        }
+    }
+
+    private void multicast(Member sender, SpreadMessage message) {
+        byte[] bytes = encode(sender, message);
+        synchronized (this) {
+            for (Member member : members.values()) {
+                member.enqueue(() -> member.receive(bytes));
+            }
+        }
+    }
+
+    private void sendTo(Member sender, String targetMemberId, SpreadMessage message) {
+        byte[] bytes = encode(sender, message);
+        synchronized (this) {
+            Member target = members.get(targetMemberId);
+            if (target != null) {
+                target.enqueue(() -> target.receive(bytes));
+            } else {
+                // Like a message to a member that just left: nobody receives it
+                logger.debug("Worker [{}] sent {} to [{}], which is not in group [{}]",
+                            sender.memberId, message.getType(), targetMemberId, groupName);
+            }
+        }
+    }
+
+    private byte[] encode(Member sender, SpreadMessage message) {
+        message.setSenderId(sender.memberId);
+        message.setTimestamp(System.currentTimeMillis());
+        return codec.encodeSpreadMessage(message);
+    }
+
+    private class Member implements SpreadAdapter {
+        private final String memberId;
+        private final ExecutorService inbox;
+        private final List<Consumer<SpreadMessage>> messageListeners = new CopyOnWriteArrayList<>();
+        private final List<Consumer<Set<String>>> membershipListeners = new CopyOnWriteArrayList<>();
+        private volatile Set<String> view = Set.of();
+
+        Member(String memberId) {
+            this.memberId = memberId;
+            this.inbox = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, memberId + "-spread-local");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        void enqueue(Runnable delivery) {
+            try {
+                inbox.execute(delivery);
+            } catch (RejectedExecutionException e) {
+                // Closed concurrently with the delivery
+            }
+        }
+
+        void receive(byte[] bytes) {
+            SpreadMessage message = codec.decodeSpreadMessage(bytes);
+            for (Consumer<SpreadMessage> listener : messageListeners) {
+                try {
+                    listener.accept(message);
+                } catch (Exception e) {
+                    logger.error("Error in message listener", e);
+                }
+            }
+        }
+
+        void notifyView(Set<String> members) {
+            for (Consumer<Set<String>> listener : membershipListeners) {
+                try {
+                    listener.accept(new HashSet<>(members));
+                } catch (Exception e) {
+                    logger.error("Error in membership listener", e);
+                }
+            }
+        }
+
+        @Override
+        public void multicast(SpreadMessage message) {
+            LocalSpreadGroup.this.multicast(this, message);
+        }
+
+        @Override
+        public void sendTo(String targetMemberId, SpreadMessage message) {
+            LocalSpreadGroup.this.sendTo(this, targetMemberId, message);
+        }
+
+        @Override
+        public void addMessageListener(Consumer<SpreadMessage> listener) {
+            messageListeners.add(listener);
+        }
+
+        @Override
+        public void removeMessageListener(Consumer<SpreadMessage> listener) {
+            messageListeners.remove(listener);
+        }
+
+        @Override
+        public void addMembershipListener(Consumer<Set<String>> listener) {
+            membershipListeners.add(listener);
+        }
+
+        @Override
+        public void removeMembershipListener(Consumer<Set<String>> listener) {
+            membershipListeners.remove(listener);
+        }
+
+        @Override
+        public Set<String> getGroupMembers() {
+            return new HashSet<>(view);
+        }
+
+        @Override
+        public void close() {
+            leave(this);
+            inbox.shutdown();
+            logger.info("Worker [{}] left local Spread group [{}]", memberId, groupName);
+        }
+    }
+}
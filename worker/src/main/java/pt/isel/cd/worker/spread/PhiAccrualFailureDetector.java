@@ -0,0 +1,125 @@
+package pt.isel.cd.worker.spread;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Phi accrual failure detector (Hayashibara et al.), as used by Akka and Cassandra.
+ *
+ * Instead of a fixed timeout, each peer's recent heartbeat inter-arrival times are kept and
+ * the time since its last heartbeat is turned into a suspicion level phi = -log10(probability
+ * that a heartbeat arrives this late), assuming normally distributed intervals. A peer whose
+ * heartbeats are regular is suspected soon after it stops; one on a jittery link gets more
+ * slack. phi 8 means a one in 10^8 chance of a false suspicion under that model.
+ */
+class PhiAccrualFailureDetector {
+    private static final int MAX_SAMPLES = 100;
+
+    private final double threshold;
+    private final long expectedIntervalMillis;
+    private final long minStdDevMillis;
+    private final long acceptablePauseMillis;
+    private final Map<String, History> histories = new ConcurrentHashMap<>();
+
+    /**
+     * @param threshold              phi above which a peer is suspected
+     * @param expectedIntervalMillis heartbeat interval, seeds the history of a new peer
+     * @param acceptablePauseMillis  extra silence tolerated (e.g. GC pauses) before phi rises
+     */
+    PhiAccrualFailureDetector(double threshold, long expectedIntervalMillis, long acceptablePauseMillis) {
+        this.threshold = threshold;
+        this.expectedIntervalMillis = expectedIntervalMillis;
+        this.minStdDevMillis = Math.max(1, expectedIntervalMillis / 4);
+        this.acceptablePauseMillis = acceptablePauseMillis;
+    }
+
+    /**
+     * Record a heartbeat from a peer.
+     */
+    void heartbeat(String peer, long nowMillis) {
+        histories.computeIfAbsent(peer, id -> new History(expectedIntervalMillis, minStdDevMillis))
+                 .add(nowMillis);
+    }
+
+    /**
+     * Suspicion level of a peer (0 for peers never heard from).
+     */
+    double phi(String peer, long nowMillis) {
+        History history = histories.get(peer);
+        return history != null ? history.phi(nowMillis, minStdDevMillis, acceptablePauseMillis) : 0;
+    }
+
+    boolean isAvailable(String peer, long nowMillis) {
+        return phi(peer, nowMillis) < threshold;
+    }
+
+    /**
+     * Peers that are currently suspected.
+     */
+    List<String> suspects(long nowMillis) {
+        List<String> suspects = new ArrayList<>();
+        for (String peer : histories.keySet()) {
+            if (!isAvailable(peer, nowMillis)) {
+                suspects.add(peer);
+            }
+        }
+        return suspects;
+    }
+
+    /**
+     * Forget a peer; if it comes back its history starts over.
+     */
+    void remove(String peer) {
+        histories.remove(peer);
+    }
+
+    private static class History {
+        private final Deque<Long> intervals = new ArrayDeque<>();
+        private long lastMillis = -1;
+        private double sum;
+        private double squaredSum;
+
+        History(long expectedIntervalMillis, long stdDevMillis) {
+            // Two pseudo samples give mean = expected interval and deviation = stdDevMillis
+            addInterval(expectedIntervalMillis - stdDevMillis);
+            addInterval(expectedIntervalMillis + stdDevMillis);
+        }
+
+        synchronized void add(long nowMillis) {
+            if (lastMillis >= 0) {
+                addInterval(nowMillis - lastMillis);
+            }
+            lastMillis = nowMillis;
+        }
+
+        private void addInterval(long interval) {
+            if (intervals.size() == MAX_SAMPLES) {
+                long oldest = intervals.removeFirst();
+                sum -= oldest;
+                squaredSum -= (double) oldest * oldest;
+            }
+            intervals.addLast(interval);
+            sum += interval;
+            squaredSum += (double) interval * interval;
+        }
+
+        synchronized double phi(long nowMillis, long minStdDevMillis, long acceptablePauseMillis) {
+            if (lastMillis < 0) return 0;
+            int n = intervals.size();
+            double mean = sum / n + acceptablePauseMillis;
+            double variance = Math.max(0, squaredSum / n - (sum / n) * (sum / n));
+            double stdDev = Math.max(Math.sqrt(variance), minStdDevMillis);
+
+            // Logistic approximation of the normal distribution's tail
+            long elapsed = nowMillis - lastMillis;
+            double y = (elapsed - mean) / stdDev;
+            double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+            double pLater = elapsed > mean ? e / (1.0 + e) : 1.0 - 1.0 / (1.0 + e);
+            return -Math.log10(Math.max(pLater, Double.MIN_NORMAL));
+        }
+    }
+}
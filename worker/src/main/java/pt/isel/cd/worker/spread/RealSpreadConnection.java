@@ -1,5 +1,7 @@
 package pt.isel.cd.worker.spread;
 
+import pt.isel.cd.common.codec.Codecs;
+import pt.isel.cd.common.codec.MessageCodec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import spread.AdvancedMessageListener;
@@ -18,6 +20,8 @@ import java.util.function.Consumer;
 /**
  * Real Spread Toolkit connection implementation.
  * Connects to actual Spread daemon for production GCP deployment.
+ * Messages are sent as JSON by default (binary is opt-in) and decoded by sniffing the
+ * frame, so members sending either format are understood.
  */
 public class RealSpreadConnection implements SpreadAdapter, AdvancedMessageListener {
     private static final Logger logger = LoggerFactory.getLogger(RealSpreadConnection.class);
@@ -27,7 +31,10 @@ public class RealSpreadConnection implements SpreadAdapter, AdvancedMessageListe
     private final SpreadConnection connection;
     private final SpreadGroup group;
     private final Set<Consumer<pt.isel.cd.common.model.SpreadMessage>> messageListeners = new CopyOnWriteArraySet<>();
-    private final Set<String> currentMembers = ConcurrentHashMap.newKeySet();
+    private final Set<Consumer<Set<String>>> membershipListeners = new CopyOnWriteArraySet<>();
+    // Member id -> private group name ("#memberId#daemon"), the address of point-to-point messages
+    private final Map<String, String> currentMembers = new ConcurrentHashMap<>();
+    private volatile MessageCodec codec = Codecs.JSON;
     
     /**
      * Create connection to Spread daemon.
@@ -62,6 +69,13 @@ public class RealSpreadConnection implements SpreadAdapter, AdvancedMessageListe
         logger.info("Successfully joined Spread group [{}] as [{}]", groupName, memberId);
     }
     
+    /**
+     * Wire format of sent messages (binary once no member of an older version shares the group).
+     */
+    public void setCodec(MessageCodec codec) {
+        this.codec = codec;
+    }
+    
     @Override
     public void multicast(pt.isel.cd.common.model.SpreadMessage message) throws Exception {
         spread.SpreadMessage msg = new spread.SpreadMessage();
@@ -80,7 +94,8 @@ public class RealSpreadConnection implements SpreadAdapter, AdvancedMessageListe
     public void sendTo(String targetMemberId, pt.isel.cd.common.model.SpreadMessage message) throws Exception {
         spread.SpreadMessage msg = new spread.SpreadMessage();
         msg.setReliable();
-        msg.addGroup(targetMemberId);  // In Spread, private messages use member ID as group
+        // In Spread, private messages are addressed to the member's private group
+        msg.addGroup(currentMembers.getOrDefault(targetMemberId, targetMemberId));
         
         byte[] data = serializeMessage(message);
         msg.setData(data);
@@ -100,9 +115,19 @@ public class RealSpreadConnection implements SpreadAdapter, AdvancedMessageListe
         messageListeners.remove(listener);
     }
     
+    @Override
+    public void addMembershipListener(Consumer<Set<String>> listener) {
+        membershipListeners.add(listener);
+    }
+    
+    @Override
+    public void removeMembershipListener(Consumer<Set<String>> listener) {
+        membershipListeners.remove(listener);
+    }
+    
     @Override
     public Set<String> getGroupMembers() {
-        return new HashSet<>(currentMembers);
+        return new HashSet<>(currentMembers.keySet());
     }
     
     @Override
@@ -147,10 +172,12 @@ public class RealSpreadConnection implements SpreadAdapter, AdvancedMessageListe
             SpreadGroup[] members = info.getMembers();
             
             // Update member list
-            currentMembers.clear();
+            Map<String, String> view = new HashMap<>();
             for (SpreadGroup member : members) {
-                currentMembers.add(member.toString());
+                view.put(memberId(member.toString()), member.toString());
             }
+            currentMembers.keySet().retainAll(view.keySet());
+            currentMembers.putAll(view);
             
             if (info.isCausedByJoin()) {
                 logger.info("Member joined group [{}]: {} (total: {})", 
@@ -163,19 +190,42 @@ public class RealSpreadConnection implements SpreadAdapter, AdvancedMessageListe
                            groupName, info.getDisconnected(), members.length);
             }
             
+            
+            Set<String> memberIds = getGroupMembers();
+            for (Consumer<Set<String>> listener : membershipListeners) {
+                try {
+                    listener.accept(memberIds);
+                } catch (Exception e) {
+                    logger.error("Error in membership listener", e);
+                }
+            }
+            
         } catch (Exception e) {
             logger.error("Error processing membership message", e);
         }
     }
     
+    /**
+     * Member id from a private group name "#memberId#daemon".
+     */
+    private static String memberId(String privateGroup) {
+        if (privateGroup.startsWith("#")) {
+            int end = privateGroup.indexOf('#', 1);
+            if (end > 0) {
+                return privateGroup.substring(1, end);
+            }
+        }
+        return privateGroup;
+    }
+    
     // Serialization helpers
     
-    private byte[] serializeMessage(pt.isel.cd.common.model.SpreadMessage message) throws Exception {
-        // Use JSON serialization
-        return pt.isel.cd.common.util.JsonUtil.toJsonBytes(message);
+    private byte[] serializeMessage(pt.isel.cd.common.model.SpreadMessage message) {
+        return codec.encodeSpreadMessage(message);
     }
     
-    private pt.isel.cd.common.model.SpreadMessage deserializeMessage(byte[] data) throws Exception {
-        return pt.isel.cd.common.util.JsonUtil.fromJsonBytes(data, pt.isel.cd.common.model.SpreadMessage.class);
+    private pt.isel.cd.common.model.SpreadMessage deserializeMessage(byte[] data) {
+        // Payloads decode straight into their classes in either format
+        return Codecs.forFrame(data).decodeSpreadMessage(data);
     }
 }
@@ -31,6 +31,16 @@ public interface SpreadAdapter extends AutoCloseable {
      */
     void removeMessageListener(Consumer<SpreadMessage> listener);
     
+    /**
+     * Add listener for membership changes; it receives the new member set.
+     */
+    void addMembershipListener(Consumer<Set<String>> listener);
+    
+    /**
+     * Remove membership listener.
+     */
+    void removeMembershipListener(Consumer<Set<String>> listener);
+    
     /**
      * Get current group members.
      */
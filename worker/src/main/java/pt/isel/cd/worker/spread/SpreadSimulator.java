@@ -1,8 +1,11 @@
 package pt.isel.cd.worker.spread;
 
 import com.rabbitmq.client.*;
+import pt.isel.cd.common.codec.Codecs;
+import pt.isel.cd.common.codec.MessageCodec;
 import pt.isel.cd.common.model.SpreadMessage;
-import pt.isel.cd.common.util.JsonUtil;
+import pt.isel.cd.common.model.SpreadMessageType;
+import pt.isel.cd.common.model.WorkerPresencePayload;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -10,7 +13,11 @@ import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 
 /**
@@ -24,6 +31,16 @@ import java.util.function.Consumer;
  * - Membership notifications
  * 
  * The simulation uses RabbitMQ's topic exchange to mimic Spread's group communication.
+ * 
+ * A broker queue gives no membership view, so members heartbeat each other: every
+ * member multicasts WORKER_PRESENCE on the presence key at a fixed interval, and a
+ * {@link PhiAccrualFailureDetector} removes peers whose heartbeats stop. A member that
+ * closes cleanly sends a leave notice so it is removed at once. Heartbeats stay inside
+ * the simulator, like Spread's own membership traffic; any message from an unknown
+ * sender (e.g. a member that was suspected and came back) adds it again.
+ * 
+ * Messages are sent as JSON by default (binary is opt-in); received messages are decoded by
+ * sniffing the frame, so members sending either format are understood.
  */
 public class SpreadSimulator implements SpreadAdapter {
     private static final Logger logger = LoggerFactory.getLogger(SpreadSimulator.class);
@@ -31,6 +48,9 @@ public class SpreadSimulator implements SpreadAdapter {
     private static final String SPREAD_EXCHANGE = "spread_group_exchange";
     private static final String MULTICAST_ROUTING_KEY = "multicast.all";
     private static final String PRESENCE_ROUTING_KEY = "presence.announce";
+    private static final String LEAVE_ROUTING_KEY = "presence.leave";
+    
+    private static final double PHI_THRESHOLD = 8.0;
     
     private final String workerId;
     private final String groupName;
@@ -42,6 +62,13 @@ public class SpreadSimulator implements SpreadAdapter {
     private final List<Consumer<SpreadMessage>> messageListeners = new CopyOnWriteArrayList<>();
     private final List<Consumer<Set<String>>> membershipListeners = new CopyOnWriteArrayList<>();
     
+    private final long startTime = System.currentTimeMillis();
+    private final AtomicLong heartbeatSequence = new AtomicLong(0);
+    private volatile long heartbeatMillis = 0;  // opt-in, see setHeartbeatMillis
+    private volatile MessageCodec codec = Codecs.JSON;
+    private PhiAccrualFailureDetector failureDetector;
+    private ScheduledExecutorService heartbeats;
+    
     private volatile boolean running = false;
     
     public SpreadSimulator(String workerId, String groupName, String rabbitHost, int rabbitPort) 
@@ -66,22 +93,53 @@ public class SpreadSimulator implements SpreadAdapter {
         // Bind to multicast and presence messages
         channel.queueBind(queueName, SPREAD_EXCHANGE, MULTICAST_ROUTING_KEY);
         channel.queueBind(queueName, SPREAD_EXCHANGE, PRESENCE_ROUTING_KEY);
+        channel.queueBind(queueName, SPREAD_EXCHANGE, LEAVE_ROUTING_KEY);
         channel.queueBind(queueName, SPREAD_EXCHANGE, "p2p." + workerId); // Point-to-point
         
         logger.info("SpreadSimulator initialized for worker [{}] in group [{}]", workerId, groupName);
     }
     
+    /**
+     * Heartbeat interval, to be set before joining (0, the default = no heartbeats: members
+     * are only learned from their messages and never removed).
+     */
+    public void setHeartbeatMillis(long heartbeatMillis) {
+        if (heartbeatMillis < 0) {
+            throw new IllegalArgumentException("heartbeat interval must be >= 0");
+        }
+        this.heartbeatMillis = heartbeatMillis;
+    }
+    
+    /**
+     * Wire format of sent messages (binary once no member of an older version shares the group).
+     */
+    public void setCodec(MessageCodec codec) {
+        this.codec = codec;
+    }
+    
     /**
      * Join the Spread group and start receiving messages.
      */
     public void joinGroup() throws IOException {
         running = true;
+        if (heartbeatMillis > 0) {
+            // A few missed heartbeats are tolerated before phi starts to rise
+            failureDetector = new PhiAccrualFailureDetector(PHI_THRESHOLD, heartbeatMillis, 2 * heartbeatMillis);
+        }
         
         // Start consuming messages
         DeliverCallback deliverCallback = (consumerTag, delivery) -> {
             try {
-                SpreadMessage message = JsonUtil.fromJsonBytes(delivery.getBody(), SpreadMessage.class);
-                handleIncomingMessage(message);
+                byte[] body = delivery.getBody();
+                SpreadMessage message = Codecs.forFrame(body).decodeSpreadMessage(body);
+                String routingKey = delivery.getEnvelope().getRoutingKey();
+                if (PRESENCE_ROUTING_KEY.equals(routingKey)) {
+                    handleHeartbeat(message);
+                } else if (LEAVE_ROUTING_KEY.equals(routingKey)) {
+                    handleLeave(message);
+                } else {
+                    handleIncomingMessage(message);
+                }
             } catch (Exception e) {
                 logger.error("Error processing Spread message", e);
             }
@@ -89,7 +147,16 @@ public class SpreadSimulator implements SpreadAdapter {
         
         channel.basicConsume(queueName, true, deliverCallback, consumerTag -> {});
         
-        logger.info("Worker [{}] joined Spread group [{}]", workerId, groupName);
+        if (heartbeatMillis > 0) {
+            heartbeats = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, workerId + "-spread-heartbeat");
+                thread.setDaemon(true);
+                return thread;
+            });
+            heartbeats.scheduleAtFixedRate(this::heartbeatTick, 0, heartbeatMillis, TimeUnit.MILLISECONDS);
+        }
+        
+        logger.info("Worker [{}] joined Spread group [{}] (heartbeat {} ms)", workerId, groupName, heartbeatMillis);
     }
     
     /**
@@ -99,7 +166,7 @@ public class SpreadSimulator implements SpreadAdapter {
         message.setSenderId(workerId);
         message.setTimestamp(System.currentTimeMillis());
         
-        byte[] messageBytes = JsonUtil.toJsonBytes(message);
+        byte[] messageBytes = codec.encodeSpreadMessage(message);
         channel.basicPublish(SPREAD_EXCHANGE, MULTICAST_ROUTING_KEY, null, messageBytes);
         
         logger.debug("Worker [{}] multicast message type: {}", workerId, message.getType());
@@ -112,7 +179,7 @@ public class SpreadSimulator implements SpreadAdapter {
         message.setSenderId(workerId);
         message.setTimestamp(System.currentTimeMillis());
         
-        byte[] messageBytes = JsonUtil.toJsonBytes(message);
+        byte[] messageBytes = codec.encodeSpreadMessage(message);
         String routingKey = "p2p." + targetWorkerId;
         channel.basicPublish(SPREAD_EXCHANGE, routingKey, null, messageBytes);
         
@@ -137,10 +204,16 @@ public class SpreadSimulator implements SpreadAdapter {
     /**
      * Register a listener for membership changes.
      */
+    @Override
     public void addMembershipListener(Consumer<Set<String>> listener) {
         membershipListeners.add(listener);
     }
     
+    @Override
+    public void removeMembershipListener(Consumer<Set<String>> listener) {
+        membershipListeners.remove(listener);
+    }
+    
     /**
      * Get current known group members.
      */
@@ -169,6 +242,62 @@ public class SpreadSimulator implements SpreadAdapter {
         }
     }
     
+    /**
+     * Send a heartbeat, then remove the peers the failure detector suspects.
+     */
+    private void heartbeatTick() {
+        try {
+            publishPresence(PRESENCE_ROUTING_KEY);
+        } catch (Exception e) {
+            logger.warn("Worker [{}] failed to send heartbeat: {}", workerId, e.getMessage());
+        }
+        
+        boolean changed = false;
+        for (String suspect : failureDetector.suspects(System.currentTimeMillis())) {
+            failureDetector.remove(suspect);
+            if (knownWorkers.remove(suspect)) {
+                logger.warn("Worker [{}] suspects [{}] failed (no heartbeat), removing it from the group",
+                           workerId, suspect);
+                changed = true;
+            }
+        }
+        if (changed) {
+            notifyMembershipChange();
+        }
+    }
+    
+    private void publishPresence(String routingKey) throws IOException {
+        WorkerPresencePayload presence = new WorkerPresencePayload(
+            workerId, System.currentTimeMillis() - startTime, heartbeatSequence.incrementAndGet());
+        SpreadMessage message = new SpreadMessage(SpreadMessageType.WORKER_PRESENCE, workerId, presence);
+        message.setTimestamp(System.currentTimeMillis());
+        channel.basicPublish(SPREAD_EXCHANGE, routingKey, null, codec.encodeSpreadMessage(message));
+    }
+    
+    private void handleHeartbeat(SpreadMessage message) {
+        String senderId = message.getSenderId();
+        if (senderId == null || senderId.equals(workerId)) return;
+        if (failureDetector != null) {
+            failureDetector.heartbeat(senderId, System.currentTimeMillis());
+        }
+        if (knownWorkers.add(senderId)) {
+            logger.info("Detected new worker in group: {}", senderId);
+            notifyMembershipChange();
+        }
+    }
+    
+    private void handleLeave(SpreadMessage message) {
+        String senderId = message.getSenderId();
+        if (senderId == null || senderId.equals(workerId)) return;
+        if (failureDetector != null) {
+            failureDetector.remove(senderId);
+        }
+        if (knownWorkers.remove(senderId)) {
+            logger.info("Worker [{}] left the group", senderId);
+            notifyMembershipChange();
+        }
+    }
+    
     private void notifyMembershipChange() {
         Set<String> currentMembers = getGroupMembers();
         for (Consumer<Set<String>> listener : membershipListeners) {
@@ -191,7 +320,15 @@ public class SpreadSimulator implements SpreadAdapter {
     @Override
     public void close() throws IOException, TimeoutException {
         running = false;
+        if (heartbeats != null) {
+            heartbeats.shutdownNow();
+        }
         if (channel != null && channel.isOpen()) {
+            try {
+                publishPresence(LEAVE_ROUTING_KEY);
+            } catch (IOException e) {
+                logger.debug("Worker [{}] could not send leave notice: {}", workerId, e.getMessage());
+            }
             channel.close();
         }
         if (connection != null && connection.isOpen()) {
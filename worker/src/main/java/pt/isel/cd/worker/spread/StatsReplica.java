@@ -0,0 +1,336 @@
+package pt.isel.cd.worker.spread;
+
+import pt.isel.cd.common.model.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Replicated group statistics, so any worker answers GET_STATS from local state.
+ *
+ * The counters form a state-based grow-only CRDT (a G-Counter per statistic): there is one
+ * entry per worker incarnation, only its owner increments it, and replicas merge by taking
+ * the per-field maximum. Merging is commutative, associative and idempotent, so gossip can be
+ * lost, duplicated or reordered and all replicas still converge. Each worker periodically
+ * multicasts its own entries if they changed since the last round (an empty gossip otherwise,
+ * so peers know it is alive), and its whole replica when the view changes, so joiners catch
+ * up. Totals sum every entry, including those of workers that left or restarted.
+ *
+ * The replica holds at most two entries per worker id, however often workers restart: the
+ * latest incarnation of a worker folds the entries of its earlier incarnations into a
+ * retired entry (their sum, without windows) that only it writes, stamped with the newest
+ * incarnation it absorbed. Replicas drop incarnations covered by a retired entry and keep the
+ * retired entry with the highest stamp. An earlier incarnation the new one never heard of is
+ * dropped as well once a later retired entry arrives.
+ *
+ * Latency histograms are grow-only per incarnation as well and are joined bucket by bucket.
+ * The recent time windows are not: they shrink as requests age out. Only their owner changes
+ * them, so the copy with the newest timestamp wins, and totals only include the windows of the
+ * latest incarnation of each member of the current view (a departed worker's last windows
+ * would otherwise never age out).
+ *
+ * The reported staleness bounds how old the counters of the current view may be: the longest
+ * time since some member of the view was last heard from.
+ */
+public class StatsReplica {
+    private static final Logger logger = LoggerFactory.getLogger(StatsReplica.class);
+
+    private final String workerId;
+    private final long incarnation;
+    private final SpreadAdapter spread;
+    private final Supplier<PartialStatsPayload> localStats;
+    private final long createdAt = System.currentTimeMillis();
+
+    // workerId#incarnation (or workerId#retired) -> latest known counters; last gossip received per worker
+    private final Map<String, PartialStatsPayload> entries = new HashMap<>();
+    private final Map<String, Long> lastHeard = new HashMap<>();
+    // Own entries changed since the last gossip round
+    private final Set<String> changed = new HashSet<>();
+    private ScheduledExecutorService gossipTimer;
+
+    public StatsReplica(String workerId, long incarnation, SpreadAdapter spread,
+                        Supplier<PartialStatsPayload> localStats) {
+        this.workerId = workerId;
+        this.incarnation = incarnation;
+        this.spread = spread;
+        this.localStats = localStats;
+
+        spread.addMessageListener(this::handleSpreadMessage);
+        spread.addMembershipListener(members -> gossip(true));
+    }
+
+    /**
+     * Start multicasting this replica every interval.
+     */
+    public synchronized void start(long intervalMillis) {
+        if (gossipTimer != null) return;
+        gossipTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, workerId + "-stats-gossip");
+            thread.setDaemon(true);
+            return thread;
+        });
+        gossipTimer.scheduleAtFixedRate(() -> gossip(false), 0, intervalMillis, TimeUnit.MILLISECONDS);
+        logger.info("Worker [{}] gossiping statistics every {} ms", workerId, intervalMillis);
+    }
+
+    public synchronized void close() {
+        if (gossipTimer != null) {
+            gossipTimer.shutdownNow();
+        }
+    }
+
+    /**
+     * Aggregated statistics from the local replica. No messages are exchanged.
+     */
+    public StatisticsPayload getStatistics() {
+        Set<String> view = new HashSet<>(spread.getGroupMembers());
+        view.add(workerId);
+        long now = System.currentTimeMillis();
+
+        long totalRequests = 0;
+        long successfulRequests = 0;
+        long failedRequests = 0;
+        long staleness = 0;
+        StatisticsPayload telemetry = new StatisticsPayload();
+        synchronized (this) {
+            refreshLocal();
+            Map<String, PartialStatsPayload> latestInView = new HashMap<>();
+            for (PartialStatsPayload entry : entries.values()) {
+                totalRequests += entry.getTotalRequests();
+                successfulRequests += entry.getSuccessfulRequests();
+                failedRequests += entry.getFailedRequests();
+                telemetry.addTelemetry(entry);
+                if (entry.getRetiredThrough() == 0 && view.contains(entry.getWorkerId())) {
+                    latestInView.merge(entry.getWorkerId(), entry,
+                                       (a, b) -> a.getIncarnation() >= b.getIncarnation() ? a : b);
+                }
+            }
+            telemetry.setWindows(new ArrayList<>());
+            for (PartialStatsPayload entry : latestInView.values()) {
+                for (WindowStats window : entry.getWindows()) {
+                    telemetry.addWindow(window);
+                }
+            }
+            for (String member : view) {
+                if (!member.equals(workerId)) {
+                    staleness = Math.max(staleness, now - lastHeard.getOrDefault(member, createdAt));
+                }
+            }
+        }
+
+        StatisticsPayload statistics = new StatisticsPayload(totalRequests, successfulRequests, failedRequests,
+                                                             view.size());
+        statistics.setStalenessMillis(staleness);
+        statistics.setLatencies(telemetry.getLatencies());
+        statistics.setQueueWait(telemetry.getQueueWait());
+        statistics.setFilesScanned(telemetry.getFilesScanned());
+        statistics.setBytesScanned(telemetry.getBytesScanned());
+        statistics.setCacheHits(telemetry.getCacheHits());
+        statistics.setCacheMisses(telemetry.getCacheMisses());
+        statistics.setWindows(telemetry.getWindows());
+        return statistics;
+    }
+
+    /**
+     * @param full the whole replica (view changes); otherwise the own entries that changed
+     */
+    private void gossip(boolean full) {
+        List<PartialStatsPayload> snapshot = new ArrayList<>();
+        synchronized (this) {
+            refreshLocal();
+            for (Map.Entry<String, PartialStatsPayload> entry : entries.entrySet()) {
+                if (full || changed.contains(entry.getKey())) {
+                    snapshot.add(copy(entry.getValue()));
+                }
+            }
+            changed.clear();
+        }
+        try {
+            spread.multicast(new SpreadMessage(SpreadMessageType.STATS_GOSSIP, workerId,
+                                               new StatsGossipPayload(workerId, snapshot)));
+        } catch (Exception e) {
+            logger.warn("Worker [{}] failed to gossip statistics: {}", workerId, e.getMessage());
+        }
+    }
+
+    private void handleSpreadMessage(SpreadMessage message) {
+        if (message.getType() != SpreadMessageType.STATS_GOSSIP
+                || !(message.getPayload() instanceof StatsGossipPayload)) {
+            return;
+        }
+        StatsGossipPayload gossip = (StatsGossipPayload) message.getPayload();
+        if (workerId.equals(gossip.getSenderId())) return;
+
+        synchronized (this) {
+            lastHeard.put(gossip.getSenderId(), System.currentTimeMillis());
+            for (PartialStatsPayload received : gossip.getEntries()) {
+                merge(received);
+            }
+        }
+    }
+
+    /**
+     * Per-field maximum: the join of the G-Counter lattice.
+     * Returns true if the replica changed.
+     */
+    private boolean merge(PartialStatsPayload received) {
+        if (received.getWorkerId() == null) return false;
+        if (received.getRetiredThrough() > 0) {
+            return mergeRetired(received);
+        }
+        PartialStatsPayload retired = entries.get(retiredKey(received.getWorkerId()));
+        if (retired != null && received.getIncarnation() <= retired.getRetiredThrough()) {
+            return false;  // already counted in the retired entry
+        }
+        String key = key(received.getWorkerId(), received.getIncarnation());
+        PartialStatsPayload current = entries.get(key);
+        if (current == null) {
+            entries.put(key, copy(received));
+            return true;
+        }
+        long before = progress(current);
+        boolean changedWindows = false;
+        if (received.getTimestamp() > current.getTimestamp() && received.getWindows() != null) {
+            changedWindows = !received.getWindows().equals(current.getWindows());
+            current.setWindows(copyWindows(received.getWindows()));
+        }
+        current.setTotalRequests(Math.max(current.getTotalRequests(), received.getTotalRequests()));
+        current.setSuccessfulRequests(Math.max(current.getSuccessfulRequests(), received.getSuccessfulRequests()));
+        current.setFailedRequests(Math.max(current.getFailedRequests(), received.getFailedRequests()));
+        current.setTimestamp(Math.max(current.getTimestamp(), received.getTimestamp()));
+        current.setFilesScanned(Math.max(current.getFilesScanned(), received.getFilesScanned()));
+        current.setBytesScanned(Math.max(current.getBytesScanned(), received.getBytesScanned()));
+        current.setCacheHits(Math.max(current.getCacheHits(), received.getCacheHits()));
+        current.setCacheMisses(Math.max(current.getCacheMisses(), received.getCacheMisses()));
+        if (received.getLatencies() != null) {
+            for (Map.Entry<String, LatencyHistogram> latency : received.getLatencies().entrySet()) {
+                current.getLatencies().computeIfAbsent(latency.getKey(), type -> new LatencyHistogram())
+                       .join(latency.getValue());
+            }
+        }
+        if (received.getQueueWait() != null) {
+            current.getQueueWait().join(received.getQueueWait());
+        }
+        return changedWindows || progress(current) != before;
+    }
+
+    /**
+     * A retired entry replaces an older one (only the worker's latest incarnation writes it)
+     * and supersedes the incarnations it covers.
+     */
+    private boolean mergeRetired(PartialStatsPayload received) {
+        String workerId = received.getWorkerId();
+        PartialStatsPayload current = entries.get(retiredKey(workerId));
+        if (current != null && current.getRetiredThrough() >= received.getRetiredThrough()) {
+            return false;
+        }
+        entries.put(retiredKey(workerId), copy(received));
+        entries.values().removeIf(entry -> entry.getRetiredThrough() == 0 && workerId.equals(entry.getWorkerId())
+                                           && entry.getIncarnation() <= received.getRetiredThrough());
+        return true;
+    }
+
+    /**
+     * Sum of every grow-only field: it increases exactly when one of them does.
+     */
+    private static long progress(PartialStatsPayload stats) {
+        long progress = stats.getTotalRequests() + stats.getSuccessfulRequests() + stats.getFailedRequests()
+                        + stats.getFilesScanned() + stats.getBytesScanned()
+                        + stats.getCacheHits() + stats.getCacheMisses() + stats.getQueueWait().getTotalCount();
+        for (LatencyHistogram latency : stats.getLatencies().values()) {
+            progress += latency.getTotalCount();
+        }
+        return progress;
+    }
+
+    private void refreshLocal() {
+        PartialStatsPayload own = localStats.get();
+        own.setIncarnation(incarnation);
+        if (merge(own)) {
+            changed.add(key(workerId, incarnation));
+        }
+        retireEarlierIncarnations();
+    }
+
+    /**
+     * Fold the entries of this worker's earlier incarnations into its retired entry.
+     */
+    private void retireEarlierIncarnations() {
+        List<PartialStatsPayload> earlier = new ArrayList<>();
+        for (PartialStatsPayload entry : entries.values()) {
+            if (entry.getRetiredThrough() == 0 && workerId.equals(entry.getWorkerId())
+                    && entry.getIncarnation() < incarnation) {
+                earlier.add(entry);
+            }
+        }
+        if (earlier.isEmpty()) {
+            return;
+        }
+        PartialStatsPayload current = entries.get(retiredKey(workerId));
+        PartialStatsPayload retired = current != null ? copy(current) : new PartialStatsPayload(workerId, 0, 0, 0);
+        retired.setWindows(new ArrayList<>());
+        for (PartialStatsPayload entry : earlier) {
+            retired.setTotalRequests(retired.getTotalRequests() + entry.getTotalRequests());
+            retired.setSuccessfulRequests(retired.getSuccessfulRequests() + entry.getSuccessfulRequests());
+            retired.setFailedRequests(retired.getFailedRequests() + entry.getFailedRequests());
+            retired.setFilesScanned(retired.getFilesScanned() + entry.getFilesScanned());
+            retired.setBytesScanned(retired.getBytesScanned() + entry.getBytesScanned());
+            retired.setCacheHits(retired.getCacheHits() + entry.getCacheHits());
+            retired.setCacheMisses(retired.getCacheMisses() + entry.getCacheMisses());
+            for (Map.Entry<String, LatencyHistogram> latency : entry.getLatencies().entrySet()) {
+                retired.getLatencies().computeIfAbsent(latency.getKey(), type -> new LatencyHistogram())
+                       .add(latency.getValue());
+            }
+            retired.getQueueWait().add(entry.getQueueWait());
+            retired.setRetiredThrough(Math.max(retired.getRetiredThrough(), entry.getIncarnation()));
+            retired.setTimestamp(Math.max(retired.getTimestamp(), entry.getTimestamp()));
+        }
+        mergeRetired(retired);
+        changed.add(retiredKey(workerId));
+        logger.info("Worker [{}] folded {} earlier incarnation(s) into its retired statistics",
+                    workerId, earlier.size());
+    }
+
+    private static PartialStatsPayload copy(PartialStatsPayload stats) {
+        PartialStatsPayload copy = new PartialStatsPayload(stats.getWorkerId(), stats.getTotalRequests(),
+                                                           stats.getSuccessfulRequests(), stats.getFailedRequests());
+        copy.setTimestamp(stats.getTimestamp());
+        copy.setIncarnation(stats.getIncarnation());
+        copy.setRetiredThrough(stats.getRetiredThrough());
+        copy.setFilesScanned(stats.getFilesScanned());
+        copy.setBytesScanned(stats.getBytesScanned());
+        copy.setCacheHits(stats.getCacheHits());
+        copy.setCacheMisses(stats.getCacheMisses());
+        Map<String, LatencyHistogram> latencies = new HashMap<>();
+        if (stats.getLatencies() != null) {
+            for (Map.Entry<String, LatencyHistogram> latency : stats.getLatencies().entrySet()) {
+                latencies.put(latency.getKey(), latency.getValue().copy());
+            }
+        }
+        copy.setLatencies(latencies);
+        copy.setQueueWait(stats.getQueueWait() != null ? stats.getQueueWait().copy() : new LatencyHistogram());
+        copy.setWindows(stats.getWindows() != null ? copyWindows(stats.getWindows()) : new ArrayList<>());
+        return copy;
+    }
+
+    private static List<WindowStats> copyWindows(List<WindowStats> windows) {
+        List<WindowStats> copies = new ArrayList<>(windows.size());
+        for (WindowStats window : windows) {
+            copies.add(window.copy());
+        }
+        return copies;
+    }
+
+    private static String key(String workerId, long incarnation) {
+        return workerId + "#" + incarnation;
+    }
+
+    private static String retiredKey(String workerId) {
+        return workerId + "#retired";
+    }
+}
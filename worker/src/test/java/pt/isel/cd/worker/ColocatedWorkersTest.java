@@ -0,0 +1,94 @@
+package pt.isel.cd.worker;
+
+import com.rabbitmq.client.AMQP;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import pt.isel.cd.common.codec.BinaryCodec;
+import pt.isel.cd.common.codec.Codecs;
+import pt.isel.cd.common.config.RequestLane;
+import pt.isel.cd.common.model.RequestMessage;
+import pt.isel.cd.common.model.RequestType;
+import pt.isel.cd.common.model.ResponseMessage;
+import pt.isel.cd.common.model.ResponseStatus;
+import pt.isel.cd.common.model.StatisticsPayload;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Workers sharing one set of resources, on a fake broker: statistics go through the
+ * workers' real partial statistics, including those that do not report the shared cache.
+ */
+class ColocatedWorkersTest {
+    private static final long WAIT_MILLIS = 5000;
+    private static final String CLIENT_QUEUE = "client-queue";
+
+    private final FakeBroker broker = new FakeBroker();
+    private ColocatedWorkers workers;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (workers != null) {
+            workers.close();
+        }
+        broker.close();
+    }
+
+    @Test
+    void statsRoundCountsEveryColocatedWorker() throws Exception {
+        start(new WorkerOptions());
+
+        // Asked to the second worker, which leaves the cache counters to the first
+        StatisticsPayload stats = requestStats(1, "stats-1");
+        assertEquals(2, stats.getWorkerCount());
+    }
+
+    @Test
+    void gossipedStatisticsCountEveryColocatedWorker() throws Exception {
+        WorkerOptions options = new WorkerOptions();
+        options.setStatsGossipMillis(50);
+        start(options);
+
+        // A request counted by the second worker, which leaves the cache counters to the first
+        requestStats(1, "stats-0");
+
+        // Answered by the first worker from its replica: the second worker's count arrives by gossip
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        int round = 0;
+        StatisticsPayload stats;
+        do {
+            Thread.sleep(50);
+            stats = requestStats(0, "stats-" + ++round);
+        } while (stats.getTotalRequests() < round + 1 && System.currentTimeMillis() < deadline);
+        assertEquals(2, stats.getWorkerCount());
+        assertEquals(round + 1, stats.getTotalRequests());
+    }
+
+    private void start(WorkerOptions options) throws Exception {
+        Path corpus = Files.createTempDirectory("corpus");
+        WorkerResources resources = new WorkerResources("worker", broker.connection(), corpus.toString(), options, 2);
+        workers = new ColocatedWorkers("worker", 2, resources, "test-group", options);
+        workers.start();
+    }
+
+    /**
+     * Send GET_STATS to one worker's interactive lane and wait for the response.
+     */
+    private StatisticsPayload requestStats(int worker, String requestId) throws Exception {
+        RequestMessage request = new RequestMessage(requestId, RequestType.GET_STATS, CLIENT_QUEUE, null);
+        AMQP.BasicProperties props = new AMQP.BasicProperties.Builder()
+            .contentType(BinaryCodec.CONTENT_TYPE)
+            .correlationId(requestId)
+            .build();
+        broker.deliver(RequestLane.INTERACTIVE.getQueueName(), worker, props, Codecs.BINARY.encodeRequest(request));
+
+        FakeBroker.Published reply = broker.awaitPublished(CLIENT_QUEUE, WAIT_MILLIS);
+        assertNotNull(reply, "no statistics response within " + WAIT_MILLIS + " ms");
+        ResponseMessage response = Codecs.BINARY.decodeResponse(reply.body());
+        assertEquals(requestId, response.getRequestId());
+        assertEquals(ResponseStatus.OK, response.getStatus(), String.valueOf(response.getPayload()));
+        return (StatisticsPayload) response.getPayload();
+    }
+}
@@ -0,0 +1,222 @@
+package pt.isel.cd.worker;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmCallback;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.DeliverCallback;
+import com.rabbitmq.client.Delivery;
+import com.rabbitmq.client.Envelope;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An AMQP connection without a broker, for running workers in tests.
+ *
+ * Declarations are accepted and ignored. Consumers are recorded so tests can deliver to
+ * them, publishes are recorded and confirmed, and acks are recorded. Deliveries and confirms run
+ * on one "I/O" thread, like the connection thread of the real client.
+ */
+class FakeBroker implements AutoCloseable {
+    private final ExecutorService io = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "fake-amqp-io");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<String, List<DeliverCallback>> consumers = new ConcurrentHashMap<>();
+    private final BlockingQueue<Published> published = new LinkedBlockingQueue<>();
+    private final AtomicLong deliveryTags = new AtomicLong(0);
+    private final Set<Long> acked = ConcurrentHashMap.newKeySet();
+
+    record Published(String exchange, String routingKey, AMQP.BasicProperties props, byte[] body) {
+    }
+
+    Connection connection() {
+        return proxy(Connection.class, new ConnectionHandler());
+    }
+
+    /**
+     * Deliver a message to the index-th consumer of a queue (in the order they started).
+     *
+     * @return the delivery tag
+     */
+    long deliver(String queue, int consumer, AMQP.BasicProperties props, byte[] body) {
+        DeliverCallback callback = consumers.getOrDefault(queue, List.of()).get(consumer);
+        long tag = deliveryTags.incrementAndGet();
+        io.execute(() -> {
+            try {
+                callback.handle("consumer-" + consumer, new Delivery(new Envelope(tag, false, "", queue), props, body));
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        return tag;
+    }
+
+    /**
+     * Wait until a delivery is acked (alone or by a multiple ack); false on timeout.
+     */
+    boolean awaitAck(long deliveryTag, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (acked.stream().noneMatch(tag -> tag >= deliveryTag)) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(5);
+        }
+        return true;
+    }
+
+    /**
+     * Hold deliveries and confirms until the returned action runs.
+     */
+    Runnable pause() {
+        CountDownLatch resumed = new CountDownLatch(1);
+        io.execute(() -> {
+            try {
+                resumed.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        return resumed::countDown;
+    }
+
+    /**
+     * The next message published to a routing key (others are skipped), or null.
+     */
+    Published awaitPublished(String routingKey, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        long remaining;
+        while ((remaining = deadline - System.currentTimeMillis()) > 0) {
+            Published message = published.poll(remaining, TimeUnit.MILLISECONDS);
+            if (message != null && routingKey.equals(message.routingKey())) {
+                return message;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() {
+        io.shutdownNow();
+    }
+
+    private class ConnectionHandler implements InvocationHandler {
+        private volatile boolean open = true;
+
+        @Override
+        public Object invoke(Object self, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "createChannel":
+                    return proxy(Channel.class, new ChannelHandler());
+                case "isOpen":
+                    return open;
+                case "close":
+                    open = false;
+                    return null;
+                default:
+                    return defaultValue(self, method, args);
+            }
+        }
+    }
+
+    private class ChannelHandler implements InvocationHandler {
+        private final AtomicLong nextPublishSeqNo = new AtomicLong(1);
+        private final List<ConfirmCallback> confirmListeners = new CopyOnWriteArrayList<>();
+        private volatile boolean open = true;
+
+        @Override
+        public Object invoke(Object self, Method method, Object[] args) throws Exception {
+            switch (method.getName()) {
+                case "basicPublish": {
+                    int n = args.length;
+                    published.add(new Published((String) args[0], (String) args[1],
+                                                (AMQP.BasicProperties) args[n - 2], (byte[]) args[n - 1]));
+                    long sequenceNumber = nextPublishSeqNo.getAndIncrement();
+                    io.execute(() -> {
+                        for (ConfirmCallback listener : confirmListeners) {
+                            try {
+                                listener.handle(sequenceNumber, false);
+                            } catch (Exception e) {
+                                throw new IllegalStateException(e);
+                            }
+                        }
+                    });
+                    return null;
+                }
+                case "basicAck":
+                    acked.add((Long) args[0]);
+                    return null;
+                case "getNextPublishSeqNo":
+                    return nextPublishSeqNo.get();
+                case "addConfirmListener":
+                    if (args.length == 2) {
+                        confirmListeners.add((ConfirmCallback) args[0]);
+                    }
+                    return null;
+                case "basicConsume": {
+                    String queue = (String) args[0];
+                    for (Object arg : args) {
+                        if (arg instanceof DeliverCallback) {
+                            List<DeliverCallback> queueConsumers =
+                                consumers.computeIfAbsent(queue, q -> new CopyOnWriteArrayList<>());
+                            queueConsumers.add((DeliverCallback) arg);
+                            return queue + "#" + (queueConsumers.size() - 1);
+                        }
+                    }
+                    throw new UnsupportedOperationException("basicConsume without a DeliverCallback");
+                }
+                case "waitForConfirms":
+                    return true;
+                case "isOpen":
+                    return open;
+                case "close":
+                    open = false;
+                    return null;
+                default:
+                    return defaultValue(self, method, args);
+            }
+        }
+    }
+
+    /**
+     * Zero, false or null, or a proxy of the same kind for results like queue.declare-ok.
+     */
+    private static Object defaultValue(Object self, Method method, Object[] args) {
+        Class<?> type = method.getReturnType();
+        switch (method.getName()) {
+            case "equals":
+                return self == args[0];
+            case "hashCode":
+                return System.identityHashCode(self);
+            case "toString":
+                return "FakeBroker " + method.getDeclaringClass().getSimpleName();
+            default:
+                break;
+        }
+        if (type == boolean.class) return false;
+        if (type == int.class) return 0;
+        if (type == long.class) return 0L;
+        if (type.isInterface()) return proxy(type, FakeBroker::defaultValue);
+        return null;
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(FakeBroker.class.getClassLoader(), new Class<?>[] {type}, handler));
+    }
+}
@@ -0,0 +1,27 @@
+package pt.isel.cd.worker;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PublisherPoolTest {
+
+    @Test
+    void publishContinuationsRunOffTheConnectionThread() throws Exception {
+        try (FakeBroker broker = new FakeBroker()) {
+            PublisherPool pool = new PublisherPool("test", broker.connection(), 2);
+            // Held back so the continuation is registered before the confirm arrives
+            Runnable resume = broker.pause();
+            CompletableFuture<String> continuedOn = pool.publish("", "client-queue", null, new byte[0])
+                .thenApply(ignored -> Thread.currentThread().getName());
+            resume.run();
+
+            String thread = continuedOn.get(5, TimeUnit.SECONDS);
+            assertTrue(thread.startsWith("test-confirm-"), "continuation ran on " + thread);
+            pool.close(1000);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package pt.isel.cd.worker;
+
+import com.rabbitmq.client.AMQP;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import pt.isel.cd.common.codec.BinaryCodec;
+import pt.isel.cd.common.codec.Codecs;
+import pt.isel.cd.common.config.QueueConfig;
+import pt.isel.cd.common.config.RequestLane;
+import pt.isel.cd.common.model.FilePayload;
+import pt.isel.cd.common.model.RequestMessage;
+import pt.isel.cd.common.model.RequestType;
+import pt.isel.cd.common.model.ResponseMessage;
+import pt.isel.cd.common.model.ResponseStatus;
+import pt.isel.cd.common.model.StatisticsPayload;
+import pt.isel.cd.worker.spread.LocalSpreadGroup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * A worker on a fake broker and an in-memory group: requests in, responses and statistics out.
+ */
+class WorkerTest {
+    private static final long WAIT_MILLIS = 5000;
+    private static final String CLIENT_QUEUE = "client-queue";
+
+    private final FakeBroker broker = new FakeBroker();
+    private Worker worker;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (worker != null) {
+            worker.close();
+        }
+        broker.close();
+    }
+
+    @Test
+    void hedgeCopiesAreNotCounted() throws Exception {
+        Path corpus = Files.createTempDirectory("corpus");
+        Files.writeString(corpus.resolve("email.txt"), "hello");
+        start(corpus);
+
+        // A hedge copy: its original is counted by whichever worker processes it
+        RequestMessage getFile = new RequestMessage("file-1", RequestType.GET_FILE, CLIENT_QUEUE,
+                                                    new FilePayload("email.txt"));
+        assertEquals(ResponseStatus.OK, send(getFile, true).getStatus());
+
+        // Only GET_STATS itself is counted, and it is handed over rather than completed here
+        StatisticsPayload stats = (StatisticsPayload) send(
+            new RequestMessage("stats-1", RequestType.GET_STATS, CLIENT_QUEUE, null), false).getPayload();
+        assertEquals(1, stats.getTotalRequests());
+        assertEquals(0, stats.getSuccessfulRequests());
+        assertEquals(0, stats.getFailedRequests());
+    }
+
+    private void start(Path corpus) throws Exception {
+        WorkerOptions options = new WorkerOptions();
+        WorkerResources resources = new WorkerResources("worker-1", broker.connection(), corpus.toString(), options, 1);
+        worker = new Worker("worker-1", new LocalSpreadGroup("test-group").join("worker-1"), resources, options, 0);
+        worker.start();
+    }
+
+    /**
+     * Deliver a request to the worker's lane and wait for its response and its ack.
+     */
+    private ResponseMessage send(RequestMessage request, boolean hedge) throws Exception {
+        AMQP.BasicProperties props = new AMQP.BasicProperties.Builder()
+            .contentType(BinaryCodec.CONTENT_TYPE)
+            .correlationId(request.getRequestId())
+            .headers(Map.of(QueueConfig.HEDGE_HEADER, hedge))
+            .build();
+        long deliveryTag = broker.deliver(RequestLane.of(request.getType()).getQueueName(), 0, props,
+                                          Codecs.BINARY.encodeRequest(request));
+
+        FakeBroker.Published reply = broker.awaitPublished(CLIENT_QUEUE, WAIT_MILLIS);
+        assertNotNull(reply, "no response to " + request.getRequestId() + " within " + WAIT_MILLIS + " ms");
+        ResponseMessage response = Codecs.BINARY.decodeResponse(reply.body());
+        assertEquals(request.getRequestId(), response.getRequestId());
+        assertTrue(broker.awaitAck(deliveryTag, WAIT_MILLIS), "delivery of " + request.getRequestId() + " not acked");
+        return response;
+    }
+}
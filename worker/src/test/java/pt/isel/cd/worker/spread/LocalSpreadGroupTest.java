@@ -0,0 +1,155 @@
+package pt.isel.cd.worker.spread;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import pt.isel.cd.common.codec.BinaryCodec;
+import pt.isel.cd.common.codec.Codecs;
+import pt.isel.cd.common.model.PartialStatsPayload;
+import pt.isel.cd.common.model.ResponseMessage;
+import pt.isel.cd.common.model.StatisticsPayload;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Election and statistics protocols on an in-memory group: no broker or Spread daemon.
+ */
+class LocalSpreadGroupTest {
+    private static final long WAIT_MILLIS = 5000;
+
+    private final LocalSpreadGroup group = new LocalSpreadGroup("test-group");
+    private final List<Member> members = new ArrayList<>();
+    // Responses sent to clients by any member (the coordinator answers them directly)
+    private final BlockingQueue<ResponseMessage> responses = new LinkedBlockingQueue<>();
+
+    @AfterEach
+    void tearDown() {
+        for (Member member : members) {
+            member.close();
+        }
+    }
+
+    @Test
+    void viewsExcludeTheMemberItself() {
+        Member w1 = join("worker-1", 0);
+        Member w2 = join("worker-2", 0);
+
+        awaitTrue(() -> w1.adapter.getGroupMembers().equals(Set.of("worker-2")));
+        assertEquals(Set.of("worker-1"), w2.adapter.getGroupMembers());
+        assertEquals(Set.of("worker-1", "worker-2"), group.getMembers());
+    }
+
+    @Test
+    void coordinatorIsTheLowestMemberOfTheView() {
+        Member w2 = join("worker-2", 0);
+        Member w3 = join("worker-3", 0);
+        Member w1 = join("worker-1", 0);
+
+        for (Member member : List.of(w1, w2, w3)) {
+            awaitTrue(() -> "worker-1".equals(member.election.getCoordinator()));
+        }
+
+        w1.close();
+        for (Member member : List.of(w2, w3)) {
+            awaitTrue(() -> "worker-2".equals(member.election.getCoordinator()));
+        }
+    }
+
+    @Test
+    void statsRoundAggregatesEveryMember() throws InterruptedException {
+        join("worker-1", 10);
+        join("worker-2", 20);
+        Member w3 = join("worker-3", 30);
+        awaitTrue(() -> members.stream().allMatch(m -> "worker-1".equals(m.election.getCoordinator())));
+
+        // Asked to a member that is not the coordinator: forwarded, then answered by worker-1
+        w3.election.requestStats("request-1", "client-queue", BinaryCodec.CONTENT_TYPE, null);
+
+        StatisticsPayload stats = awaitResponse();
+        assertEquals(3, stats.getWorkerCount());
+        assertEquals(60, stats.getTotalRequests());
+        assertEquals(60, stats.getSuccessfulRequests());
+    }
+
+    @Test
+    void statsRoundDoesNotWaitForDepartedMembers() throws InterruptedException {
+        Member w1 = join("worker-1", 10);
+        Member w2 = join("worker-2", 20);
+        join("worker-3", 30);
+        awaitTrue(() -> w1.adapter.getGroupMembers().size() == 2);
+
+        w2.close();
+        awaitTrue(() -> w1.adapter.getGroupMembers().equals(Set.of("worker-3")));
+
+        long start = System.nanoTime();
+        w1.election.requestStats("request-2", "client-queue", BinaryCodec.CONTENT_TYPE, null);
+        StatisticsPayload stats = awaitResponse();
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(2, stats.getWorkerCount());
+        assertEquals(40, stats.getTotalRequests());
+        assertTrue(elapsedMillis < 1000, "round took " + elapsedMillis + " ms");
+    }
+
+    private Member join(String workerId, long requests) {
+        Member member = new Member(workerId, requests);
+        members.add(member);
+        return member;
+    }
+
+    private StatisticsPayload awaitResponse() throws InterruptedException {
+        ResponseMessage response = responses.poll(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        assertNotNull(response, "no statistics response within " + WAIT_MILLIS + " ms");
+        return (StatisticsPayload) response.getPayload();
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("condition not met within " + WAIT_MILLIS + " ms");
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail("interrupted");
+            }
+        }
+    }
+
+    private class Member {
+        final SpreadAdapter adapter;
+        final ElectionManager election;
+        private boolean closed = false;
+
+        Member(String workerId, long requests) {
+            adapter = group.join(workerId);
+            election = new ElectionManager(workerId, adapter, (clientQueue, props, body) -> {
+                responses.add(Codecs.forFrame(body).decodeResponse(body));
+                return CompletableFuture.completedFuture(null);
+            });
+            election.setStatsProvider(() -> new PartialStatsPayload(workerId, requests, requests, 0));
+        }
+
+        void close() {
+            if (!closed) {
+                closed = true;
+                election.close();
+                try {
+                    adapter.close();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+    }
+}